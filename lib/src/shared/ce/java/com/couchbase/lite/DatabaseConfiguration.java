@@ -55,6 +55,122 @@ public final class DatabaseConfiguration extends AbstractDatabaseConfiguration {
         return this;
     }
 
+    /**
+     * Set the number of read-only connections that the database opens, in addition to its main connection.
+     * Document reads and queries use these connections, so that they proceed concurrently
+     * with each other and with writes, instead of waiting for them.
+     * A read on a reader connection sees the database as of the most recently committed transaction:
+     * reads made from within a batch operation always use the main connection and so see the batch's changes.
+     * The default, 0, means that all reads and writes use the main connection.
+     *
+     * @param readerPoolSize the number of reader connections
+     * @return The self object.
+     */
+    @NonNull
+    @Override
+    public DatabaseConfiguration setReaderPoolSize(int readerPoolSize) {
+        super.setReaderPoolSize(readerPoolSize);
+        return this;
+    }
+
+    /**
+     * Set the time, in milliseconds, that an asynchronous save waits for other asynchronous saves
+     * to join its group, before the group is committed. The default is 2ms.
+     * A longer window means larger groups, and so fewer commits, but a longer wait for each save.
+     *
+     * @param groupCommitWindow the group commit window, in milliseconds
+     * @return The self object.
+     */
+    @NonNull
+    @Override
+    public DatabaseConfiguration setGroupCommitWindow(long groupCommitWindow) {
+        super.setGroupCommitWindow(groupCommitWindow);
+        return this;
+    }
+
+    /**
+     * Set the maximum number of asynchronous saves that are committed in a single transaction.
+     * A group is committed as soon as it reaches this size, even if its window has not elapsed.
+     * The default is 500.
+     *
+     * @param groupCommitMaxSize the maximum group size
+     * @return The self object.
+     */
+    @NonNull
+    @Override
+    public DatabaseConfiguration setGroupCommitMaxSize(int groupCommitMaxSize) {
+        super.setGroupCommitMaxSize(groupCommitMaxSize);
+        return this;
+    }
+
+    /**
+     * Set the maximum number of documents in the database's document cache.
+     * When the cache is enabled, getDocument returns a cached Document, if there is one,
+     * without reading the database. Cached documents are shared: the same Document instance
+     * may be returned to several callers. The cache discards a document as soon as it is
+     * changed through this database instance. Changes made by a replicator, or through another
+     * database instance, are seen once the database's change notification for them has been processed.
+     * The default, 0, disables the cache.
+     *
+     * @param documentCacheSize the maximum number of cached documents
+     * @return The self object.
+     */
+    @NonNull
+    @Override
+    public DatabaseConfiguration setDocumentCacheSize(int documentCacheSize) {
+        super.setDocumentCacheSize(documentCacheSize);
+        return this;
+    }
+
+    /**
+     * Set the maximum number of compiled queries that the database caches, for each of its connections.
+     * When the cache is enabled, Query objects with the same JSON encoding share a single compiled query,
+     * so that a query that is built over and over again is parsed and prepared only once per connection.
+     * Creating or deleting an index discards the cached queries. getQueryCacheStats reports the cache's use.
+     * The default, 0, disables the cache.
+     *
+     * @param queryCacheSize the maximum number of cached queries, per connection
+     * @return The self object.
+     */
+    @NonNull
+    @Override
+    public DatabaseConfiguration setQueryCacheSize(int queryCacheSize) {
+        super.setQueryCacheSize(queryCacheSize);
+        return this;
+    }
+
+    /**
+     * Set whether the database records execution statistics for its queries: the time taken to compile
+     * and to run each query, the time to its first row, and the number of rows and the time taken to read them.
+     * Statistics are kept for each distinct query, and are reported by getQueryProfiles.
+     * The default is false.
+     *
+     * @param queryProfilingEnabled true to enable query profiling
+     * @return The self object.
+     */
+    @NonNull
+    @Override
+    public DatabaseConfiguration setQueryProfilingEnabled(boolean queryProfilingEnabled) {
+        super.setQueryProfilingEnabled(queryProfilingEnabled);
+        return this;
+    }
+
+    /**
+     * Set the time, in milliseconds, above which a query execution is logged as slow, with the query's plan.
+     * The time does not include the time that the application spends between reading rows.
+     * Setting a threshold enables query profiling.
+     * The default, 0, disables slow query logging.
+     *
+     * @param slowQueryThreshold the slow query threshold, in milliseconds
+     * @return The self object.
+     */
+    @NonNull
+    @Override
+    public DatabaseConfiguration setSlowQueryThreshold(long slowQueryThreshold) {
+        super.setSlowQueryThreshold(slowQueryThreshold);
+        return this;
+    }
+
     //---------------------------------------------
     // protected methods
     //---------------------------------------------
@@ -224,6 +224,61 @@ Java_com_couchbase_lite_internal_core_C4Database_purgeDoc(JNIEnv *env, jclass cl
         throwError(env, error);
 }
 
+/*
+ * Class:     com_couchbase_lite_internal_core_C4Database
+ * Method:    getDocuments
+ * Signature: (J[Ljava/lang/String;)[J
+ */
+JNIEXPORT jlongArray JNICALL
+Java_com_couchbase_lite_internal_core_C4Database_getDocuments(JNIEnv *env, jclass clazz,
+                                                    jlong jdb, jobjectArray jdocIDs) {
+    jsize n = env->GetArrayLength(jdocIDs);
+    std::vector<jlong> docs(n, 0);
+
+    // Missing and deleted documents are returned as 0.
+    for (jsize i = 0; i < n; i++) {
+        jstring jdocID = (jstring) env->GetObjectArrayElement(jdocIDs, i);
+
+        C4Error error;
+        C4Document *doc;
+        {
+            jstringSlice docID(env, jdocID);
+            doc = c4doc_get((C4Database *) jdb, docID, true, &error);
+        }
+        env->DeleteLocalRef(jdocID);
+
+        if (doc == nullptr) {
+            if (error.domain == LiteCoreDomain && error.code == kC4ErrorNotFound)
+                continue;
+
+            for (jsize j = 0; j < i; j++) {
+                if (docs[j] != 0)
+                    c4doc_free((C4Document *) docs[j]);
+            }
+            throwError(env, error);
+            return nullptr;
+        }
+
+        if ((doc->flags & kDocDeleted) != 0) {
+            c4doc_free(doc);
+            continue;
+        }
+
+        docs[i] = (jlong) doc;
+    }
+
+    jlongArray result = env->NewLongArray(n);
+    if (result == nullptr) {
+        for (jsize i = 0; i < n; i++) {
+            if (docs[i] != 0)
+                c4doc_free((C4Document *) docs[i]);
+        }
+        return nullptr;
+    }
+    env->SetLongArrayRegion(result, 0, n, docs.data());
+    return result;
+}
+
 /*
  * Class:     com_couchbase_lite_internal_core_C4Database
  * Method:    getMaxRevTreeDepth
@@ -105,3 +105,29 @@ Java_com_couchbase_lite_internal_core_C4DocEnumerator_getDocument(JNIEnv *env, j
         throwError(env, error);
     return (jlong) doc;
 }
+
+/*
+ * Class:     com_couchbase_lite_internal_core_C4DocEnumerator
+ * Method:    getDocumentInfo
+ * Signature: (J[Ljava/lang/Object;[J)V
+ */
+JNIEXPORT void JNICALL
+Java_com_couchbase_lite_internal_core_C4DocEnumerator_getDocumentInfo(JNIEnv *env, jclass clazz, jlong handle,
+                                                            jobjectArray outIDs, jlongArray outNumbers) {
+    C4DocumentInfo info;
+    if (!c4enum_getDocumentInfo((C4DocEnumerator *) handle, &info))
+        return;
+
+    // outIDs: {docID, revID}
+    jstring docID = toJString(env, info.docID);
+    env->SetObjectArrayElement(outIDs, 0, docID);
+    env->DeleteLocalRef(docID);
+
+    jstring revID = toJString(env, info.revID);
+    env->SetObjectArrayElement(outIDs, 1, revID);
+    env->DeleteLocalRef(revID);
+
+    // outNumbers: {flags, sequence}
+    jlong numbers[2] = {(jlong) info.flags, (jlong) info.sequence};
+    env->SetLongArrayRegion(outNumbers, 0, 2, numbers);
+}
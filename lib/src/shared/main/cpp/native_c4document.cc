@@ -118,6 +118,17 @@ Java_com_couchbase_lite_internal_core_C4Document_getSelectedBody(JNIEnv *env, jc
     return toJByteArray(env, doc->selectedRev.body);
 }
 
+/*
+ * Class:     com_couchbase_lite_internal_core_C4Document
+ * Method:    getSelectedBodySize
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL
+Java_com_couchbase_lite_internal_core_C4Document_getSelectedBodySize(JNIEnv *env, jclass clazz, jlong jdoc) {
+    C4Document *doc = (C4Document *) jdoc;
+    return (jlong) doc->selectedRev.body.size;
+}
+
 /*
  * Class:     com_couchbase_lite_internal_core_C4Document
  * Method:    getSelectedBody2
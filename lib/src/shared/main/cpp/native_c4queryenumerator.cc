@@ -49,6 +49,47 @@ Java_com_couchbase_lite_internal_core_C4QueryEnumerator_next(JNIEnv *env, jclass
     return result;
 }
 
+/*
+ * Class:     com_couchbase_lite_internal_core_C4QueryEnumerator
+ * Method:    nextBatch
+ * Signature: (JI[J[J)I
+ */
+JNIEXPORT jint JNICALL
+Java_com_couchbase_lite_internal_core_C4QueryEnumerator_nextBatch(JNIEnv *env, jclass clazz, jlong handle,
+                                                        jint jnCols, jlongArray jvalues,
+                                                        jlongArray jmissing) {
+    C4QueryEnumerator *e = (C4QueryEnumerator *) handle;
+    if (e == NULL)
+        return 0;
+
+    int nCols = (int) jnCols;
+    jsize maxRows = env->GetArrayLength(jmissing);
+    if (env->GetArrayLength(jvalues) < maxRows * nCols)
+        maxRows = (nCols <= 0) ? maxRows : env->GetArrayLength(jvalues) / nCols;
+
+    jlong *values = env->GetLongArrayElements(jvalues, NULL);
+    jlong *missing = env->GetLongArrayElements(jmissing, NULL);
+
+    C4Error error = {};
+    jint nRows = 0;
+    while (nRows < maxRows) {
+        if (!c4queryenum_next(e, &error))
+            break;
+        for (int i = 0; i < nCols; i++)
+            values[nRows * nCols + i] = (jlong) FLArrayIterator_GetValueAt(&(e->columns), (uint32_t) i);
+        missing[nRows] = (jlong) e->missingColumns;
+        nRows++;
+    }
+
+    env->ReleaseLongArrayElements(jvalues, values, 0);
+    env->ReleaseLongArrayElements(jmissing, missing, 0);
+
+    if (error.code != 0)
+        throwError(env, error);
+
+    return nRows;
+}
+
 /*
  * Class:     com_couchbase_lite_internal_core_C4QueryEnumerator
  * Method:    getRowCount
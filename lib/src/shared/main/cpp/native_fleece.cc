@@ -23,6 +23,7 @@
 #include "com_couchbase_lite_internal_fleece_FLDictIterator.h"
 #include "com_couchbase_lite_internal_fleece_FLValue.h"
 #include "com_couchbase_lite_internal_fleece_FLEncoder.h"
+#include "com_couchbase_lite_internal_fleece_FLSharedKeys.h"
 #include "com_couchbase_lite_internal_fleece_FLSliceResult.h"
 
 using namespace litecore;
@@ -439,6 +440,20 @@ Java_com_couchbase_lite_internal_fleece_FLValue_toJSON5(JNIEnv *env, jclass claz
     return res;
 }
 
+// ----------------------------------------------------------------------------
+// FLSharedKeys
+// ----------------------------------------------------------------------------
+
+/*
+ * Class:     com_couchbase_lite_internal_fleece_FLSharedKeys
+ * Method:    count
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL
+Java_com_couchbase_lite_internal_fleece_FLSharedKeys_count(JNIEnv *env, jclass clazz, jlong jsk) {
+    return (jint) FLSharedKeys_Count((FLSharedKeys) jsk);
+}
+
 // ----------------------------------------------------------------------------
 // FLSliceResult
 // ----------------------------------------------------------------------------
@@ -45,6 +45,16 @@ Java_com_couchbase_lite_internal_fleece_FLEncoder_free(JNIEnv *env, jclass clazz
     FLEncoder_Free((FLEncoder) jenc);
 }
 
+/*
+ * Class:     com_couchbase_lite_internal_fleece_FLEncoder
+ * Method:    setSharedKeys
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL
+Java_com_couchbase_lite_internal_fleece_FLEncoder_setSharedKeys(JNIEnv *env, jclass clazz, jlong jenc, jlong jsk) {
+    FLEncoder_SetSharedKeys((FLEncoder) jenc, (FLSharedKeys) jsk);
+}
+
 /*
  * Class:     com_couchbase_lite_internal_fleece_FLEncoder
  * Method:    writeNull
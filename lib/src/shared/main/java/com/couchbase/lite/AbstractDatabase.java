@@ -19,19 +19,26 @@ package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -41,11 +48,13 @@ import com.couchbase.lite.internal.CBLInternalException;
 import com.couchbase.lite.internal.CBLStatus;
 import com.couchbase.lite.internal.ExecutionService;
 import com.couchbase.lite.internal.SocketFactory;
+import com.couchbase.lite.internal.core.C4BlobKey;
 import com.couchbase.lite.internal.core.C4BlobStore;
 import com.couchbase.lite.internal.core.C4Constants;
 import com.couchbase.lite.internal.core.C4Database;
 import com.couchbase.lite.internal.core.C4DatabaseChange;
 import com.couchbase.lite.internal.core.C4DatabaseObserver;
+import com.couchbase.lite.internal.core.C4DocEnumerator;
 import com.couchbase.lite.internal.core.C4Document;
 import com.couchbase.lite.internal.core.C4ReplicationFilter;
 import com.couchbase.lite.internal.core.C4Replicator;
@@ -90,6 +99,14 @@ abstract class AbstractDatabase {
 
     private static final int MAX_CHANGES = 100;
 
+    // Files in the database directory, for statistics
+    private static final String DB_FILE = "db.sqlite3";
+    private static final String WAL_FILE = "db.sqlite3-wal";
+    private static final String BLOB_DIR = "Attachments";
+    private static final String BLOB_EXTENSION = ".blob";
+    // Documents scanned per acquisition of the connection lock
+    private static final int SCAN_BATCH_SIZE = 1000;
+
     // A random but absurdly large number.
     private static final int MAX_CONFLICT_RESOLUTION_RETRIES = 13;
 
@@ -97,6 +114,9 @@ abstract class AbstractDatabase {
     private static final long OPENING_PURGE_DELAY_MS = 3;
     private static final long STANDARD_PURGE_INTERVAL_MS = 1000;
 
+    // How long a write waits for an index build before failing with BUSY
+    private static final long INDEX_BUILD_WAIT_MS = 10 * 1000;
+
     private static final int DEFAULT_DATABASE_FLAGS
         = C4Constants.DatabaseFlags.CREATE
         | C4Constants.DatabaseFlags.AUTO_COMPACT
@@ -227,12 +247,29 @@ abstract class AbstractDatabase {
     private final ExecutionService.CloseableExecutor postExecutor;
     // Executor for LiveQuery.
     private final ExecutionService.CloseableExecutor queryExecutor;
+    // Executor for asynchronous index builds.
+    private final ExecutionService.CloseableExecutor indexExecutor;
+    // Executor for materialized view updates.  Updates write to the database,
+    // so they must not wait, on the index executor, for an index build queued behind them.
+    private final ExecutionService.CloseableExecutor viewExecutor;
 
     private final Set<LiveQuery> activeLiveQueries;
 
+    // Live queries with the same query, parameters and configuration share a single LiveQuery.
+    // synchronized on itself
+    private final Map<String, LiveQuery> sharedLiveQueries = new HashMap<>();
+
+    // Open materialized views, and the tokens for the change listeners that update them.
+    // synchronized on lock
+    private final Map<String, MaterializedView> materializedViews = new HashMap<>();
+    private final Map<String, ListenerToken> materializedViewTokens = new HashMap<>();
+
     private final SharedKeys sharedKeys;
     private final boolean shellMode;
 
+    // Encodes documents before the lock is acquired.
+    private final DocumentEncoder documentEncoder;
+
     private ChangeNotifier<DatabaseChange> dbChangeNotifier;
 
     private C4DatabaseObserver c4DbObserver;
@@ -240,6 +277,41 @@ abstract class AbstractDatabase {
 
     private DocumentExpirationStrategy purgeStrategy;
 
+    // The main connection: the one that is used for all writes.
+    private ReaderPool.Connection mainConnection;
+    // Group commit for asynchronous saves: created on first use.
+    // guarded by 'lock'
+    private WriteQueue writeQueue;
+
+    // Read-only connections: null if the configured reader pool size is 0.
+    private volatile ReaderPool readerPool;
+
+    // Cached documents: null if the configured document cache size is 0.
+    private volatile DocumentCache documentCache;
+
+    // Null unless query profiling is enabled.
+    private volatile QueryProfiler queryProfiler;
+
+    // guarded by 'lock'
+    private int transactionDepth;
+
+    // Index builds running on their own connections.
+    // guarded by 'lock'
+    private int activeIndexBuilds;
+
+    // How long a write waits for an index build: changed only by tests.
+    // guarded by 'lock'
+    private long indexBuildWaitMs = INDEX_BUILD_WAIT_MS;
+
+    // Documents being encoded outside the lock: the database cannot be closed until they are done.
+    // guarded by 'lock'
+    private int activeEncodes;
+
+    // Tasks that must wait until there are no index builds, such as starting a replicator.
+    // guarded by 'lock'
+    @NonNull
+    private final List<Runnable> afterIndexBuilds = new ArrayList<>();
+
     private String name;
 
     //---------------------------------------------
@@ -270,6 +342,8 @@ abstract class AbstractDatabase {
         this.shellMode = false;
         this.postExecutor = CouchbaseLite.getExecutionService().getSerialExecutor();
         this.queryExecutor = CouchbaseLite.getExecutionService().getSerialExecutor();
+        this.indexExecutor = CouchbaseLite.getExecutionService().getSerialExecutor();
+        this.viewExecutor = CouchbaseLite.getExecutionService().getSerialExecutor();
         this.activeLiveQueries = Collections.synchronizedSet(new HashSet<>());
 
         // synchronized on 'lock'
@@ -283,6 +357,7 @@ abstract class AbstractDatabase {
 
         // Initialize a shared keys:
         this.sharedKeys = new SharedKeys(c4db);
+        this.documentEncoder = new DocumentEncoder();
 
         // warn if logging has not been turned on
         Log.warn();
@@ -295,12 +370,16 @@ abstract class AbstractDatabase {
      */
     protected AbstractDatabase(C4Database c4db) {
         this.c4db = c4db;
+        this.mainConnection = new ReaderPool.Connection(lock, c4db, false);
         this.config = null;
         this.shellMode = true;
         this.sharedKeys = null;
+        this.documentEncoder = null;
 
         this.postExecutor = null;
         this.queryExecutor = null;
+        this.indexExecutor = null;
+        this.viewExecutor = null;
         this.activeReplications = null;
         this.activeLiveQueries = null;
     }
@@ -337,6 +416,149 @@ abstract class AbstractDatabase {
         synchronized (lock) { return c4db == null ? 0L : getC4Database().getDocumentCount(); }
     }
 
+    /**
+     * The sequence number of the most recent change to the database.
+     * Every change to the database is assigned the next sequence number: a consumer of the
+     * changes to the database can persist the last sequence it processed and use it, with
+     * changesSince(long), to resume processing changes.
+     *
+     * @return the database's last sequence number, 0 if database is closed.
+     */
+    public long getLastSequence() {
+        synchronized (lock) { return c4db == null ? 0L : getC4Database().getLastSequence(); }
+    }
+
+    /**
+     * Get a snapshot of the database's size and storage use.  This is the same as calling
+     * getStatistics(boolean) with false: it is cheap enough to call frequently.
+     *
+     * @return the database statistics
+     * @throws CouchbaseLiteException on error
+     */
+    @NonNull
+    public DatabaseStatistics getStatistics() throws CouchbaseLiteException { return getStatistics(false); }
+
+    /**
+     * Get a snapshot of the database's size and storage use.
+     * The document count and the last sequence number come from the database; file sizes come from the
+     * file system.  Blobs are sized by the blob store.  If the blob store's files are not where they are
+     * expected to be, the blob count and size are -1.  If scanDocuments is true, the metadata for every
+     * document is read as well, to count the tombstones and measure the average body size: that takes
+     * time proportional to the number of documents.  The scan reads through a reader connection, if there
+     * is a reader pool, and holds a connection's lock only for a batch of documents at a time.
+     *
+     * @param scanDocuments if true, scan the documents to count tombstones and measure bodies.
+     * @return the database statistics
+     * @throws CouchbaseLiteException on error
+     */
+    @NonNull
+    public DatabaseStatistics getStatistics(boolean scanDocuments) throws CouchbaseLiteException {
+        final String path;
+        final long docCount;
+        final long lastSequence;
+        final C4BlobStore blobStore;
+        synchronized (lock) {
+            mustBeOpen();
+            final C4Database db = getC4Database();
+            path = db.getPath();
+            docCount = db.getDocumentCount();
+            lastSequence = db.getLastSequence();
+            try { blobStore = db.getBlobStore(); }
+            catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
+        }
+
+        final File dir = new File(path);
+
+        final long[] blobs = scanBlobs(blobStore, new File(dir, BLOB_DIR));
+
+        long tombstones = -1;
+        long averageBodySize = -1;
+        if (scanDocuments) {
+            final long[] totals = scanDocuments();
+            tombstones = totals[0];
+            averageBodySize = (totals[1] <= 0) ? 0 : totals[2] / totals[1];
+        }
+
+        return new DatabaseStatistics(
+            docCount,
+            lastSequence,
+            new File(dir, DB_FILE).length(),
+            new File(dir, WAL_FILE).length(),
+            blobs[0],
+            blobs[1],
+            tombstones,
+            averageBodySize);
+    }
+
+    /**
+     * Get the documents that have changed since the given sequence number, in sequence order.
+     * Each document appears once, with the metadata for its current revision.
+     * Deleted documents are included: their metadata is marked as deleted.
+     * Documents are read from the database lazily, as they are needed.
+     * The returned enumerator must be closed, if it is not iterated to its end.
+     *
+     * @param sequence the sequence number after which to enumerate changes: 0 to enumerate all documents.
+     * @return an enumerator of the metadata for the changed documents.
+     * @throws CouchbaseLiteException on error
+     */
+    @NonNull
+    public DocumentEnumerator<DocumentMetadata> changesSince(long sequence) throws CouchbaseLiteException {
+        final ReaderPool.Connection connection = getReader();
+        synchronized (connection.getLock()) {
+            return new DocumentEnumerator<>(
+                connection,
+                db -> db.enumerateChanges(
+                    sequence,
+                    C4Constants.EnumeratorFlags.INCLUDE_NON_CONFLICTED | C4Constants.EnumeratorFlags.INCLUDE_DELETED),
+                AbstractDatabase::readMetadata);
+        }
+    }
+
+    /**
+     * Get all of the documents in the database, in document ID order.
+     * Deleted documents are not included.
+     * Documents are read from the database lazily, a few at a time, so memory use
+     * does not depend on the size of the database.
+     * The returned enumerator must be closed, if it is not iterated to its end.
+     *
+     * @return an enumerator of the documents in the database.
+     * @throws CouchbaseLiteException on error
+     */
+    @NonNull
+    public DocumentEnumerator<Document> allDocuments() throws CouchbaseLiteException {
+        final ReaderPool.Connection connection = getReader();
+        synchronized (connection.getLock()) {
+            return new DocumentEnumerator<>(
+                connection,
+                db -> db.enumerateAllDocs(C4Constants.EnumeratorFlags.DEFAULT),
+                this::readDocument);
+        }
+    }
+
+    /**
+     * Get the metadata for all of the documents in the database, in document ID order.
+     * This is much faster than allDocuments(), because the documents' properties are not read.
+     * The returned enumerator must be closed, if it is not iterated to its end.
+     *
+     * @param includeDeleted if true, include deleted documents.
+     * @return an enumerator of the metadata for the documents in the database.
+     * @throws CouchbaseLiteException on error
+     */
+    @NonNull
+    public DocumentEnumerator<DocumentMetadata> allDocumentsMetadata(boolean includeDeleted)
+        throws CouchbaseLiteException {
+        final int flags = C4Constants.EnumeratorFlags.INCLUDE_NON_CONFLICTED
+            | ((!includeDeleted) ? 0 : C4Constants.EnumeratorFlags.INCLUDE_DELETED);
+
+        final ReaderPool.Connection connection = getReader();
+        synchronized (connection.getLock()) {
+            return new DocumentEnumerator<>(
+                connection,
+                db -> db.enumerateAllDocs(flags),
+                AbstractDatabase::readMetadata);
+        }
+    }
+
     /**
      * Returns a READONLY config object which will throw a runtime exception
      * when any setter methods are called.
@@ -356,14 +578,122 @@ abstract class AbstractDatabase {
     public Document getDocument(@NonNull String id) {
         Preconditions.checkArgNotNull(id, "id");
 
-        synchronized (lock) {
-            mustBeOpen();
-            try { return new Document((Database) this, id, false); }
-            catch (CouchbaseLiteException ex) {
-                // only 404 - Not Found error throws CouchbaseLiteException
-                return null;
+        final DocumentCache cache = getDocumentCache();
+        if (cache == null) { return readDocument(id); }
+
+        Document doc = cache.get(id);
+        if (doc != null) { return doc; }
+
+        final long stamp = cache.getStamp();
+        doc = readDocument(id);
+        if (doc != null) { cache.put(doc, stamp); }
+
+        return doc;
+    }
+
+    /**
+     * Gets several documents, by ID, in a single operation.
+     * This is considerably faster than calling getDocument(String) for each of the IDs.
+     * Documents that do not exist or that have been deleted are not included in the result.
+     *
+     * @param ids the document IDs
+     * @return a map of document ID to document, in the order of the IDs in the passed collection
+     * @throws CouchbaseLiteException on error reading the documents
+     */
+    @NonNull
+    public Map<String, Document> getDocuments(@NonNull Collection<String> ids) throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(ids, "ids");
+
+        final Set<String> docIds = new LinkedHashSet<>();
+        for (String id : ids) {
+            Preconditions.checkArgNotNull(id, "id");
+            docIds.add(id);
+        }
+
+        final Map<String, Document> docs = new LinkedHashMap<>();
+        if (docIds.isEmpty()) { return docs; }
+
+        // Only the documents that are not in the cache are read from the database.
+        final DocumentCache cache = getDocumentCache();
+        final Map<String, Document> found = new HashMap<>();
+        final List<String> misses = new ArrayList<>();
+        for (String id : docIds) {
+            final Document doc = (cache == null) ? null : cache.get(id);
+            if (doc != null) { found.put(id, doc); }
+            else { misses.add(id); }
+        }
+
+        if (!misses.isEmpty()) {
+            final long stamp = (cache == null) ? 0 : cache.getStamp();
+            final List<Document> read = readDocuments(misses.toArray(new String[0]));
+            for (Document doc : read) {
+                found.put(doc.getId(), doc);
+                if (cache != null) { cache.put(doc, stamp); }
             }
         }
+
+        for (String id : docIds) {
+            final Document doc = found.get(id);
+            if (doc != null) { docs.put(id, doc); }
+        }
+
+        return docs;
+    }
+
+    /**
+     * Get the statistics for the database's document cache.
+     *
+     * @return the cache statistics, or null if the document cache is not enabled.
+     */
+    @Nullable
+    public CacheStats getDocumentCacheStats() {
+        final DocumentCache cache = documentCache;
+        return (cache == null) ? null : cache.getStats();
+    }
+
+    /**
+     * Get the statistics for the database's compiled query cache, summed over all of its connections.
+     *
+     * @return the cache statistics, or null if the query cache is not enabled.
+     */
+    @Nullable
+    public CacheStats getQueryCacheStats() {
+        long hits = 0;
+        long misses = 0;
+        int size = 0;
+        int capacity = 0;
+        boolean enabled = false;
+        for (ReaderPool.Connection connection : getConnections()) {
+            final QueryCache cache = connection.getQueryCache();
+            if (cache == null) { continue; }
+            enabled = true;
+            final CacheStats stats = cache.getStats();
+            hits += stats.getHits();
+            misses += stats.getMisses();
+            size += stats.getSize();
+            capacity += stats.getCapacity();
+        }
+        return (!enabled) ? null : new CacheStats(hits, misses, size, capacity);
+    }
+
+    /**
+     * Get the execution statistics for the database's queries, one profile for each distinct query.
+     * Query profiling must be enabled in the database's configuration.
+     *
+     * @return the query profiles: empty if query profiling is not enabled.
+     */
+    @NonNull
+    public List<QueryProfile> getQueryProfiles() {
+        final QueryProfiler profiler = queryProfiler;
+        return (profiler == null) ? new ArrayList<>() : profiler.getProfiles();
+    }
+
+    /**
+     * Discard the execution statistics for the database's queries.
+     */
+    public void resetQueryProfiles() {
+        final QueryProfiler profiler = queryProfiler;
+        if (profiler != null) { profiler.reset(); }
     }
 
     /**
@@ -401,6 +731,62 @@ abstract class AbstractDatabase {
         return false;
     }
 
+    /**
+     * Saves a document to the database asynchronously.
+     * Calling this method is the same as calling the saveAsync(MutableDocument, ConcurrencyControl)
+     * method with LAST_WRITE_WINS concurrency control.
+     *
+     * @param document The document.
+     * @return a Future that completes with the saved document
+     */
+    @NonNull
+    public Future<Document> saveAsync(@NonNull MutableDocument document) {
+        return saveAsync(document, ConcurrencyControl.LAST_WRITE_WINS);
+    }
+
+    /**
+     * Saves a document to the database asynchronously.
+     * Saves made with this method are queued and committed in groups: everything queued within
+     * the configured group commit window (or until the maximum group size is reached) is saved
+     * in a single transaction, and database change listeners are notified once for the group.
+     * This is much faster than individual saves, when many threads are each saving a document.
+     * The returned Future completes with the saved document or, if the save fails, with an
+     * ExecutionException whose cause is the CouchbaseLiteException that describes the failure.
+     * When used with FAIL_ON_CONFLICT concurrency control, a document that is in conflict
+     * fails with a CONFLICT error; it does not affect the other saves in its group.
+     * Neither does any other error: each save completes with its own result.
+     * The document is encoded later, on the thread that commits the group: it must not be modified
+     * until the returned Future completes.
+     * Saves that are still queued when the database is closed are committed as part of closing it.
+     * A save that is made after the database has been closed fails with an IllegalStateException.
+     *
+     * @param document           The document.
+     * @param concurrencyControl The concurrency control.
+     * @return a Future that completes with the saved document
+     */
+    @NonNull
+    public Future<Document> saveAsync(
+        @NonNull MutableDocument document,
+        @NonNull ConcurrencyControl concurrencyControl) {
+        Preconditions.checkArgNotNull(document, "document");
+        Preconditions.checkArgNotNull(concurrencyControl, "concurrencyControl");
+
+        final WriteQueue.PendingWrite write = new WriteQueue.PendingWrite(document, concurrencyControl);
+
+        final WriteQueue queue;
+        synchronized (lock) {
+            mustBeOpen();
+            if (writeQueue == null) {
+                writeQueue = new WriteQueue(this, config.getGroupCommitWindow(), config.getGroupCommitMaxSize());
+            }
+            queue = writeQueue;
+        }
+
+        queue.enqueue(write);
+
+        return write;
+    }
+
     /**
      * Saves a document to the database. Conflicts will be resolved by the passed ConflictHandler
      *
@@ -417,6 +803,39 @@ abstract class AbstractDatabase {
         return true;
     }
 
+    /**
+     * Saves an object as the properties of the document with the given ID, replacing any existing properties.
+     * The object's fields that are neither static nor transient are encoded directly as the document's
+     * properties, each with the field's name: the object is not converted to a Map.
+     * If there is a conflict, the last write wins.
+     *
+     * @param id     the document ID.
+     * @param object the object.
+     * @throws CouchbaseLiteException on error
+     */
+    public void saveObject(@NonNull String id, @NonNull Object object) throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(id, "id");
+        Preconditions.checkArgNotNull(object, "object");
+        saveInternal(ObjectMapper.toDocument(id, object), null, false, ConcurrencyControl.LAST_WRITE_WINS);
+    }
+
+    /**
+     * Gets the properties of the document with the given ID as an object of the given class.
+     * The class must have a no-argument constructor.
+     *
+     * @param id   the document ID.
+     * @param type the class of the object.
+     * @param <T>  the type of the object.
+     * @return the object, or null if the document doesn't exist.
+     * @throws IllegalArgumentException if a property cannot be converted to its field's type.
+     */
+    @Nullable
+    public <T> T getObject(@NonNull String id, @NonNull Class<T> type) {
+        Preconditions.checkArgNotNull(type, "type");
+        final Document doc = getDocument(id);
+        return (doc == null) ? null : doc.toObject(type);
+    }
+
     /**
      * Deletes a document from the database. When write operations are executed
      * concurrently, the last writer will overwrite all other written values.
@@ -455,6 +874,53 @@ abstract class AbstractDatabase {
 
     // Batch operations:
 
+    /**
+     * Saves a collection of documents to the database in a single transaction.
+     * This is much faster than saving the documents one at a time, because the cost of locking
+     * the database and committing the transaction is paid once, for the whole collection.
+     * When used with LAST_WRITE_WINS concurrency control, the last write operation will win if there is a conflict.
+     * When used with FAIL_ON_CONFLICT concurrency control, documents that are in conflict are not saved
+     * and are returned to the caller. The batch is committed as a whole, so database change listeners are
+     * notified of all of its changes together; a batch of more than about a thousand documents is reported
+     * in several notifications, each of about a thousand document IDs.
+     *
+     * @param documents          The documents.
+     * @param concurrencyControl The concurrency control.
+     * @return the documents that were not saved because of a conflict: empty if all of the documents were saved.
+     * @throws CouchbaseLiteException on error. If an error other than a conflict occurs, no documents are saved.
+     */
+    @NonNull
+    public List<MutableDocument> saveAll(
+        @NonNull Collection<MutableDocument> documents,
+        @NonNull ConcurrencyControl concurrencyControl)
+        throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(documents, "documents");
+        Preconditions.checkArgNotNull(concurrencyControl, "concurrencyControl");
+        return saveAllInternal(documents, false, doc -> concurrencyControl);
+    }
+
+    /**
+     * Deletes a collection of documents from the database in a single transaction.
+     * When used with LAST_WRITE_WINS concurrency control, the last write operation will win if there is a conflict.
+     * When used with FAIL_ON_CONFLICT concurrency control, documents that are in conflict are not deleted
+     * and are returned to the caller. As for saveAll, database change listeners are notified of the changes
+     * together, in notifications of about a thousand document IDs each.
+     *
+     * @param documents          The documents.
+     * @param concurrencyControl The concurrency control.
+     * @return the documents that were not deleted because of a conflict: empty if all of the documents were deleted.
+     * @throws CouchbaseLiteException on error. If an error other than a conflict occurs, no documents are deleted.
+     */
+    @NonNull
+    public List<Document> deleteAll(
+        @NonNull Collection<? extends Document> documents,
+        @NonNull ConcurrencyControl concurrencyControl)
+        throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(documents, "documents");
+        Preconditions.checkArgNotNull(concurrencyControl, "concurrencyControl");
+        return new ArrayList<>(saveAllInternal(documents, true, doc -> concurrencyControl));
+    }
+
     /**
      * Purges the given document from the database. This is more drastic than delete(Document),
      * it removes all traces of the document. The purge will NOT be replicated to other databases.
@@ -507,6 +973,7 @@ abstract class AbstractDatabase {
         Preconditions.checkArgNotNull(id, "id");
 
         synchronized (lock) {
+            waitForIndexBuilds();
             try {
                 getC4Database().setExpiration(id, (expiration == null) ? 0 : expiration.getTime());
                 getPurgeStrategy().schedulePurge(0);
@@ -559,23 +1026,19 @@ abstract class AbstractDatabase {
         synchronized (lock) {
             mustBeOpen();
             try {
-                final C4Database db = getC4Database();
                 boolean commit = false;
-                db.beginTransaction();
+                beginTransaction();
                 try {
                     runnable.run();
                     commit = true;
                 }
                 finally {
-                    db.endTransaction(commit);
+                    endTransaction(commit);
                 }
             }
             catch (RuntimeException e) {
                 throw new CouchbaseLiteException(e);
             }
-            catch (LiteCoreException e) {
-                throw CBLStatus.convertException(e);
-            }
         }
 
         postDatabaseChanged();
@@ -589,6 +1052,7 @@ abstract class AbstractDatabase {
     public void compact() throws CouchbaseLiteException {
         synchronized (lock) {
             mustBeOpen();
+            waitForIndexBuilds();
             try { getC4Database().compact(); }
             catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
         }
@@ -687,6 +1151,8 @@ abstract class AbstractDatabase {
      */
     public void close() throws CouchbaseLiteException {
         synchronized (lock) {
+            waitForEncodes();
+
             if (c4db == null) { return; }
 
             Log.i(DOMAIN, "Closing %s at path %s", this, getC4Database().getPath());
@@ -706,10 +1172,27 @@ abstract class AbstractDatabase {
                     CBLError.Code.BUSY);
             }
 
+            if (activeIndexBuilds > 0) {
+                throw new CouchbaseLiteException(
+                    "CloseDBFailedIndexBuilds",
+                    CBLError.Domain.CBLITE,
+                    CBLError.Code.BUSY);
+            }
+
             // cancel purge
             if (purgeStrategy != null) { getPurgeStrategy().cancelPurges(); }
 
+            // stop updating materialized views
+            closeMaterializedViews();
+
+            // commit queued saves
+            closeWriteQueue();
+
+            // close the readers
+            closeReaderPool();
+
             // close db
+            mainConnection.freeQueries();
             closeC4DB();
 
             // release instances
@@ -728,6 +1211,8 @@ abstract class AbstractDatabase {
      */
     public void delete() throws CouchbaseLiteException {
         synchronized (lock) {
+            waitForEncodes();
+
             mustBeOpen();
 
             Log.i(DOMAIN, "Deleting %s at path %s", this, getC4Database().getPath());
@@ -746,10 +1231,27 @@ abstract class AbstractDatabase {
                     CBLError.Code.BUSY);
             }
 
+            if (activeIndexBuilds > 0) {
+                throw new CouchbaseLiteException(
+                    "DeleteDBFailedIndexBuilds",
+                    CBLError.Domain.CBLITE,
+                    CBLError.Code.BUSY);
+            }
+
             // cancel purge
             if (purgeStrategy != null) { getPurgeStrategy().cancelPurges(); }
 
+            // stop updating materialized views
+            closeMaterializedViews();
+
+            // commit queued saves
+            closeWriteQueue();
+
+            // close the readers: the db cannot be deleted while they are open
+            closeReaderPool();
+
             // delete db
+            mainConnection.freeQueries();
             deleteC4DB();
 
             // release instances
@@ -777,6 +1279,7 @@ abstract class AbstractDatabase {
 
         synchronized (lock) {
             mustBeOpen();
+            waitForIndexBuilds();
             try {
                 final AbstractIndex abstractIndex = (AbstractIndex) index;
                 final String json = JsonUtils.toJson(abstractIndex.items()).toString();
@@ -793,51 +1296,225 @@ abstract class AbstractDatabase {
             catch (JSONException e) {
                 throw new CouchbaseLiteException(e);
             }
+            finally {
+                invalidateQueryCaches();
+            }
         }
     }
 
     public void deleteIndex(@NonNull String name) throws CouchbaseLiteException {
         synchronized (lock) {
             mustBeOpen();
+            waitForIndexBuilds();
             try { c4db.deleteIndex(name); }
             catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
+            finally { invalidateQueryCaches(); }
         }
     }
 
-    //---------------------------------------------
-    // Override public method
-    //---------------------------------------------
-
-    @NonNull
-    @Override
-    public String toString() {
-        return "Database{@" + Integer.toHexString(hashCode()) + ", name='" + name + "'}";
+    /**
+     * Creates an index in the background.  This is the same as calling
+     * createIndexAsync(String, Index, Executor, IndexBuildListener) with a null executor.
+     *
+     * @param name     the name of the index
+     * @param index    the index description
+     * @param listener notified as the build progresses: may be null
+     * @throws CouchbaseLiteException on error
+     */
+    public void createIndexAsync(
+        @NonNull String name,
+        @NonNull Index index,
+        @Nullable IndexBuildListener listener)
+        throws CouchbaseLiteException {
+        createIndexAsync(name, index, null, listener);
     }
 
-    //---------------------------------------------
-    // Protected level access
-    //---------------------------------------------
+    /**
+     * Creates an index in the background.
+     * The index is built on a separate connection to the database, without holding this database's lock:
+     * reads, including queries, proceed while it is built.
+     * <p>
+     * Building an index is a single SQLite write, and SQLite allows only one writer, so writers are not
+     * unblocked: they are kept from failing with BUSY.  While the index is being built:
+     * <ul>
+     * <li>a write made through this Database object (a save, delete, purge or batch) waits until the build
+     * is complete, for up to 10 seconds, and then fails with BUSY;</li>
+     * <li>expired documents are not purged: the purge is retried after the build;</li>
+     * <li>a replicator that is started waits, and starts when the build is complete.</li>
+     * </ul>
+     * An index cannot be built in the background while this database has an active replicator:
+     * the replicator's writes cannot wait for the build.  Nor are writes through other Database objects
+     * for the same file coordinated with the build: they may fail with BUSY.
+     * <p>
+     * The index becomes visible to queries when it is complete.
+     * The listener is told when the build starts and when it completes or fails.
+     * The database cannot be closed or deleted while an index is being built.
+     *
+     * @param name     the name of the index
+     * @param index    the index description
+     * @param executor the executor on which the listener is called: null for the default executor
+     * @param listener notified as the build progresses: may be null
+     * @throws CouchbaseLiteException on error
+     */
+    public void createIndexAsync(
+        @NonNull String name,
+        @NonNull Index index,
+        @Nullable Executor executor,
+        @Nullable IndexBuildListener listener)
+        throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(name, "name");
+        Preconditions.checkArgNotNull(index, "index");
 
-    protected void mustBeOpen() {
-        if (c4db == null) { throw new IllegalStateException(Log.lookupStandardMessage("DBClosed")); }
-    }
+        final AbstractIndex abstractIndex = (AbstractIndex) index;
+        final String json;
+        try { json = JsonUtils.toJson(abstractIndex.items()).toString(); }
+        catch (JSONException e) { throw new CouchbaseLiteException(e); }
 
-    @SuppressWarnings("NoFinalizer")
-    @Override
-    protected void finalize() throws Throwable {
-        freeC4Observers();
-        freeC4DB();
-        super.finalize();
-    }
+        final String path;
+        synchronized (lock) {
+            mustBeOpen();
+            if (!activeReplications.isEmpty()) {
+                throw new CouchbaseLiteException(
+                    "CreateIndexFailedActiveReplicators",
+                    CBLError.Domain.CBLITE,
+                    CBLError.Code.BUSY);
+            }
+            // Wait for any other build: they would contend for the write lock
+            waitForIndexBuilds();
+            path = getC4Database().getPath();
+            activeIndexBuilds++;
+        }
 
-    //---------------------------------------------
-    // Package level access
-    //---------------------------------------------
+        final long start = System.currentTimeMillis();
+        notifyIndexBuild(executor, listener, name, IndexBuildChange.Status.BUILDING, start, null);
 
-    @NonNull
-    Object getLock() { return lock; }
+        indexExecutor.execute(() -> {
+            CouchbaseLiteException err = null;
+            try { buildIndex(path, name, json, abstractIndex); }
+            catch (CouchbaseLiteException e) { err = e; }
+            catch (RuntimeException e) { err = new CouchbaseLiteException(e); }
+            finally {
+                invalidateQueryCaches();
+                final List<Runnable> tasks = new ArrayList<>();
+                synchronized (lock) {
+                    activeIndexBuilds--;
+                    if (activeIndexBuilds <= 0) {
+                        tasks.addAll(afterIndexBuilds);
+                        afterIndexBuilds.clear();
+                    }
+                    lock.notifyAll();
+                }
+                for (Runnable task : tasks) { postExecutor.execute(task); }
+            }
 
-    boolean equalsWithPath(Database other) {
+            if (err != null) { Log.w(DOMAIN, "Failed building index " + name, err); }
+            notifyIndexBuild(
+                executor,
+                listener,
+                name,
+                (err == null) ? IndexBuildChange.Status.COMPLETED : IndexBuildChange.Status.FAILED,
+                start,
+                err);
+        });
+    }
+
+    // Materialized views:
+
+    /**
+     * Gets a materialized view, opening it if necessary.  A view that has been saved in the database
+     * catches up from the sequence up to which it was last updated.  If it was built by a different version
+     * of the mapper, it is rebuilt.  The view is updated in the background as the database changes.
+     * A view is open until the database is closed, or until the view is deleted.
+     *
+     * @param name    the name of the view
+     * @param version the version of the mapper: change it whenever the mapper changes
+     * @param mapper  the map function
+     * @return the view
+     * @throws CouchbaseLiteException on error
+     */
+    @NonNull
+    public MaterializedView getMaterializedView(
+        @NonNull String name,
+        @NonNull String version,
+        @NonNull MaterializedView.Mapper mapper)
+        throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(name, "name");
+        Preconditions.checkArgNotNull(version, "version");
+        Preconditions.checkArgNotNull(mapper, "mapper");
+
+        final MaterializedView view;
+        synchronized (lock) {
+            mustBeOpen();
+
+            final MaterializedView openView = materializedViews.get(name);
+            if ((openView != null) && openView.getVersion().equals(version)) { return openView; }
+            if (openView != null) { closeMaterializedView(name); }
+
+            // The new view is not yet shared: its lock cannot be held by anyone else.
+            view = new MaterializedView(this, name, version, mapper);
+            view.load();
+
+            materializedViews.put(name, view);
+            materializedViewTokens.put(name, addDatabaseChangeListenerSynchronized(viewExecutor, view::changed));
+        }
+
+        viewExecutor.execute(view::updateQuietly);
+
+        return view;
+    }
+
+    /**
+     * Deletes a materialized view, and the data saved for it in the database.
+     *
+     * @param name the name of the view
+     * @throws CouchbaseLiteException on error
+     */
+    public void deleteMaterializedView(@NonNull String name) throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(name, "name");
+
+        synchronized (lock) {
+            mustBeOpen();
+            closeMaterializedView(name);
+        }
+
+        MaterializedView.delete(this, name);
+    }
+
+    //---------------------------------------------
+    // Override public method
+    //---------------------------------------------
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Database{@" + Integer.toHexString(hashCode()) + ", name='" + name + "'}";
+    }
+
+    //---------------------------------------------
+    // Protected level access
+    //---------------------------------------------
+
+    protected void mustBeOpen() {
+        if (c4db == null) { throw new IllegalStateException(Log.lookupStandardMessage("DBClosed")); }
+    }
+
+    @SuppressWarnings("NoFinalizer")
+    @Override
+    protected void finalize() throws Throwable {
+        closeReaderPool();
+        freeC4Observers();
+        freeC4DB();
+        super.finalize();
+    }
+
+    //---------------------------------------------
+    // Package level access
+    //---------------------------------------------
+
+    @NonNull
+    Object getLock() { return lock; }
+
+    boolean equalsWithPath(Database other) {
         if (other == null) { return false; }
 
         final File path = getFilePath();
@@ -870,6 +1547,21 @@ abstract class AbstractDatabase {
         return path != null ? new File(path) : null;
     }
 
+    /**
+     * Get a connection to use for reading.
+     * If the caller holds the main database lock (for instance, it is in a batch operation) or there
+     * is no reader pool, this is the main connection, so that the caller sees its own uncommitted changes.
+     * Otherwise it is one of the read-only connections in the pool.
+     * Any use of the connection, or of anything obtained from it, must hold the connection's lock.
+     *
+     * @return a connection for reading.
+     */
+    @NonNull
+    ReaderPool.Connection getReader() {
+        final ReaderPool pool = readerPool;
+        return ((pool == null) || Thread.holdsLock(lock)) ? mainConnection : pool.getReader();
+    }
+
     /**
      * NOTE: In general the mustBeOpen() method has already been called by the caller.
      * It locks the db to guarantee that c4db is not be closed.
@@ -885,9 +1577,59 @@ abstract class AbstractDatabase {
 
     //////// DOCUMENTS:
 
-    void addActiveLiveQuery(@NonNull LiveQuery query) { activeLiveQueries.add(query); }
+    // Called when documents have been changed without going through this object: for instance, by expiration.
+    void invalidateDocumentCache() {
+        final DocumentCache cache = documentCache;
+        if (cache != null) { cache.clear(); }
+    }
+
+    // Called when the database's indexes have changed: queries compiled before the change are stale.
+    void invalidateQueryCaches() {
+        for (ReaderPool.Connection connection : getConnections()) {
+            final QueryCache cache = connection.getQueryCache();
+            if (cache != null) { cache.invalidate(); }
+        }
+    }
+
+    @Nullable
+    QueryProfiler getQueryProfiler() { return queryProfiler; }
 
-    void removeActiveLiveQuery(@NonNull LiveQuery query) { activeLiveQueries.remove(query); }
+    // Get the live query for a query: an identical live query that is already running, if there is one.
+    @NonNull
+    LiveQuery getLiveQuery(@NonNull AbstractQuery query) throws CouchbaseLiteException {
+        final String key = query.getLiveQueryKey();
+        if (key == null) { return new LiveQuery(query.snapshot(), null); }
+
+        synchronized (sharedLiveQueries) {
+            LiveQuery liveQuery = sharedLiveQueries.get(key);
+            if (liveQuery == null) {
+                liveQuery = new LiveQuery(query.snapshot(), key);
+                sharedLiveQueries.put(key, liveQuery);
+            }
+            return liveQuery;
+        }
+    }
+
+    void addActiveLiveQuery(@NonNull LiveQuery query) {
+        activeLiveQueries.add(query);
+
+        // A shared live query that has been restarted may have been replaced while it was stopped.
+        final String key = query.getKey();
+        if (key == null) { return; }
+        synchronized (sharedLiveQueries) {
+            if (!sharedLiveQueries.containsKey(key)) { sharedLiveQueries.put(key, query); }
+        }
+    }
+
+    void removeActiveLiveQuery(@NonNull LiveQuery query) {
+        activeLiveQueries.remove(query);
+
+        final String key = query.getKey();
+        if (key == null) { return; }
+        synchronized (sharedLiveQueries) {
+            if (sharedLiveQueries.get(key) == query) { sharedLiveQueries.remove(key); }
+        }
+    }
 
     //////// REPLICATORS:
 
@@ -911,6 +1653,13 @@ abstract class AbstractDatabase {
         throws LiteCoreException {
         final C4Replicator c4Repl;
         synchronized (lock) {
+            // A replicator that was started just as a build began: its writes would fail with BUSY.
+            if (activeIndexBuilds > 0) {
+                throw new LiteCoreException(
+                    C4Constants.ErrorDomain.LITE_CORE,
+                    C4Constants.LiteCoreError.BUSY,
+                    "Cannot start a replicator while an index is being built");
+            }
             c4Repl = getC4Database().createReplicator(
                 schema,
                 host,
@@ -940,6 +1689,22 @@ abstract class AbstractDatabase {
         synchronized (lock) { return activeReplications.size() > 0; }
     }
 
+    //////// INDEX BUILDS:
+
+    boolean isBuildingIndexes() {
+        synchronized (lock) { return activeIndexBuilds > 0; }
+    }
+
+    // If an index is being built in the background, run the task, on the post executor, when no index is
+    // being built and return true.  Otherwise, return false: the caller should run the task itself.
+    boolean runAfterIndexBuilds(@NonNull Runnable task) {
+        synchronized (lock) {
+            if (activeIndexBuilds <= 0) { return false; }
+            afterIndexBuilds.add(task);
+            return true;
+        }
+    }
+
     //////// RESOLVING REPLICATED CONFLICTS:
 
     void resolveReplicationConflict(
@@ -995,6 +1760,27 @@ abstract class AbstractDatabase {
         callback.accept(err);
     }
 
+    // Run a task in a transaction on the main connection, holding the lock.
+    // Writes to raw stores, rather than documents, do not notify the database's observers.
+    void inRawTransaction(@NonNull Fn.ConsumerThrows<C4Database, LiteCoreException> task)
+        throws CouchbaseLiteException {
+        synchronized (lock) {
+            mustBeOpen();
+            boolean commit = false;
+            beginTransaction();
+            try {
+                task.accept(getC4Database());
+                commit = true;
+            }
+            catch (LiteCoreException e) {
+                throw CBLStatus.convertException(e);
+            }
+            finally {
+                endTransaction(commit);
+            }
+        }
+    }
+
     //////// Execution:
 
     void scheduleOnPostNotificationExecutor(@NonNull Runnable task, long delayMs) {
@@ -1015,13 +1801,103 @@ abstract class AbstractDatabase {
 
     //////// DATABASES:
     private void beginTransaction() throws CouchbaseLiteException {
+        waitForIndexBuilds();
         try { getC4Database().beginTransaction(); }
         catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
+        transactionDepth++;
     }
 
     private void endTransaction(boolean commit) throws CouchbaseLiteException {
         try { getC4Database().endTransaction(commit); }
         catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
+        finally {
+            // Documents written in the transaction may have been cached, by readers,
+            // at their previous revision, before the transaction committed.
+            if (--transactionDepth <= 0) {
+                transactionDepth = 0;
+                final DocumentCache cache = documentCache;
+                if (cache != null) { cache.endTransaction(); }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void setIndexBuildWait(long waitMs) {
+        synchronized (lock) { indexBuildWaitMs = waitMs; }
+    }
+
+    // Call holding lock.
+    // An index build, on its own connection, holds the SQLite write lock until it is complete.
+    // Rather than fail with BUSY at once, wait for it, releasing the database lock so that reads can proceed.
+    // The wait is bounded: a writer, such as the write queue's, must not be parked for the whole of a long build.
+    private void waitForIndexBuilds() throws CouchbaseLiteException {
+        // A nested transaction can't wait: the build can't start while the outer transaction is open.
+        if (transactionDepth > 0) { return; }
+
+        final long deadline = System.currentTimeMillis() + indexBuildWaitMs;
+        while (activeIndexBuilds > 0) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new CouchbaseLiteException(
+                    "Timed out waiting for an index build",
+                    CBLError.Domain.CBLITE,
+                    CBLError.Code.BUSY);
+            }
+            try { lock.wait(remaining); }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CouchbaseLiteException(
+                    "Interrupted waiting for an index build",
+                    e,
+                    CBLError.Domain.CBLITE,
+                    CBLError.Code.BUSY);
+            }
+        }
+    }
+
+    // Runs on the index executor, without holding lock.
+    private void buildIndex(
+        @NonNull String path,
+        @NonNull String name,
+        @NonNull String json,
+        @NonNull AbstractIndex index)
+        throws CouchbaseLiteException {
+        C4Database builder = null;
+        try {
+            builder = new C4Database(
+                path,
+                getDatabaseFlags(),
+                null,
+                C4Constants.DocumentVersioning.REVISION_TREES,
+                getEncryptionAlgorithm(),
+                getEncryptionKey());
+            builder.createIndex(name, json, index.type().getValue(), index.language(), index.ignoreAccents());
+        }
+        catch (LiteCoreException e) {
+            throw CBLStatus.convertException(e);
+        }
+        finally {
+            if (builder != null) {
+                try { builder.close(); }
+                catch (LiteCoreException e) { Log.w(DOMAIN, "Failed closing index build connection", e); }
+                builder.free();
+            }
+        }
+    }
+
+    private void notifyIndexBuild(
+        @Nullable Executor executor,
+        @Nullable IndexBuildListener listener,
+        @NonNull String name,
+        @NonNull IndexBuildChange.Status status,
+        long start,
+        @Nullable CouchbaseLiteException err) {
+        if (listener == null) { return; }
+
+        final IndexBuildChange change
+            = new IndexBuildChange((Database) this, name, status, System.currentTimeMillis() - start, err);
+        final Executor exec = (executor != null) ? executor : CouchbaseLite.getExecutionService().getMainExecutor();
+        exec.execute(() -> listener.changed(change));
     }
 
     private void open() throws CouchbaseLiteException {
@@ -1060,10 +1936,41 @@ abstract class AbstractDatabase {
             throw CBLStatus.convertException(e);
         }
 
+        final long slowQueryThreshold = config.getSlowQueryThreshold();
+        if (config.isQueryProfilingEnabled() || (slowQueryThreshold > 0)) {
+            queryProfiler = new QueryProfiler(slowQueryThreshold);
+        }
+
+        final int queryCacheSize = config.getQueryCacheSize();
+        mainConnection = new ReaderPool.Connection(lock, c4db, false, queryCacheSize);
+
+        final int readerPoolSize = config.getReaderPoolSize();
+        if (readerPoolSize > 0) {
+            try {
+                readerPool = new ReaderPool(
+                    dbFile.getPath(),
+                    readerPoolSize,
+                    getEncryptionAlgorithm(),
+                    getEncryptionKey(),
+                    queryCacheSize);
+            }
+            catch (LiteCoreException e) {
+                freeC4DB();
+                throw CBLStatus.convertException(e);
+            }
+        }
+
         c4DbObserver = null;
         dbChangeNotifier = null;
         docChangeNotifiers = new HashMap<>();
 
+        // The cache needs the database observer, to see changes made by other connections.
+        final int documentCacheSize = config.getDocumentCacheSize();
+        if (documentCacheSize > 0) {
+            documentCache = new DocumentCache(documentCacheSize);
+            registerC4DBObserver();
+        }
+
         getPurgeStrategy().schedulePurge(OPENING_PURGE_DELAY_MS);
     }
 
@@ -1093,12 +2000,54 @@ abstract class AbstractDatabase {
     }
 
     private void freeC4DB() {
+        final DocumentCache cache = documentCache;
+        if (cache != null) { cache.clear(); }
+
         if ((c4db != null) && !shellMode) {
+            mainConnection.invalidate();
             getC4Database().free();
             c4db = null;
         }
     }
 
+    // Call holding lock
+    private void closeWriteQueue() {
+        if (writeQueue == null) { return; }
+        writeQueue.close();
+        writeQueue = null;
+    }
+
+    @NonNull
+    private List<ReaderPool.Connection> getConnections() {
+        final List<ReaderPool.Connection> connections = new ArrayList<>();
+        final ReaderPool.Connection main = mainConnection;
+        if (main != null) { connections.add(main); }
+        final ReaderPool pool = readerPool;
+        if (pool != null) { connections.addAll(Arrays.asList(pool.getReaders())); }
+        return connections;
+    }
+
+    // Call holding lock.
+    private void closeMaterializedView(@NonNull String name) {
+        final MaterializedView view = materializedViews.remove(name);
+        if (view != null) { view.close(); }
+
+        final ListenerToken token = materializedViewTokens.remove(name);
+        if (token != null) { removeDatabaseChangeListenerSynchronized(token); }
+    }
+
+    // Call holding lock.
+    private void closeMaterializedViews() {
+        for (String name : new ArrayList<>(materializedViews.keySet())) { closeMaterializedView(name); }
+    }
+
+    private void closeReaderPool() {
+        final ReaderPool pool = readerPool;
+        if (pool == null) { return; }
+        readerPool = null;
+        pool.close();
+    }
+
     // --- Database changes:
 
     // NOTE: calling method must be synchronized.
@@ -1108,7 +2057,7 @@ abstract class AbstractDatabase {
         @NonNull DatabaseChangeListener listener) {
         if (dbChangeNotifier == null) {
             dbChangeNotifier = new ChangeNotifier<>();
-            registerC4DBObserver();
+            if (c4DbObserver == null) { registerC4DBObserver(); }
         }
         return dbChangeNotifier.addChangeListener(executor, listener);
     }
@@ -1118,7 +2067,8 @@ abstract class AbstractDatabase {
     // NOTE: calling method must be synchronized.
     private void removeDatabaseChangeListenerSynchronized(@NonNull ListenerToken token) {
         if (dbChangeNotifier.removeChangeListener(token) == 0) {
-            freeC4DBObserver();
+            // The document cache still needs the observer
+            if (documentCache == null) { freeC4DBObserver(); }
             dbChangeNotifier = null;
         }
     }
@@ -1182,18 +2132,27 @@ abstract class AbstractDatabase {
             boolean external = false;
             int nChanges;
             List<String> docIDs = new ArrayList<>();
+            List<Long> sequences = new ArrayList<>();
             do {
                 // Read changes in batches of kMaxChanges:
                 final C4DatabaseChange[] c4DbChanges = c4DbObserver.getChanges(MAX_CHANGES);
                 nChanges = (c4DbChanges == null) ? 0 : c4DbChanges.length;
                 final boolean newExternal = (nChanges > 0) && c4DbChanges[0].isExternal();
                 if (((nChanges <= 0) || (external != newExternal) || (docIDs.size() > 1000)) && (docIDs.size() > 0)) {
-                    dbChangeNotifier.postChange(new DatabaseChange((Database) this, docIDs));
+                    if (dbChangeNotifier != null) {
+                        dbChangeNotifier.postChange(new DatabaseChange((Database) this, docIDs, sequences));
+                    }
                     docIDs = new ArrayList<>();
+                    sequences = new ArrayList<>();
                 }
 
                 external = newExternal;
-                for (int i = 0; i < nChanges; i++) { docIDs.add(c4DbChanges[i].getDocID()); }
+                for (int i = 0; i < nChanges; i++) {
+                    final C4DatabaseChange change = c4DbChanges[i];
+                    if (documentCache != null) { documentCache.invalidate(change.getDocID(), change.getSequence()); }
+                    docIDs.add(change.getDocID());
+                    sequences.add(change.getSequence());
+                }
             }
             while (nChanges > 0);
         }
@@ -1344,6 +2303,7 @@ abstract class AbstractDatabase {
             // The remote branch has to win so that the doc revision history matches the server's.
             rawDoc.resolveConflict(remoteDoc.getRevisionID(), localDoc.getRevisionID(), mergedBodyBytes, mergedFlags);
             rawDoc.save(0);
+            invalidateCachedDocument(localDoc.getId());
 
             Log.i(DOMAIN, "Conflict resolved as doc '%s' rev %s", rawDoc.getDocID(), rawDoc.getRevID());
         }
@@ -1415,45 +2375,259 @@ abstract class AbstractDatabase {
                 CBLError.Code.NOT_FOUND);
         }
 
+        // Encode the document before acquiring the lock: encoding a large document takes a while.
+        final DocumentEncoder.EncodedBody body = encodeOutsideLock(document, deleting);
+        try {
+            synchronized (lock) {
+                prepareDocument(document);
+
+                C4Document newDoc = null;
+
+                boolean commit = false;
+                beginTransaction();
+                try {
+                    newDoc = saveWithConcurrencyControl(document, baseDoc, deleting, concurrencyControl, body);
+                    commit = newDoc != null;
+                }
+                finally {
+                    try { endTransaction(commit); }
+                    catch (CouchbaseLiteException e) {
+                        if (newDoc != null) { newDoc.release(); }
+                        throw e;
+                    }
+                }
+            }
+        }
+        finally {
+            if (body != null) { body.free(); }
+        }
+    }
+
+    // Returns null if the document must be encoded under the lock.
+    @Nullable
+    private DocumentEncoder.EncodedBody encodeOutsideLock(@NonNull Document document, boolean deleting)
+        throws CouchbaseLiteException {
+        if (deleting || (documentEncoder == null) || document.isEmpty()) { return null; }
+
+        // Blobs are installed in the document's database, as it is encoded:
+        // the database must stay open until the encoding is complete.
         synchronized (lock) {
             prepareDocument(document);
+            activeEncodes++;
+        }
 
-            C4Document newDoc = null;
+        try { return documentEncoder.encode(document); }
+        finally {
+            synchronized (lock) {
+                activeEncodes--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    // Call holding lock.
+    // Wait for documents that are being encoded outside the lock, before closing the database.
+    private void waitForEncodes() throws CouchbaseLiteException {
+        while (activeEncodes > 0) {
+            try { lock.wait(); }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CouchbaseLiteException(
+                    "Interrupted waiting for a document to be encoded",
+                    e,
+                    CBLError.Domain.CBLITE,
+                    CBLError.Code.BUSY);
+            }
+        }
+    }
+
+    // The batch save method: one lock acquisition and one transaction for all of the documents.
+    // Returns the documents that were not saved because they are in conflict.
+    @NonNull
+    private <T extends Document> List<T> saveAllInternal(
+        @NonNull Collection<T> documents,
+        boolean deleting,
+        @NonNull Fn.Function<T, ConcurrencyControl> concurrencyControl)
+        throws CouchbaseLiteException {
+        for (T document : documents) {
+            Preconditions.checkArgNotNull(document, "document");
+            if (deleting && (!document.exists())) {
+                throw new CouchbaseLiteException(
+                    "DeleteDocFailedNotSaved",
+                    CBLError.Domain.CBLITE,
+                    CBLError.Code.NOT_FOUND);
+            }
+        }
+
+        final List<T> conflicts = new ArrayList<>();
+        if (documents.isEmpty()) { return conflicts; }
+
+        synchronized (lock) {
+            for (T document : documents) { prepareDocument(document); }
+
+            // Each save replaces the document's c4doc.  If the transaction is rolled back,
+            // the documents saved before the failure are restored to the revisions they had.
+            final List<T> saved = new ArrayList<>();
+            final List<Document.Snapshot> snapshots = new ArrayList<>();
 
             boolean commit = false;
             beginTransaction();
             try {
+                for (T document : documents) {
+                    final Document.Snapshot snapshot = document.snapshot();
+                    saved.add(document);
+                    snapshots.add(snapshot);
+                    try {
+                        saveWithConcurrencyControl(document, null, deleting, concurrencyControl.apply(document), null);
+                    }
+                    catch (CouchbaseLiteException e) {
+                        if (!CouchbaseLiteException.isConflict(e)) { throw e; }
+                        conflicts.add(document);
+                    }
+                }
+                commit = true;
+            }
+            finally {
+                boolean committed = false;
                 try {
-                    newDoc = saveInTransaction(document, (baseDoc == null) ? null : baseDoc.getC4doc(), deleting);
-                    commit = true;
-                    return;
+                    endTransaction(commit);
+                    committed = commit;
                 }
-                catch (CouchbaseLiteException e) {
-                    if (!CouchbaseLiteException.isConflict(e)) { throw e; }
+                finally {
+                    // Restore in reverse order: the collection may contain the same document twice.
+                    for (int i = saved.size() - 1; i >= 0; i--) {
+                        if (committed) { snapshots.get(i).release(); }
+                        else { saved.get(i).restore(snapshots.get(i)); }
+                    }
                 }
+            }
+        }
 
-                // Conflict
+        postDatabaseChanged();
 
-                // return false if FAIL_ON_CONFLICT
-                if (concurrencyControl.equals(ConcurrencyControl.FAIL_ON_CONFLICT)) {
-                    throw new CouchbaseLiteException("Conflict", CBLError.Domain.CBLITE, CBLError.Code.CONFLICT);
-                }
+        return conflicts;
+    }
 
-                newDoc = saveConflicted(document, deleting);
-                commit = newDoc != null;
+    // Save a group of queued asynchronous writes, completing each of them.
+    // The whole group is saved holding the lock: when the database is closed, a group that the
+    // writer has taken has either been saved completely or not at all.  See WriteQueue.close.
+    void saveGroup(@NonNull List<WriteQueue.PendingWrite> group) {
+        synchronized (lock) { saveGroupLocked(group); }
+    }
+
+    // Call holding lock.
+    private void saveGroupLocked(@NonNull List<WriteQueue.PendingWrite> group) {
+        // A write that cannot be saved in this database fails on its own, before the transaction.
+        final List<WriteQueue.PendingWrite> writes = new ArrayList<>(group.size());
+        for (WriteQueue.PendingWrite write : group) {
+            // already saved, when the database was closed
+            if (write.isDone()) { continue; }
+            try {
+                prepareDocument(write.getDocument());
+                writes.add(write);
             }
-            finally {
-                try { endTransaction(commit); }
-                catch (CouchbaseLiteException e) {
-                    if (newDoc != null) { newDoc.release(); }
-                    throw e;
-                }
+            catch (CouchbaseLiteException | RuntimeException e) { write.fail(e); }
+        }
+        if (writes.isEmpty()) { return; }
+
+        // Wait for an index build once, for the whole group, rather than once for each write that is retried.
+        try { waitForIndexBuilds(); }
+        catch (CouchbaseLiteException e) {
+            for (WriteQueue.PendingWrite write : writes) { write.fail(e); }
+            return;
+        }
+
+        // Save the documents in the order in which they were queued: with LAST_WRITE_WINS,
+        // the last of two documents with the same ID must win.
+        // A group never contains the same document twice.
+        final List<MutableDocument> docs = new ArrayList<>(writes.size());
+        final Map<MutableDocument, ConcurrencyControl> concurrencyControls = new IdentityHashMap<>();
+        for (WriteQueue.PendingWrite write : writes) {
+            docs.add(write.getDocument());
+            concurrencyControls.put(write.getDocument(), write.getConcurrencyControl());
+        }
+
+        final Set<MutableDocument> conflicts = Collections.newSetFromMap(new IdentityHashMap<>());
+        try { conflicts.addAll(saveAllInternal(docs, false, concurrencyControls::get)); }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            // The group's transaction was rolled back.  Save each write in its own transaction,
+            // so that only the write that caused the failure fails.
+            for (WriteQueue.PendingWrite write : writes) { saveWrite(write); }
+            return;
+        }
+
+        for (WriteQueue.PendingWrite write : writes) { completeWrite(write, conflicts.contains(write.getDocument())); }
+    }
+
+    private void saveWrite(@NonNull WriteQueue.PendingWrite write) {
+        final boolean conflict;
+        try {
+            conflict = !saveAllInternal(
+                Collections.singletonList(write.getDocument()),
+                false,
+                doc -> write.getConcurrencyControl())
+                .isEmpty();
+        }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            write.fail(e);
+            return;
+        }
+
+        completeWrite(write, conflict);
+    }
+
+    private void completeWrite(@NonNull WriteQueue.PendingWrite write, boolean conflict) {
+        if (!conflict) { write.succeed(); }
+        else { write.fail(new CouchbaseLiteException("Conflict", CBLError.Domain.CBLITE, CBLError.Code.CONFLICT)); }
+    }
+
+    // Call holding lock and in a transaction.
+    // Returns the new C4Document or null if there was nothing to save.
+    // Throws a CONFLICT exception if the document is in conflict and concurrency control is FAIL_ON_CONFLICT.
+    @Nullable
+    private C4Document saveWithConcurrencyControl(
+        @NonNull Document document,
+        @Nullable Document baseDoc,
+        boolean deleting,
+        @NonNull ConcurrencyControl concurrencyControl,
+        @Nullable DocumentEncoder.EncodedBody encodedBody)
+        throws CouchbaseLiteException {
+        // A document read through a read-only connection cannot be updated directly:
+        // save it on top of the current revision, if that is the revision that was read.
+        final ReaderPool.Connection connection = document.getConnection();
+        if ((baseDoc == null) && (connection != null) && connection.isReadOnly()) {
+            if (concurrencyControl.equals(ConcurrencyControl.FAIL_ON_CONFLICT) && !isCurrentRevision(document)) {
+                throw new CouchbaseLiteException("Conflict", CBLError.Domain.CBLITE, CBLError.Code.CONFLICT);
             }
+            return saveConflicted(document, deleting, encodedBody);
+        }
+
+        try {
+            return saveInTransaction(
+                document,
+                (baseDoc == null) ? null : baseDoc.getC4doc(),
+                deleting,
+                encodedBody);
+        }
+        catch (CouchbaseLiteException e) {
+            if (!CouchbaseLiteException.isConflict(e)) { throw e; }
+        }
+
+        // Conflict
+
+        // return false if FAIL_ON_CONFLICT
+        if (concurrencyControl.equals(ConcurrencyControl.FAIL_ON_CONFLICT)) {
+            throw new CouchbaseLiteException("Conflict", CBLError.Domain.CBLITE, CBLError.Code.CONFLICT);
         }
+
+        return saveConflicted(document, deleting, encodedBody);
     }
 
     @Nullable
-    private C4Document saveConflicted(@NonNull Document document, boolean deleting)
+    private C4Document saveConflicted(
+        @NonNull Document document,
+        boolean deleting,
+        @Nullable DocumentEncoder.EncodedBody encodedBody)
         throws CouchbaseLiteException {
 
         C4Document curDoc = null;
@@ -1479,7 +2653,209 @@ abstract class AbstractDatabase {
             }
 
             // Save changes on the current branch:
-            return saveInTransaction(document, curDoc, deleting);
+            return saveInTransaction(document, curDoc, deleting, encodedBody);
+        }
+        finally {
+            if (curDoc != null) {
+                curDoc.retain();
+                curDoc.release(); // curDoc is not retained
+            }
+        }
+    }
+
+    // Returns {tombstones, live documents, total body size of live documents}
+    @NonNull
+    private long[] scanDocuments() throws CouchbaseLiteException {
+        final long[] totals = new long[3];
+        final ReaderPool.Connection connection = getReader();
+        C4DocEnumerator c4enum = null;
+        try {
+            synchronized (connection.getLock()) {
+                c4enum = connection.getC4Database().enumerateAllDocs(
+                    C4Constants.EnumeratorFlags.INCLUDE_DELETED
+                        | C4Constants.EnumeratorFlags.INCLUDE_NON_CONFLICTED
+                        | C4Constants.EnumeratorFlags.INCLUDE_BODIES);
+            }
+
+            boolean more = true;
+            while (more) {
+                synchronized (connection.getLock()) {
+                    // throws if the database has been closed
+                    connection.getC4Database();
+
+                    for (int i = 0; i < SCAN_BATCH_SIZE; i++) {
+                        more = c4enum.next();
+                        if (!more) { break; }
+
+                        final C4Document doc = c4enum.getDocument();
+                        if (doc == null) { continue; }
+                        try {
+                            if (doc.deleted()) { totals[0]++; }
+                            else {
+                                totals[1]++;
+                                totals[2] += doc.getSelectedBodySize();
+                            }
+                        }
+                        finally {
+                            doc.retain();
+                            doc.release();
+                        }
+                    }
+                }
+            }
+        }
+        catch (LiteCoreException e) {
+            throw CBLStatus.convertException(e);
+        }
+        finally {
+            if (c4enum != null) {
+                synchronized (connection.getLock()) {
+                    c4enum.close();
+                    c4enum.free();
+                }
+            }
+        }
+
+        return totals;
+    }
+
+    @Nullable
+    private DocumentCache getDocumentCache() {
+        // A thread that holds the lock may be in a transaction: it must see its own uncommitted writes.
+        return Thread.holdsLock(lock) ? null : documentCache;
+    }
+
+    // Call holding lock
+    private void invalidateCachedDocument(@NonNull String id) {
+        final DocumentCache cache = documentCache;
+        if (cache != null) { cache.invalidate(id); }
+    }
+
+    @Nullable
+    private Document readDocument(@NonNull String id) { return readDocument(id, false); }
+
+    // Read a document's current revision from a reader.  Unless includeDeleted is true,
+    // returns null if the document has been deleted.  Always returns null if it does not exist.
+    @Nullable
+    Document readDocument(@NonNull String id, boolean includeDeleted) {
+        final ReaderPool.Connection connection = getReader();
+        synchronized (connection.getLock()) {
+            try { return new Document((Database) this, id, connection, includeDeleted); }
+            catch (CouchbaseLiteException ex) {
+                // only 404 - Not Found error throws CouchbaseLiteException
+                return null;
+            }
+        }
+    }
+
+    // Documents that do not exist or that have been deleted are not included in the result.
+    @NonNull
+    private List<Document> readDocuments(@NonNull String[] ids) throws CouchbaseLiteException {
+        final List<Document> docs = new ArrayList<>();
+        final ReaderPool.Connection connection = getReader();
+        synchronized (connection.getLock()) {
+            final C4Document[] c4docs;
+            try { c4docs = connection.getC4Database().getDocuments(ids); }
+            catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
+
+            for (int i = 0; i < ids.length; i++) {
+                if (c4docs[i] == null) { continue; }
+                docs.add(new Document((Database) this, ids[i], c4docs[i], connection));
+            }
+        }
+
+        return docs;
+    }
+
+    // LiteCore's blob store cannot enumerate its blobs, so the files in its directory are listed.
+    // Each file is identified as a blob by its key, located through the blob store and sized by it.
+    // If the store's layout is not as expected, return -1s rather than numbers that are wrong.
+    // Returns the count and the total size of the blobs.
+    @NonNull
+    private long[] scanBlobs(@NonNull C4BlobStore blobStore, @NonNull File blobDir) {
+        final long[] totals = new long[2];
+
+        final File[] files = blobDir.listFiles();
+        if (files == null) { return totals; }
+
+        for (File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(BLOB_EXTENSION)) { continue; }
+
+            // The file name is the key's base64 digest, with '/' replaced by '_'
+            final C4BlobKey key;
+            try {
+                key = new C4BlobKey(
+                    "sha1-" + name.substring(0, name.length() - BLOB_EXTENSION.length()).replace('_', '/'));
+            }
+            catch (LiteCoreException e) {
+                Log.v(DOMAIN, "Not a blob: %s", name);
+                continue;
+            }
+
+            try {
+                // The store cannot give the path of an encrypted blob.
+                String blobPath = null;
+                try { blobPath = blobStore.getFilePath(key); }
+                catch (LiteCoreException ignore) { }
+                if ((blobPath != null) && (!new File(blobPath).getAbsoluteFile().equals(file.getAbsoluteFile()))) {
+                    Log.w(DOMAIN, "Unexpected blob store layout: blob %s is at %s", name, blobPath);
+                    return new long[] {-1, -1};
+                }
+
+                final long size = blobStore.getSize(key);
+                if (size < 0) { continue; }
+                totals[0]++;
+                totals[1] += size;
+            }
+            finally {
+                key.free();
+            }
+        }
+
+        return totals;
+    }
+
+    // Call holding the connection's lock.
+    @Nullable
+    private Document readDocument(
+        @NonNull ReaderPool.Connection connection,
+        @NonNull C4DocEnumerator c4enum)
+        throws LiteCoreException {
+        final C4Document c4doc = c4enum.getDocument();
+        if (c4doc == null) { return null; }
+        return new Document((Database) this, c4doc.getDocID(), c4doc, connection);
+    }
+
+    // Call holding the connection's lock.
+    @NonNull
+    private static DocumentMetadata readMetadata(
+        @NonNull ReaderPool.Connection connection,
+        @NonNull C4DocEnumerator c4enum) {
+        final String[] ids = new String[2];
+        final long[] numbers = new long[2];
+        if (!c4enum.getDocumentInfo(ids, numbers)) { throw new IllegalStateException("No current document"); }
+        return new DocumentMetadata(
+            ids[0],
+            ids[1],
+            numbers[1],
+            (numbers[0] & C4Constants.DocumentFlags.DELETED) != 0);
+    }
+
+    // Call holding lock.
+    // True if the document's revision is the current revision of the document in the database.
+    private boolean isCurrentRevision(@NonNull Document document) throws CouchbaseLiteException {
+        C4Document curDoc = null;
+        try {
+            curDoc = getC4Database().get(document.getId(), true);
+            return curDoc.getRevID().equals(document.getRevisionID());
+        }
+        catch (LiteCoreException e) {
+            if ((e.domain == C4Constants.ErrorDomain.LITE_CORE)
+                && (e.code == C4Constants.LiteCoreError.NOT_FOUND)) {
+                return false;
+            }
+            throw CBLStatus.convertException(e);
         }
         finally {
             if (curDoc != null) {
@@ -1492,15 +2868,23 @@ abstract class AbstractDatabase {
     // Low-level save method
     @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE")
     @NonNull
-    private C4Document saveInTransaction(@NonNull Document document, @Nullable C4Document base, boolean deleting)
+    private C4Document saveInTransaction(
+        @NonNull Document document,
+        @Nullable C4Document base,
+        boolean deleting,
+        @Nullable DocumentEncoder.EncodedBody encodedBody)
         throws CouchbaseLiteException {
         FLSliceResult body = null;
+        FLSliceResult newBody = null;
         try {
             int revFlags = 0;
             if (deleting) { revFlags = C4Constants.RevisionFlags.DELETED; }
             else if (!document.isEmpty()) {
-                // Encode properties to Fleece data:
-                body = document.encode();
+                // Encode properties to Fleece data: copy those that were encoded before the lock was acquired
+                body = (encodedBody == null)
+                    ? document.encode()
+                    : documentEncoder.toSharedKeys(encodedBody, getC4Database().getSharedFleeceEncoder());
+                newBody = body;
                 if (C4Document.dictContainsBlobs(body, sharedKeys.getFLSharedKeys())) {
                     revFlags |= C4Constants.RevisionFlags.HAS_ATTACHMENTS;
                 }
@@ -1510,10 +2894,11 @@ abstract class AbstractDatabase {
             C4Document c4Doc = (base != null) ? base : document.getC4doc();
 
             c4Doc = (c4Doc != null)
-                ? c4Doc.update(body, revFlags)
-                : getC4Database().create(document.getId(), body, revFlags);
+                ? c4Doc.update(newBody, revFlags)
+                : getC4Database().create(document.getId(), newBody, revFlags);
 
             document.replaceC4Document(c4Doc);
+            invalidateCachedDocument(document.getId());
 
             return c4Doc;
         }
@@ -1530,6 +2915,7 @@ abstract class AbstractDatabase {
         beginTransaction();
         try {
             getC4Database().purgeDoc(id);
+            invalidateCachedDocument(id);
             commit = true;
         }
         catch (LiteCoreException e) {
@@ -1543,6 +2929,8 @@ abstract class AbstractDatabase {
     private void shutdownExecutorService() {
         postExecutor.stop(60, TimeUnit.SECONDS);
         queryExecutor.stop(60, TimeUnit.SECONDS);
+        indexExecutor.stop(60, TimeUnit.SECONDS);
+        viewExecutor.stop(60, TimeUnit.SECONDS);
     }
 
     private DocumentExpirationStrategy getPurgeStrategy() {
@@ -24,6 +24,9 @@ import com.couchbase.lite.internal.core.C4Base;
 abstract class AbstractDatabaseConfiguration {
     private static final String TEMP_DIR_NAME = "CouchbaseLiteTemp";
 
+    private static final long DEFAULT_GROUP_COMMIT_WINDOW_MS = 2;
+    private static final int DEFAULT_GROUP_COMMIT_MAX_SIZE = 500;
+
     private static String tempDir;
 
     //---------------------------------------------
@@ -33,6 +36,13 @@ abstract class AbstractDatabaseConfiguration {
     private boolean readonly;
     private boolean customDir;
     private String directory;
+    private int readerPoolSize;
+    private long groupCommitWindow = DEFAULT_GROUP_COMMIT_WINDOW_MS;
+    private int groupCommitMaxSize = DEFAULT_GROUP_COMMIT_MAX_SIZE;
+    private int documentCacheSize;
+    private int queryCacheSize;
+    private boolean queryProfilingEnabled;
+    private long slowQueryThreshold;
 
     //---------------------------------------------
     // Constructors
@@ -44,6 +54,13 @@ abstract class AbstractDatabaseConfiguration {
 
     protected AbstractDatabaseConfiguration(@NonNull AbstractDatabaseConfiguration config) {
         this(config.customDir, config.directory);
+        this.readerPoolSize = config.readerPoolSize;
+        this.groupCommitWindow = config.groupCommitWindow;
+        this.groupCommitMaxSize = config.groupCommitMaxSize;
+        this.documentCacheSize = config.documentCacheSize;
+        this.queryCacheSize = config.queryCacheSize;
+        this.queryProfilingEnabled = config.queryProfilingEnabled;
+        this.slowQueryThreshold = config.slowQueryThreshold;
     }
 
     private AbstractDatabaseConfiguration(boolean customDir, String directory) {
@@ -66,6 +83,69 @@ abstract class AbstractDatabaseConfiguration {
         return directory;
     }
 
+    /**
+     * Returns the number of read-only connections that the database opens, in addition to its main connection.
+     *
+     * @return the reader pool size
+     */
+    public int getReaderPoolSize() {
+        return readerPoolSize;
+    }
+
+    /**
+     * Returns the time, in milliseconds, that an asynchronous save waits for others to join its group commit.
+     *
+     * @return the group commit window
+     */
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * Returns the maximum number of asynchronous saves that are committed in a single transaction.
+     *
+     * @return the maximum group commit size
+     */
+    public int getGroupCommitMaxSize() {
+        return groupCommitMaxSize;
+    }
+
+    /**
+     * Returns the maximum number of documents in the database's document cache.
+     *
+     * @return the document cache size
+     */
+    public int getDocumentCacheSize() {
+        return documentCacheSize;
+    }
+
+    /**
+     * Returns the maximum number of compiled queries that the database caches, for each of its connections.
+     *
+     * @return the query cache size
+     */
+    public int getQueryCacheSize() {
+        return queryCacheSize;
+    }
+
+    /**
+     * Returns whether the database records execution statistics for its queries.
+     *
+     * @return true if query profiling is enabled
+     */
+    public boolean isQueryProfilingEnabled() {
+        return queryProfilingEnabled;
+    }
+
+    /**
+     * Returns the time, in milliseconds, above which a query execution is logged as slow: 0 if none are.
+     *
+     * @return the slow query threshold
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
     //---------------------------------------------
     // Protected level access
     //---------------------------------------------
@@ -78,6 +158,54 @@ abstract class AbstractDatabaseConfiguration {
         return this;
     }
 
+    protected AbstractDatabaseConfiguration setReaderPoolSize(int readerPoolSize) {
+        if (readerPoolSize < 0) { throw new IllegalArgumentException("reader pool size cannot be negative."); }
+        if (readonly) { throw new IllegalStateException("DatabaseConfiguration is readonly mode."); }
+        this.readerPoolSize = readerPoolSize;
+        return this;
+    }
+
+    protected AbstractDatabaseConfiguration setGroupCommitWindow(long groupCommitWindow) {
+        if (groupCommitWindow < 0) { throw new IllegalArgumentException("group commit window cannot be negative."); }
+        if (readonly) { throw new IllegalStateException("DatabaseConfiguration is readonly mode."); }
+        this.groupCommitWindow = groupCommitWindow;
+        return this;
+    }
+
+    protected AbstractDatabaseConfiguration setGroupCommitMaxSize(int groupCommitMaxSize) {
+        if (groupCommitMaxSize <= 0) { throw new IllegalArgumentException("group commit size must be positive."); }
+        if (readonly) { throw new IllegalStateException("DatabaseConfiguration is readonly mode."); }
+        this.groupCommitMaxSize = groupCommitMaxSize;
+        return this;
+    }
+
+    protected AbstractDatabaseConfiguration setDocumentCacheSize(int documentCacheSize) {
+        if (documentCacheSize < 0) { throw new IllegalArgumentException("document cache size cannot be negative."); }
+        if (readonly) { throw new IllegalStateException("DatabaseConfiguration is readonly mode."); }
+        this.documentCacheSize = documentCacheSize;
+        return this;
+    }
+
+    protected AbstractDatabaseConfiguration setQueryCacheSize(int queryCacheSize) {
+        if (queryCacheSize < 0) { throw new IllegalArgumentException("query cache size cannot be negative."); }
+        if (readonly) { throw new IllegalStateException("DatabaseConfiguration is readonly mode."); }
+        this.queryCacheSize = queryCacheSize;
+        return this;
+    }
+
+    protected AbstractDatabaseConfiguration setQueryProfilingEnabled(boolean queryProfilingEnabled) {
+        if (readonly) { throw new IllegalStateException("DatabaseConfiguration is readonly mode."); }
+        this.queryProfilingEnabled = queryProfilingEnabled;
+        return this;
+    }
+
+    protected AbstractDatabaseConfiguration setSlowQueryThreshold(long slowQueryThreshold) {
+        if (slowQueryThreshold < 0) { throw new IllegalArgumentException("slow query threshold cannot be negative."); }
+        if (readonly) { throw new IllegalStateException("DatabaseConfiguration is readonly mode."); }
+        this.slowQueryThreshold = slowQueryThreshold;
+        return this;
+    }
+
     protected abstract DatabaseConfiguration getDatabaseConfiguration();
 
     protected boolean isReadonly() {
@@ -18,23 +18,28 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 
-import org.json.JSONException;
-
 import com.couchbase.lite.internal.CBLStatus;
+import com.couchbase.lite.internal.core.C4Database;
 import com.couchbase.lite.internal.core.C4Query;
 import com.couchbase.lite.internal.core.C4QueryEnumerator;
 import com.couchbase.lite.internal.core.C4QueryOptions;
 import com.couchbase.lite.internal.fleece.AllocSlice;
+import com.couchbase.lite.internal.fleece.FLValue;
 import com.couchbase.lite.internal.support.Log;
-import com.couchbase.lite.internal.utils.JsonUtils;
+import com.couchbase.lite.internal.utils.JsonWriter;
+import com.couchbase.lite.internal.utils.Preconditions;
 
 
 abstract class AbstractQuery implements Query {
@@ -49,7 +54,13 @@ abstract class AbstractQuery implements Query {
     private final Object lock = new Object();
 
     private Database database;
-    private C4Query c4query;
+
+    // The query is compiled separately for each connection on which it is run.
+    // Queries compiled for a connection with a query cache belong to the cache, not to this object.
+    private final Map<ReaderPool.Connection, C4Query> c4queries = new HashMap<>();
+
+    // The query's JSON encoding: computed when it is first compiled.
+    private String json;
 
     // NOTE:
     // https://sqlite.org/lang_select.html
@@ -75,8 +86,15 @@ abstract class AbstractQuery implements Query {
     // column names
     private Map<String, Integer> columnNames;
 
+    // Rewritten forms of this query, for count() and exists(): created when first needed.
+    private AbstractQuery countQuery;
+    private AbstractQuery existsQuery;
+
     // Live Query!!
+    // The live query with this query's listeners: it may be shared with other, identical, queries.
     private LiveQuery liveQuery;
+    private final Set<ChangeListenerToken<QueryChange>> liveQueryTokens = new HashSet<>();
+    private LiveQueryConfiguration liveQueryConfig = new LiveQueryConfiguration();
 
     /**
      * Returns a copies of the current parameters.
@@ -97,15 +115,8 @@ abstract class AbstractQuery implements Query {
      */
     @Override
     public void setParameters(Parameters parameters) {
-        final LiveQuery newQuery;
-        synchronized (lock) {
-            this.parameters = (parameters == null) ? null : parameters.readonlyCopy();
-            newQuery = liveQuery;
-        }
-
-        // https://github.com/couchbase/couchbase-lite-android/issues/1727
-        // Shouldn't call start() method inside the lock to prevent deadlock:
-        if (newQuery != null) { newQuery.start(true); }
+        synchronized (lock) { this.parameters = (parameters == null) ? null : parameters.readonlyCopy(); }
+        updateLiveQuery();
     }
 
     /**
@@ -122,25 +133,145 @@ abstract class AbstractQuery implements Query {
      */
     @NonNull
     @Override
-    public ResultSet execute() throws CouchbaseLiteException {
-        AllocSlice params = null;
+    public ResultSet execute() throws CouchbaseLiteException { return execute(null); }
+
+    /**
+     * Executes the query, failing if it has not run within the given time.
+     * The timeout is checked when the query has acquired a database connection, again when it has run,
+     * and before each batch of rows is read from the result set.  If the query takes too long to run,
+     * its results are discarded and this method throws a CouchbaseLiteException with the code
+     * CBLError.Code.TIMEOUT.  If the timeout expires while the rows are being read, the result set
+     * ends early.
+     * <p>
+     * The timeout does not bound the time that the query spends running: once LiteCore has started
+     * a query, it cannot be interrupted.  A slow query runs to completion, holding its connection's lock,
+     * before it fails.  Unless the database is configured with a reader pool (see setReaderPoolSize),
+     * that is the database's own lock, and every other use of the database waits for the query.
+     *
+     * @param timeoutMs the timeout, in milliseconds, or 0 for no timeout
+     * @return the ResultSet for the query result.
+     * @throws CouchbaseLiteException if there is an error when running the query, or the query times out.
+     */
+    @NonNull
+    @Override
+    public ResultSet execute(long timeoutMs) throws CouchbaseLiteException {
+        if (timeoutMs < 0) { throw new IllegalArgumentException("timeout cannot be negative."); }
+        return execute(new QueryExecution(timeoutMs));
+    }
+
+    /**
+     * Executes the query in the background, and passes the results to the listener.
+     * The results, or the error that prevented them, are delivered as a QueryChange, on the
+     * executor if it is not null or otherwise on the main thread, as for change listeners.
+     * The returned handle may be used to cancel the execution: the listener is not called
+     * for an execution that has been cancelled.
+     *
+     * @param executor the executor on which the listener is called, or null
+     * @param listener the listener to receive the results
+     * @return a handle with which to cancel the execution
+     */
+    @NonNull
+    @Override
+    public QueryExecution executeAsync(@Nullable Executor executor, @NonNull QueryChangeListener listener) {
+        Preconditions.checkArgNotNull(listener, "listener");
+
+        final QueryExecution execution = new QueryExecution(0);
+        final Executor exec = (executor != null) ? executor : CouchbaseLite.getExecutionService().getMainExecutor();
+        CouchbaseLite.getExecutionService().getConcurrentExecutor().execute(() -> {
+            ResultSet results = null;
+            CouchbaseLiteException error = null;
+            try { results = execute(execution); }
+            catch (CancellationException e) { return; }
+            catch (CouchbaseLiteException e) { error = e; }
+
+            final QueryChange change = new QueryChange(this, results, error);
+            exec.execute(() -> {
+                if (execution.deliver(change.getResults())) { listener.changed(change); }
+            });
+        });
+
+        return execution;
+    }
+
+    // Only an asynchronous execution can be cancelled: if it is, this method throws CancellationException.
+    @NonNull
+    private ResultSet execute(@Nullable QueryExecution execution) throws CouchbaseLiteException {
+        final Parameters parameters;
+        synchronized (lock) {
+            if (this.parameters == null) { this.parameters = new Parameters(); }
+            parameters = this.parameters;
+        }
+
         try {
             final C4QueryOptions options = new C4QueryOptions();
-            if (parameters == null) { parameters = new Parameters(); }
-            params = parameters.encode();
+            // The encoded parameters are cached: they belong to the parameters, and must not be freed here.
+            final AllocSlice params = parameters.getEncoded();
+            final Database db = getDatabase();
+            final QueryProfiler profiler = db.getQueryProfiler();
+            final QueryProfiler.Execution profile = (profiler == null) ? null : profiler.start();
+            final ReaderPool.Connection connection = db.getReader();
             final C4QueryEnumerator c4enum;
-            synchronized (getDatabase().getLock()) {
-                check();
+            synchronized (connection.getLock()) {
+                final C4Query c4query = getC4Query(connection, profile);
+                if (!proceed(execution, profile, null)) { throw new CancellationException(); }
+
+                final long start = (profile == null) ? 0 : System.nanoTime();
                 c4enum = c4query.run(options, params);
+                if (profile != null) { profile.ran(System.nanoTime() - start); }
+
+                // The query may have been cancelled, or timed out, while it was running.
+                if (!proceed(execution, profile, c4enum)) { throw new CancellationException(); }
             }
-            return new ResultSet(this, c4enum, columnNames);
+            return new ResultSet(this, connection, c4enum, columnNames, profile, execution);
         }
         catch (LiteCoreException e) {
             throw CBLStatus.convertException(e);
         }
-        finally {
-            if (params != null) { params.free(); }
+    }
+
+    /**
+     * Executes the query once for each of a list of parameter sets, and returns the result sets
+     * in the same order.  The query is compiled once, the parameters are encoded with a single encoder,
+     * and every run happens on the same reader connection, in a single acquisition of its lock.
+     * The parameters set with setParameters are ignored: a null entry in the list means no parameters.
+     * Each result set must be closed, when its results are no longer needed.
+     *
+     * @param parameterSets the parameter sets
+     * @return a ResultSet for each parameter set.
+     * @throws CouchbaseLiteException if there is an error when running the query.
+     */
+    @NonNull
+    @Override
+    public List<ResultSet> executeBatch(@NonNull List<Parameters> parameterSets) throws CouchbaseLiteException {
+        final List<ResultSet> results = new ArrayList<>(parameterSets.size());
+        try {
+            runBatch(parameterSets, (index, resultSet) -> results.add(resultSet), false);
         }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            for (ResultSet resultSet : results) { resultSet.close(); }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Executes the query once for each of a list of parameter sets, and passes each result set
+     * to the listener, in order, as soon as it is available.  Each result set is closed when the
+     * listener returns, so that no more than one is open at a time.  The listener is called on this thread.
+     * If the database has a pool of readers, the lock for the reader on which the queries run is taken once
+     * and held for the whole batch, including while the listener is called: other reads that use that reader
+     * wait until the batch is complete.  Otherwise the queries run on the database's own connection:
+     * its lock is held only while each query runs and the listener is called without it.
+     *
+     * @param parameterSets the parameter sets
+     * @param listener      the listener to receive the results
+     * @throws CouchbaseLiteException if there is an error when running the query, or the listener throws one.
+     */
+    @Override
+    public void executeBatch(@NonNull List<Parameters> parameterSets, @NonNull QueryBatchListener listener)
+        throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(listener, "listener");
+        runBatch(parameterSets, listener, true);
     }
 
     /**
@@ -160,10 +291,36 @@ abstract class AbstractQuery implements Query {
     @NonNull
     @Override
     public String explain() throws CouchbaseLiteException {
-        synchronized (getDatabase().getLock()) {
-            check();
-            return c4query.explain();
-        }
+        final ReaderPool.Connection connection = getDatabase().getReader();
+        synchronized (connection.getLock()) { return getC4Query(connection, null).explain(); }
+    }
+
+    /**
+     * Returns the number of rows in the query's results, without creating Result objects for them.
+     * If possible, the query is rewritten to count the rows in the database: SELECT COUNT(1), with
+     * the same FROM and WHERE clauses, and no ORDER BY.  Otherwise the query is run, and the rows counted.
+     *
+     * @return the number of rows.
+     * @throws CouchbaseLiteException if there is an error when running the query.
+     */
+    @Override
+    public long count() throws CouchbaseLiteException {
+        final AbstractQuery query = getRewrittenQuery(true);
+        return (query == null) ? runForCount(false) : query.runForCount(true);
+    }
+
+    /**
+     * Returns true if the query has at least one result row, without creating Result objects.
+     * If possible, the query is rewritten to read no more than a single row: SELECT 1, with
+     * the same FROM and WHERE clauses, no ORDER BY, and LIMIT 1.  Otherwise the query is run, and the rows counted.
+     *
+     * @return true if the query has results.
+     * @throws CouchbaseLiteException if there is an error when running the query.
+     */
+    @Override
+    public boolean exists() throws CouchbaseLiteException {
+        final AbstractQuery query = getRewrittenQuery(false);
+        return ((query == null) ? runForCount(false) : query.runForCount(false)) > 0;
     }
 
     /**
@@ -192,7 +349,25 @@ abstract class AbstractQuery implements Query {
     @Override
     public ListenerToken addChangeListener(Executor executor, @NonNull QueryChangeListener listener) {
         if (listener == null) { throw new IllegalArgumentException("listener cannot be null."); }
-        return getLiveQuery().addChangeListener(executor, listener);
+
+        // The listener may be called with changes from a live query shared with other queries:
+        // make sure that the changes that it sees are changes to this query.
+        final ChangeListenerToken<QueryChange> token
+            = new ChangeListenerToken<>(executor, change -> listener.changed(change.copyForQuery(this)));
+
+        final LiveQuery live;
+        synchronized (lock) {
+            // A live query with no listeners may have been stopped and replaced
+            if (liveQueryTokens.isEmpty()) { liveQuery = null; }
+            live = getLiveQuery();
+            liveQueryTokens.add(token);
+        }
+
+        // https://github.com/couchbase/couchbase-lite-android/issues/1727
+        // Shouldn't call start() method inside the lock to prevent deadlock:
+        live.addChangeListener(token);
+
+        return token;
     }
 
     /**
@@ -203,7 +378,57 @@ abstract class AbstractQuery implements Query {
     @Override
     public void removeChangeListener(@NonNull ListenerToken token) {
         if (token == null) { throw new IllegalArgumentException("token cannot be null."); }
-        getLiveQuery().removeChangeListener(token);
+
+        final LiveQuery live;
+        synchronized (lock) {
+            if (!liveQueryTokens.remove(token)) { return; }
+            live = liveQuery;
+        }
+
+        live.removeChangeListener(token);
+    }
+
+    /**
+     * Returns a copy of the configuration that controls how the query is refreshed
+     * while it has change listeners.
+     *
+     * @return the live query configuration.
+     */
+    @NonNull
+    @Override
+    public LiveQueryConfiguration getLiveQueryConfiguration() {
+        synchronized (lock) { return new LiveQueryConfiguration(liveQueryConfig); }
+    }
+
+    /**
+     * Sets the configuration that controls how the query is refreshed while it has change listeners.
+     * The configuration is copied.  If the query has listeners, it is run again with the new configuration.
+     *
+     * @param config the live query configuration: null for the default configuration.
+     */
+    @Override
+    public void setLiveQueryConfiguration(@Nullable LiveQueryConfiguration config) {
+        final LiveQueryConfiguration newConfig
+            = (config == null) ? new LiveQueryConfiguration() : new LiveQueryConfiguration(config);
+        synchronized (lock) { liveQueryConfig = newConfig; }
+        updateLiveQuery();
+    }
+
+    /**
+     * Returns statistics about the database changes that the query has seen while it had change listeners:
+     * how many there were, how many could not have affected its results and so were skipped,
+     * and how many times it was refreshed.
+     * Identical queries, with the same parameters and configuration, share a single live query:
+     * the statistics are those of the shared live query.
+     *
+     * @return the live query statistics.
+     */
+    @NonNull
+    @Override
+    public LiveQueryStats getLiveQueryStats() {
+        final LiveQuery live;
+        synchronized (lock) { live = liveQuery; }
+        return (live == null) ? new LiveQueryStats(0, 0, 0) : live.getStats();
     }
 
     @NonNull
@@ -231,6 +456,35 @@ abstract class AbstractQuery implements Query {
         return database;
     }
 
+    // The configuration is never modified once it has been set: there is no need to copy it.
+    @NonNull
+    LiveQueryConfiguration getLiveQueryConfig() {
+        synchronized (lock) { return liveQueryConfig; }
+    }
+
+    DataSource getFrom() { return from; }
+
+    boolean hasJoins() { return (joins != null) && (!joins.isEmpty()); }
+
+    Expression getWhere() { return where; }
+
+    // Identical live queries share a single LiveQuery: they must have the same JSON, parameters and configuration.
+    // Returns null if this query cannot share its live query.
+    @Nullable
+    String getLiveQueryKey() throws CouchbaseLiteException {
+        synchronized (lock) {
+            final String params = (parameters == null) ? "{}" : parameters.getKey();
+            return (params == null) ? null : getJson() + "\n" + params + "\n" + liveQueryConfig;
+        }
+    }
+
+    // A copy of this query, for a live query.  Later changes to this query's parameters
+    // or configuration do not affect the copy.
+    @NonNull
+    AbstractQuery snapshot() {
+        synchronized (lock) { return new Snapshot(this); }
+    }
+
     void setSelect(Select select) {
         this.select = select;
     }
@@ -274,31 +528,238 @@ abstract class AbstractQuery implements Query {
         this.limit = query.limit;
 
         this.parameters = query.parameters;
+        this.liveQueryConfig = query.liveQueryConfig;
     }
 
     //---------------------------------------------
     // Private methods
     //---------------------------------------------
-    private void check() throws CouchbaseLiteException {
+    // Call holding the connection's lock.
+    // A query from the connection's query cache may be used only while the lock is held.
+    // If the execution is being profiled, record the time that it takes to compile the query, and its plan.
+    @NonNull
+    private C4Query getC4Query(
+        @NonNull ReaderPool.Connection connection,
+        @Nullable QueryProfiler.Execution profile)
+        throws CouchbaseLiteException {
+        // throws if the connection has been closed
+        final C4Database c4db = connection.getC4Database();
+
+        final QueryCache cache = connection.getQueryCache();
+
         synchronized (lock) {
-            if (c4query != null) { return; }
+            C4Query c4query = (cache != null) ? null : c4queries.get(connection);
+            if (c4query == null) {
+                database = (Database) from.getSource();
+                if (columnNames == null) { columnNames = generateColumnNames(); }
+                c4query = (cache == null) ? null : cache.get(getJson());
+            }
 
-            database = (Database) from.getSource();
-            final String json = encodeAsJson();
-            Log.v(DOMAIN, "Query encoded as %s", json);
-            if (json == null) { throw new CouchbaseLiteException("Failed to generate JSON query."); }
+            if (c4query == null) {
+                final String json = getJson();
+                final long generation = (cache == null) ? 0 : cache.getGeneration();
+                final long start = (profile == null) ? 0 : System.nanoTime();
+                try {
+                    c4query = c4db.createQuery(json);
+                }
+                catch (LiteCoreException e) {
+                    throw CBLStatus.convertException(e);
+                }
+                if (profile != null) { profile.compiled(System.nanoTime() - start); }
 
-            if (columnNames == null) { columnNames = generateColumnNames(); }
+                if (cache != null) { cache.put(json, c4query, generation); }
+                else { c4queries.put(connection, c4query); }
+            }
 
-            try {
-                c4query = database.getC4Database().createQuery(json);
+            if (profile != null) {
+                final String json = getJson();
+                final QueryProfiler profiler = getDatabase().getQueryProfiler();
+                profile.setQuery(json, ((profiler == null) || !profiler.needsPlan(json)) ? null : c4query.explain());
             }
-            catch (LiteCoreException e) {
-                throw CBLStatus.convertException(e);
+
+            return c4query;
+        }
+    }
+
+    // A query that returns the row count, as its only column, or that returns a row only if this query does.
+    // Null if the query cannot be rewritten without changing the number of rows that it returns:
+    // if it has a LIMIT, a GROUP BY, a HAVING, DISTINCT, or a column that might be an aggregate.
+    @Nullable
+    private AbstractQuery getRewrittenQuery(boolean forCount) {
+        synchronized (lock) {
+            if ((select == null) || select.isDistinct() || (groupBy != null) || (having != null) || (limit != null)) {
+                return null;
             }
+            for (SelectResult result : select.getSelectResults()) {
+                final Expression expr = result.selectExpression;
+                if (!((expr instanceof PropertyExpression) || (expr instanceof MetaExpression))) { return null; }
+            }
+
+            AbstractQuery query = forCount ? countQuery : existsQuery;
+            if (query == null) {
+                final AbstractQuery base = new Snapshot(this);
+                base.orderBy = null;
+                if (forCount) {
+                    base.select = new Select(false, SelectResult.expression(Function.count(Expression.intValue(1))));
+                    query = base;
+                    countQuery = query;
+                }
+                else {
+                    base.select = new Select(false, SelectResult.expression(Expression.intValue(1)));
+                    query = new Limit(base, Expression.intValue(1), null);
+                    existsQuery = query;
+                }
+            }
+
+            query.parameters = parameters;
+            return query;
         }
     }
 
+    // Run the query without creating a ResultSet.
+    // Returns the integer value of the first column of the first row or, if valueOfFirstRow is false, the row count.
+    private long runForCount(boolean valueOfFirstRow) throws CouchbaseLiteException {
+        final Parameters params;
+        synchronized (lock) { params = (parameters == null) ? new Parameters() : parameters; }
+
+        try {
+            final AllocSlice encodedParams = params.getEncoded();
+            final ReaderPool.Connection connection = getDatabase().getReader();
+            synchronized (connection.getLock()) {
+                final C4QueryEnumerator c4enum = getC4Query(connection, null).run(new C4QueryOptions(), encodedParams);
+                try {
+                    if (!valueOfFirstRow) { return c4enum.getRowCount(); }
+
+                    final long[] values = new long[1];
+                    final long[] missingColumns = new long[1];
+                    return (c4enum.nextBatch(1, values, missingColumns) <= 0) ? 0 : new FLValue(values[0]).asInt();
+                }
+                finally {
+                    c4enum.close();
+                    c4enum.free();
+                }
+            }
+        }
+        catch (LiteCoreException e) {
+            throw CBLStatus.convertException(e);
+        }
+    }
+
+    // Call holding the connection lock.
+    // If the execution should not continue, free the enumerator, if any, and record the execution.
+    private boolean proceed(
+        @Nullable QueryExecution execution,
+        @Nullable QueryProfiler.Execution profile,
+        @Nullable C4QueryEnumerator c4enum)
+        throws CouchbaseLiteException {
+        if (execution == null) { return true; }
+
+        boolean ok = false;
+        try {
+            ok = execution.proceed(profile);
+            return ok;
+        }
+        finally {
+            if (!ok) {
+                if (c4enum != null) {
+                    c4enum.close();
+                    c4enum.free();
+                }
+                if (profile != null) { profile.finish(); }
+            }
+        }
+    }
+
+    // Run the query once for each parameter set, on a single connection.
+    // The caller may change a parameter set while the batch runs: each set is copied, and the copies
+    // are encoded with this thread's encoder before the connection's lock is taken.
+    // A reader from the pool is locked once, for the whole batch.  The database's own connection,
+    // used when there is no reader pool, is locked only while each query runs, so that a listener
+    // does not block the whole database: the results of executeBatch(List) are only collected,
+    // so that connection, too, is locked once.
+    private void runBatch(
+        @NonNull List<Parameters> parameterSets,
+        @NonNull QueryBatchListener listener,
+        boolean closeResults)
+        throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(parameterSets, "parameterSets");
+        if (parameterSets.isEmpty()) { return; }
+
+        final List<Parameters> parameters = new ArrayList<>(parameterSets.size());
+        try {
+            for (Parameters parameterSet : parameterSets) {
+                final Parameters copy = (parameterSet == null) ? new Parameters() : parameterSet.readonlyCopy();
+                parameters.add(copy);
+                copy.getEncoded();
+            }
+
+            final ReaderPool.Connection connection = getDatabase().getReader();
+            if (closeResults && !connection.isReadOnly()) {
+                runBatch(connection, parameters, listener, true);
+                return;
+            }
+
+            synchronized (connection.getLock()) { runBatch(connection, parameters, listener, closeResults); }
+        }
+        catch (LiteCoreException e) {
+            throw CBLStatus.convertException(e);
+        }
+        finally {
+            for (Parameters copy : parameters) { copy.free(); }
+        }
+    }
+
+    private void runBatch(
+        @NonNull ReaderPool.Connection connection,
+        @NonNull List<Parameters> parameters,
+        @NonNull QueryBatchListener listener,
+        boolean closeResults)
+        throws CouchbaseLiteException, LiteCoreException {
+        final QueryProfiler profiler = getDatabase().getQueryProfiler();
+        final QueryProfiler.Execution firstProfile = (profiler == null) ? null : profiler.start();
+        final C4QueryOptions options = new C4QueryOptions();
+
+        final int n = parameters.size();
+        for (int i = 0; i < n; i++) {
+            final Parameters params = parameters.get(i);
+
+            final QueryProfiler.Execution profile
+                = ((firstProfile == null) || (i == 0)) ? firstProfile : firstProfile.rerun();
+
+            // A no-op if the caller already holds the lock.
+            final ResultSet results;
+            synchronized (connection.getLock()) {
+                // The query is compiled by the first run: later runs find it in the cache.
+                final C4Query c4query = getC4Query(connection, (i == 0) ? profile : null);
+                final long start = (profile == null) ? 0 : System.nanoTime();
+                final C4QueryEnumerator c4enum;
+                try { c4enum = c4query.run(options, params.getEncoded()); }
+                finally { params.free(); }
+                if (profile != null) { profile.ran(System.nanoTime() - start); }
+                results = new ResultSet(this, connection, c4enum, columnNames, profile);
+            }
+
+            if (!closeResults) {
+                listener.results(i, results);
+                continue;
+            }
+
+            try { listener.results(i, results); }
+            finally { results.close(); }
+        }
+    }
+
+    // Call holding the lock.
+    @NonNull
+    private String getJson() throws CouchbaseLiteException {
+        if (json == null) {
+            json = encodeAsJson();
+            Log.v(DOMAIN, "Query encoded as %s", json);
+            if (json == null) { throw new CouchbaseLiteException("Failed to generate JSON query."); }
+        }
+        return json;
+    }
+
     private Map<String, Integer> generateColumnNames() throws CouchbaseLiteException {
         final Map<String, Integer> map = new HashMap<>();
         int index = 0;
@@ -322,14 +783,61 @@ abstract class AbstractQuery implements Query {
         return map;
     }
 
+    // Write the query straight to JSON, without building it as a tree of Maps and Lists.
+    // asJson, which builds the tree, is used only to describe the query.
     private String encodeAsJson() {
+        final JsonWriter writer = new JsonWriter();
         try {
-            return JsonUtils.toJson(asJson()).toString();
+            writer.beginObject();
+
+            // DISTINCT:
+            if (select != null && select.isDistinct()) { writer.key("DISTINCT").value(true); }
+
+            // result-columns / SELECT-RESULTS
+            if (select != null && select.hasSelectResults()) {
+                writer.key("WHAT");
+                select.writeJSON(writer);
+            }
+
+            // JOIN:
+            final boolean hasAlias = from.getAlias() != null;
+            if (hasAlias || ((joins != null) && !joins.isEmpty())) {
+                writer.key("FROM").beginArray();
+                if (hasAlias) {
+                    writer.beginObject();
+                    from.writeJSONMembers(writer);
+                    writer.endObject();
+                }
+                if (joins != null) { joins.writeJSONElements(writer); }
+                writer.endArray();
+            }
+
+            if (where != null) {
+                writer.key("WHERE");
+                where.writeJSON(writer);
+            }
+
+            if (groupBy != null) {
+                writer.key("GROUP_BY");
+                groupBy.writeJSON(writer);
+            }
+
+            if (having != null) { having.writeJSONMembers(writer); }
+
+            if (orderBy != null) {
+                writer.key("ORDER_BY");
+                orderBy.writeJSON(writer);
+            }
+
+            if (limit != null) { limit.writeJSONMembers(writer); }
+
+            writer.endObject();
         }
-        catch (JSONException e) {
+        catch (IllegalArgumentException e) {
             Log.w(DOMAIN, "Error when encoding the query as a json string", e);
+            return null;
         }
-        return null;
+        return writer.toString();
     }
 
     @SuppressWarnings("unchecked")
@@ -370,21 +878,65 @@ abstract class AbstractQuery implements Query {
         return json;
     }
 
+    // Call holding the lock.
+    @NonNull
     private LiveQuery getLiveQuery() {
+        if (liveQuery == null) {
+            try { liveQuery = getDatabase().getLiveQuery(this); }
+            catch (CouchbaseLiteException e) {
+                // The query cannot be encoded: the live query will report the error when it runs it.
+                liveQuery = new LiveQuery(snapshot(), null);
+            }
+        }
+        return liveQuery;
+    }
+
+    // The query's parameters or configuration have changed: move its listeners to the live query
+    // for its new key.  If the live query is the same one, just run the query again.
+    private void updateLiveQuery() {
+        final LiveQuery oldLive;
+        final LiveQuery newLive;
+        final List<ChangeListenerToken<QueryChange>> tokens;
         synchronized (lock) {
-            if (liveQuery == null) { liveQuery = new LiveQuery(this); }
-            return liveQuery;
+            if (liveQueryTokens.isEmpty()) {
+                liveQuery = null;
+                return;
+            }
+
+            oldLive = liveQuery;
+            liveQuery = null;
+            newLive = getLiveQuery();
+            tokens = new ArrayList<>(liveQueryTokens);
+        }
+
+        // https://github.com/couchbase/couchbase-lite-android/issues/1727
+        // Shouldn't call start() method inside the lock to prevent deadlock:
+        if (newLive == oldLive) {
+            newLive.start(true);
+            return;
+        }
+
+        for (ChangeListenerToken<QueryChange> token : tokens) {
+            newLive.addChangeListener(token);
+            oldLive.removeChangeListener(token);
         }
     }
 
     private void free() {
+        final Map<ReaderPool.Connection, C4Query> queries;
         synchronized (lock) {
-            if (c4query != null && getDatabase() != null) {
-                synchronized (getDatabase().getLock()) {
-                    c4query.free();
-                }
-                c4query = null;
-            }
+            queries = new HashMap<>(c4queries);
+            c4queries.clear();
+        }
+
+        // Free each query holding its connection's lock, but not the query lock:
+        // getC4Query acquires them in the opposite order.
+        for (Map.Entry<ReaderPool.Connection, C4Query> query : queries.entrySet()) {
+            synchronized (query.getKey().getLock()) { query.getValue().free(); }
         }
     }
+
+    private static final class Snapshot extends AbstractQuery {
+        Snapshot(@NonNull AbstractQuery query) { copy(query); }
+    }
 }
@@ -304,6 +304,10 @@ public abstract class AbstractReplicator extends NetworkReachabilityListener {
     @GuardedBy("lock")
     private C4Replicator c4Replicator;
 
+    // True if start has been called, but the replicator is waiting for an index build to complete.
+    @GuardedBy("lock")
+    private boolean startDeferred;
+
     private Status status = new Status(ActivityLevel.IDLE, new Progress(0, 0), null);
     private C4ReplicatorStatus c4ReplStatus;
     private C4ReplicatorListener c4ReplListener;
@@ -334,9 +338,18 @@ public abstract class AbstractReplicator extends NetworkReachabilityListener {
     /**
      * Starts the replicator. This method returns immediately; the replicator runs asynchronously
      * and will report its progress through the replicator change notification.
+     * If an index is being built in the background, the replicator starts when the build is complete.
      */
     public void start() {
+        // The replicator's writes would fail with BUSY while an index is being built.
+        synchronized (lock) { startDeferred = true; }
+        if (config.getDatabase().runAfterIndexBuilds(this::startDeferred)) {
+            Log.i(DOMAIN, "%s: Waiting for index builds to complete before starting", this);
+            return;
+        }
+
         synchronized (lock) {
+            startDeferred = false;
             Log.i(DOMAIN, "Replicator is starting .....");
             if (c4Replicator != null) {
                 Log.i(DOMAIN, "%s has already started", this);
@@ -363,6 +376,8 @@ public abstract class AbstractReplicator extends NetworkReachabilityListener {
         synchronized (lock) {
             Log.i(DOMAIN, "%s: Replicator is stopping ...", this);
 
+            startDeferred = false;
+
             // this is async; status will change when repl actually stops
             if (c4Replicator != null) { c4Replicator.stop(); }
             else { Log.i(DOMAIN, "%s: Replicator already stopped or offline.", this); }
@@ -869,6 +884,12 @@ public abstract class AbstractReplicator extends NetworkReachabilityListener {
         return repl;
     }
 
+    // Start a replicator that was waiting for index builds, unless it has been stopped.
+    private void startDeferred() {
+        synchronized (lock) { if (!startDeferred) { return; } }
+        start();
+    }
+
     /**
      * Create and start the c4Replicator
      * Must be called holding lock
@@ -356,7 +356,7 @@ public class Array implements ArrayInterface, FLEncodable, Iterable<Object> {
         final MContext context = internalArray.getContext();
         return ((context == null) || (context == MContext.NULL))
             ? new Object()
-            : ((DocContext) context).getDatabase().getLock();
+            : ((DocContext) context).getLock();
     }
 
     @NonNull
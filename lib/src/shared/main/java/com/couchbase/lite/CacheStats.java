@@ -0,0 +1,62 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * A snapshot of the statistics for one of a database's caches.
+ */
+public final class CacheStats {
+    private final long hits;
+    private final long misses;
+    private final int size;
+    private final int capacity;
+
+    CacheStats(long hits, long misses, int size, int capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of lookups that found their item in the cache
+     */
+    public long getHits() { return hits; }
+
+    /**
+     * Returns the number of lookups that did not find their item in the cache
+     */
+    public long getMisses() { return misses; }
+
+    /**
+     * Returns the number of items in the cache
+     */
+    public int getSize() { return size; }
+
+    /**
+     * Returns the maximum number of items in the cache
+     */
+    public int getCapacity() { return capacity; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hits + ", misses=" + misses + ", size=" + size + "/" + capacity + "}";
+    }
+}
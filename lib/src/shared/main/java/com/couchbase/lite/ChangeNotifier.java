@@ -46,6 +46,12 @@ class ChangeNotifier<T> {
         }
     }
 
+    // Add a token that was created elsewhere: a token may be moved from one notifier to another.
+    void addChangeListener(@NonNull ChangeListenerToken<T> token) {
+        Preconditions.checkArgNotNull(token, "token");
+        synchronized (lock) { listenerTokens.add(token); }
+    }
+
     @SuppressWarnings("SuspiciousMethodCalls")
     int removeChangeListener(@NonNull ListenerToken token) {
         Preconditions.checkArgNotNull(token, "token");
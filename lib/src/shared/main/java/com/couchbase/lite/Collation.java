@@ -22,6 +22,8 @@ import android.support.annotation.NonNull;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * Collation defines how strings are compared and is used when creating a COLLATE expression.
@@ -167,4 +169,13 @@ public class Collation {
         json.put("DIAC", !ignoreAccents);
         return json;
     }
+
+    void writeJSON(@NonNull JsonWriter writer) {
+        writer.beginObject()
+            .key("UNICODE").value(isUnicode)
+            .key("LOCALE").value(locale)
+            .key("CASE").value(!ignoreCase)
+            .key("DIAC").value(!ignoreAccents)
+            .endObject();
+    }
 }
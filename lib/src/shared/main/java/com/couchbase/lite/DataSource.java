@@ -22,6 +22,8 @@ import android.support.annotation.NonNull;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * A query data source, used for specifying the source of data for a query.
@@ -106,4 +108,9 @@ public class DataSource {
         if (alias != null) { json.put("AS", alias); }
         return json;
     }
+
+    // Write the data source's members into the object that is being written.
+    void writeJSONMembers(@NonNull JsonWriter writer) {
+        if (alias != null) { writer.key("AS").value(alias); }
+    }
 }
@@ -18,6 +18,7 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.util.Collections;
 import java.util.List;
@@ -28,11 +29,15 @@ import java.util.List;
  */
 public final class DatabaseChange {
     private final List<String> documentIDs;
+    private final List<Long> sequences;
     private final Database database;
 
-    DatabaseChange(Database database, List<String> documentIDs) {
+    DatabaseChange(Database database, List<String> documentIDs) { this(database, documentIDs, null); }
+
+    DatabaseChange(Database database, List<String> documentIDs, List<Long> sequences) {
         this.database = database;
         this.documentIDs = Collections.unmodifiableList(documentIDs);
+        this.sequences = (sequences == null) ? null : Collections.unmodifiableList(sequences);
     }
 
     /**
@@ -49,6 +54,10 @@ public final class DatabaseChange {
     @NonNull
     public List<String> getDocumentIDs() { return documentIDs; }
 
+    // The sequence of each change, in the same order as the document IDs: null if unknown.
+    @Nullable
+    List<Long> getSequences() { return sequences; }
+
     @Override
     public String toString() {
         return "DatabaseChange{" + "database=" + database + ", documentIDs=" + documentIDs + '}';
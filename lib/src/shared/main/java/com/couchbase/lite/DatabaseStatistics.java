@@ -0,0 +1,110 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * A snapshot of a database's size and storage use.
+ * The tombstone count and the average body size are available only if the documents were scanned:
+ * otherwise they are -1.
+ */
+public final class DatabaseStatistics {
+    private final long documentCount;
+    private final long lastSequence;
+    private final long fileSize;
+    private final long walSize;
+    private final long blobCount;
+    private final long blobBytes;
+    private final long tombstoneCount;
+    private final long averageBodySize;
+
+    DatabaseStatistics(
+        long documentCount,
+        long lastSequence,
+        long fileSize,
+        long walSize,
+        long blobCount,
+        long blobBytes,
+        long tombstoneCount,
+        long averageBodySize) {
+        this.documentCount = documentCount;
+        this.lastSequence = lastSequence;
+        this.fileSize = fileSize;
+        this.walSize = walSize;
+        this.blobCount = blobCount;
+        this.blobBytes = blobBytes;
+        this.tombstoneCount = tombstoneCount;
+        this.averageBodySize = averageBodySize;
+    }
+
+    /**
+     * Returns the number of documents in the database, not including deleted documents
+     */
+    public long getDocumentCount() { return documentCount; }
+
+    /**
+     * Returns the database's last sequence number
+     */
+    public long getLastSequence() { return lastSequence; }
+
+    /**
+     * Returns the size, in bytes, of the main database file
+     */
+    public long getFileSize() { return fileSize; }
+
+    /**
+     * Returns the size, in bytes, of the database's write-ahead log
+     */
+    public long getWalSize() { return walSize; }
+
+    /**
+     * Returns the number of blobs in the database's blob store, or -1 if the blob store could not be scanned
+     */
+    public long getBlobCount() { return blobCount; }
+
+    /**
+     * Returns the total size, in bytes, of the blobs in the database's blob store,
+     * or -1 if the blob store could not be scanned
+     */
+    public long getBlobBytes() { return blobBytes; }
+
+    /**
+     * Returns the number of deleted documents, or -1 if the documents were not scanned
+     */
+    public long getTombstoneCount() { return tombstoneCount; }
+
+    /**
+     * Returns the average size, in bytes, of the current revision's body for the documents
+     * that are not deleted, or -1 if the documents were not scanned
+     */
+    public long getAverageBodySize() { return averageBodySize; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DatabaseStatistics{" +
+            "docs=" + documentCount +
+            ", seq=" + lastSequence +
+            ", file=" + fileSize +
+            ", wal=" + walSize +
+            ", blobs=" + blobCount + "/" + blobBytes +
+            ", tombstones=" + tombstoneCount +
+            ", avgBody=" + averageBodySize +
+            '}';
+    }
+}
@@ -403,7 +403,7 @@ public class Dictionary implements DictionaryInterface, FLEncodable, Iterable<St
         final MContext context = internalDict.getContext();
         return ((context == null) || (context == MContext.NULL))
             ? new Object()
-            : ((DocContext) context).getDatabase().getLock();
+            : ((DocContext) context).getLock();
     }
 
     // hashCode for pair of key and value
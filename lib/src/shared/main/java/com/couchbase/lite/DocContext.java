@@ -28,11 +28,14 @@ import com.couchbase.lite.internal.fleece.MContext;
 class DocContext extends MContext {
     private final Database db;
     private final C4Document doc;
+    private final Object lock;
 
-    DocContext(Database db, C4Document doc) {
+    // The lock is the lock for the connection from which the Fleece data was read.
+    DocContext(Database db, C4Document doc, Object lock) {
         super(null);
         this.db = db;
         this.doc = doc;
+        this.lock = lock;
         if (this.doc != null) { this.doc.retain(); }
     }
 
@@ -40,6 +43,10 @@ class DocContext extends MContext {
         return db;
     }
 
+    Object getLock() {
+        return lock;
+    }
+
     @SuppressWarnings("NoFinalizer")
     @Override
     protected void finalize() throws Throwable {
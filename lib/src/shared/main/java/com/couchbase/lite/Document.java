@@ -31,6 +31,7 @@ import com.couchbase.lite.internal.core.C4Constants;
 import com.couchbase.lite.internal.core.C4Database;
 import com.couchbase.lite.internal.core.C4Document;
 import com.couchbase.lite.internal.fleece.FLDict;
+import com.couchbase.lite.internal.fleece.FLEncodable;
 import com.couchbase.lite.internal.fleece.FLEncoder;
 import com.couchbase.lite.internal.fleece.FLSliceResult;
 import com.couchbase.lite.internal.fleece.MRoot;
@@ -42,6 +43,25 @@ import com.couchbase.lite.internal.utils.Preconditions;
  * Readonly version of the Document.
  */
 public class Document implements DictionaryInterface, Iterable<String> {
+    // The c4doc and connection that a save replaces: if the transaction in which the document
+    // was saved is rolled back, the document must not be left holding a revision that does not exist.
+    static final class Snapshot {
+        @Nullable
+        private final C4Document c4doc;
+        @Nullable
+        private final ReaderPool.Connection connection;
+
+        // The c4doc must have been retained.
+        Snapshot(@Nullable C4Document c4doc, @Nullable ReaderPool.Connection connection) {
+            this.c4doc = c4doc;
+            this.connection = connection;
+        }
+
+        void release() {
+            if (c4doc != null) { c4doc.release(); }
+        }
+    }
+
     // !!! This code is from v1.x. Replace with c4rev_getGeneration().
     private static long generationFromRevID(String revID) {
         long generation = 0;
@@ -77,6 +97,11 @@ public class Document implements DictionaryInterface, Iterable<String> {
     @Nullable
     private Database database;
 
+    // The connection through which c4doc was read: null if it is the database's main connection.
+    @GuardedBy("lock")
+    @Nullable
+    private ReaderPool.Connection connection;
+
     @Nullable
     private FLDict data;
     @Nullable
@@ -94,8 +119,17 @@ public class Document implements DictionaryInterface, Iterable<String> {
     //---------------------------------------------
 
     protected Document(@Nullable Database database, @NonNull String id, @Nullable C4Document c4doc) {
+        this(database, id, c4doc, null);
+    }
+
+    Document(
+        @Nullable Database database,
+        @NonNull String id,
+        @Nullable C4Document c4doc,
+        @Nullable ReaderPool.Connection connection) {
         this.database = database;
         this.id = id;
+        this.connection = connection;
         setC4Document(c4doc);
     }
 
@@ -107,12 +141,22 @@ public class Document implements DictionaryInterface, Iterable<String> {
     }
 
     Document(@NonNull Database database, @NonNull String id, boolean includeDeleted) throws CouchbaseLiteException {
-        this(database, id, null);
+        this(database, id, null, includeDeleted);
+    }
+
+    // Call holding the connection's lock.
+    Document(
+        @NonNull Database database,
+        @NonNull String id,
+        @Nullable ReaderPool.Connection connection,
+        boolean includeDeleted)
+        throws CouchbaseLiteException {
+        this(database, id, null, connection);
         Preconditions.checkArgNotNull(database, "database");
 
         final C4Document doc;
         try {
-            final C4Database c4db = database.getC4Database();
+            final C4Database c4db = (connection == null) ? database.getC4Database() : connection.getC4Database();
             if (c4db == null) { throw new IllegalStateException(Log.lookupStandardMessage("DBClosed")); }
             doc = c4db.get(getId(), true);
         }
@@ -182,6 +226,36 @@ public class Document implements DictionaryInterface, Iterable<String> {
         return new MutableDocument(this);
     }
 
+    /**
+     * Return the document's properties as an object of the given class.
+     * The class must have a no-argument constructor: each of its fields that is neither static
+     * nor transient is set from the property with the same name.  Properties are read directly
+     * from the stored document, without converting the document to a Map.
+     *
+     * @param type the class of the object
+     * @param <T>  the type of the object
+     * @return the object
+     * @throws IllegalArgumentException if a property cannot be converted to its field's type
+     */
+    @NonNull
+    public <T> T toObject(@NonNull Class<T> type) {
+        Preconditions.checkArgNotNull(type, "type");
+        final ObjectMapper<T> mapper = ObjectMapper.forClass(type);
+
+        // A mutable document's properties may have changed since it was read.
+        if (isMutable()) { return mapper.fromDictionary(internalDict); }
+
+        final FLDict body;
+        final Object connectionLock;
+        synchronized (lock) {
+            body = data;
+            if (body == null) { return mapper.fromDictionary(internalDict); }
+            connectionLock = (connection == null) ? database.getLock() : connection.getLock();
+        }
+
+        synchronized (connectionLock) { return mapper.fromFleece(body, database); }
+    }
+
     /**
      * Gets a number of the entries in the dictionary.
      *
@@ -440,10 +514,22 @@ public class Document implements DictionaryInterface, Iterable<String> {
     // TODO: c4rev_getGeneration
     long generation() { return generationFromRevID(getRevisionID()); }
 
-    final boolean isEmpty() { return internalDict.isEmpty(); }
+    boolean isEmpty() { return internalDict.isEmpty(); }
 
     final boolean isNewDocument() { return getRevisionID() == null; }
 
+    // A new read-only instance that shares (and retains) this document's c4doc.
+    @NonNull
+    final Document copy() {
+        final C4Document doc;
+        final ReaderPool.Connection conn;
+        synchronized (lock) {
+            doc = c4doc;
+            conn = connection;
+        }
+        return new Document(database, id, doc, conn);
+    }
+
     /**
      * Return whether the document exists in the database.
      *
@@ -472,6 +558,10 @@ public class Document implements DictionaryInterface, Iterable<String> {
     @NonNull
     final Dictionary getContent() { return internalDict; }
 
+    // The content that is encoded when the document is saved.
+    @NonNull
+    FLEncodable getEncodable() { return internalDict; }
+
     final void setContent(@NonNull Dictionary content) { internalDict = content; }
 
     // This seems pretty worrisome: we are returning a reference to the thing that lock protects.
@@ -480,8 +570,35 @@ public class Document implements DictionaryInterface, Iterable<String> {
         synchronized (lock) { return c4doc; }
     }
 
+    @Nullable
+    final ReaderPool.Connection getConnection() {
+        synchronized (lock) { return connection; }
+    }
+
+    // The replacement c4doc is always from the database's main connection
     final void replaceC4Document(@Nullable C4Document c4doc) {
-        synchronized (lock) { updateC4DocumentLocked(c4doc); }
+        synchronized (lock) {
+            updateC4DocumentLocked(c4doc);
+            connection = null;
+        }
+    }
+
+    // Call before a save that may be rolled back.  The snapshot must be released or restored.
+    @NonNull
+    final Snapshot snapshot() {
+        synchronized (lock) {
+            if (c4doc != null) { c4doc.retain(); }
+            return new Snapshot(c4doc, connection);
+        }
+    }
+
+    // Undo a save that was rolled back: this releases the c4doc the save installed.
+    final void restore(@NonNull Snapshot snapshot) {
+        synchronized (lock) {
+            updateC4DocumentLocked(snapshot.c4doc);
+            connection = snapshot.connection;
+        }
+        snapshot.release();
     }
 
     final boolean selectConflictingRevision() throws LiteCoreException {
@@ -507,10 +624,15 @@ public class Document implements DictionaryInterface, Iterable<String> {
 
     @NonNull
     final FLSliceResult encode() throws LiteCoreException {
-        final FLEncoder encoder = getDatabase().getC4Database().getSharedFleeceEncoder();
+        return encode(getDatabase().getC4Database().getSharedFleeceEncoder());
+    }
+
+    // The encoder is reset, when encoding is complete.
+    @NonNull
+    final FLSliceResult encode(@NonNull FLEncoder encoder) throws LiteCoreException {
         try {
             encoder.setExtraInfo(this);
-            internalDict.encodeTo(encoder);
+            getEncodable().encodeTo(encoder);
             return encoder.finish2();
         }
         finally {
@@ -553,10 +675,12 @@ public class Document implements DictionaryInterface, Iterable<String> {
             return;
         }
 
-        root = new MRoot(new DocContext(database, c4doc), data.toFLValue(), isMutable());
+        final Object connectionLock = (connection == null) ? database.getLock() : connection.getLock();
+
+        root = new MRoot(new DocContext(database, c4doc, connectionLock), data.toFLValue(), isMutable());
 
         final Dictionary dict;
-        synchronized (database.getLock()) { dict = (Dictionary) root.asNative(); }
+        synchronized (connectionLock) { dict = (Dictionary) root.asNative(); }
 
         internalDict = dict;
     }
@@ -0,0 +1,138 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * An LRU cache of read-only Documents, by document ID.
+ * <p>
+ * Writes through the database invalidate a document's entry twice: when the document is written,
+ * and again when the transaction that wrote it ends.  A reader takes a stamp before it reads a document
+ * from the database and the document is cached only if there has been no invalidation since the stamp
+ * was taken: this prevents a reader from caching a revision that was superseded while it was reading it.
+ * Changes made outside this database instance (by replication, or by another instance open on the
+ * same file) invalidate entries when the database observer reports them.
+ */
+final class DocumentCache {
+    private static final class CachedDoc {
+        @NonNull
+        final Document doc;
+        final long sequence;
+
+        CachedDoc(@NonNull Document doc, long sequence) {
+            this.doc = doc;
+            this.sequence = sequence;
+        }
+    }
+
+    private final int capacity;
+
+    @GuardedBy("this")
+    @NonNull
+    private final Map<String, CachedDoc> entries;
+
+    // IDs of documents written in the current transaction
+    @GuardedBy("this")
+    @NonNull
+    private final Set<String> uncommitted = new HashSet<>();
+
+    @GuardedBy("this")
+    private long stamp;
+    @GuardedBy("this")
+    private long hits;
+    @GuardedBy("this")
+    private long misses;
+
+    DocumentCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, CachedDoc>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedDoc> eldest) {
+                return size() > DocumentCache.this.capacity;
+            }
+        };
+    }
+
+    // Each caller gets its own instance of the cached document: a caller may delete or purge
+    // the instance it was given, and that must not change the document for anyone else.
+    @Nullable
+    Document get(@NonNull String id) {
+        final Document doc = lookup(id);
+        return (doc == null) ? null : doc.copy();
+    }
+
+    synchronized long getStamp() { return stamp; }
+
+    // The document must have been read after the stamp was taken.
+    void put(@NonNull Document doc, long readStamp) {
+        final Document copy = doc.copy();
+        synchronized (this) {
+            if (readStamp != stamp) { return; }
+            entries.put(copy.getId(), new CachedDoc(copy, copy.getSequence()));
+        }
+    }
+
+    @Nullable
+    private synchronized Document lookup(@NonNull String id) {
+        final CachedDoc entry = entries.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.doc;
+    }
+
+    // A document has been written, in the current transaction.
+    synchronized void invalidate(@NonNull String id) {
+        stamp++;
+        entries.remove(id);
+        uncommitted.add(id);
+    }
+
+    // The current transaction has ended.
+    synchronized void endTransaction() {
+        if (uncommitted.isEmpty()) { return; }
+        stamp++;
+        for (String id : uncommitted) { entries.remove(id); }
+        uncommitted.clear();
+    }
+
+    // The database observer reports a change.
+    synchronized void invalidate(@NonNull String id, long sequence) {
+        stamp++;
+        final CachedDoc entry = entries.get(id);
+        if ((entry != null) && (entry.sequence < sequence)) { entries.remove(id); }
+    }
+
+    synchronized void clear() {
+        stamp++;
+        entries.clear();
+    }
+
+    @NonNull
+    synchronized CacheStats getStats() { return new CacheStats(hits, misses, entries.size(), capacity); }
+}
@@ -0,0 +1,103 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.couchbase.lite.internal.core.C4Constants;
+import com.couchbase.lite.internal.fleece.FLEncoder;
+import com.couchbase.lite.internal.fleece.FLSliceResult;
+import com.couchbase.lite.internal.fleece.FLValue;
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * Encodes document bodies before the database lock is acquired,
+ * so that the lock is held only while the encoded body is written.
+ * <p>
+ * Each thread has its own encoder.  The encoders do not use the database's shared keys: the writer
+ * adds keys to them, and removes keys from them when a transaction is rolled back, holding the lock,
+ * and they are not safe to change while another thread encodes with them.  An encoder without shared
+ * keys never adds keys: it uses the database's keys only to decode the keys of properties that it copies
+ * from a saved revision, and the keys of a committed revision are never removed.  Under the lock, the encoded body is copied
+ * into the database's shared keys.  The copy is done by Fleece, without visiting the document's objects,
+ * and is much quicker than encoding the document.
+ */
+final class DocumentEncoder {
+    private static final LogDomain DOMAIN = LogDomain.DATABASE;
+
+    /**
+     * A document body encoded outside the database lock.
+     */
+    static final class EncodedBody {
+        @NonNull
+        private final FLSliceResult body;
+
+        EncodedBody(@NonNull FLSliceResult body) { this.body = body; }
+
+        void free() { body.free(); }
+    }
+
+    // An encoder for a single thread.  It is freed when the thread is gone.
+    private static final class ThreadEncoder {
+        @NonNull
+        final FLEncoder encoder = new FLEncoder();
+
+        @SuppressWarnings("NoFinalizer")
+        @Override
+        protected void finalize() throws Throwable {
+            encoder.free();
+            super.finalize();
+        }
+    }
+
+    private static final ThreadLocal<ThreadEncoder> ENCODERS = new ThreadLocal<ThreadEncoder>() {
+        @Override
+        protected ThreadEncoder initialValue() { return new ThreadEncoder(); }
+    };
+
+    // Returns null if the document could not be encoded: the caller should encode it, under the lock.
+    @Nullable
+    EncodedBody encode(@NonNull Document document) {
+        try { return new EncodedBody(document.encode(ENCODERS.get().encoder)); }
+        catch (LiteCoreException e) {
+            Log.v(DOMAIN, "Failed encoding document outside the lock", e);
+            return null;
+        }
+    }
+
+    // Call holding the database lock.
+    // Copy a body encoded outside the lock, using the encoder's shared keys: the database's.
+    @NonNull
+    FLSliceResult toSharedKeys(@NonNull EncodedBody body, @NonNull FLEncoder encoder) throws LiteCoreException {
+        final FLValue value = FLValue.fromData(body.body);
+        if (value == null) {
+            throw new LiteCoreException(
+                C4Constants.ErrorDomain.LITE_CORE,
+                C4Constants.LiteCoreError.CORRUPT_DATA,
+                "Invalid encoded document body");
+        }
+
+        try {
+            encoder.writeValue(value);
+            return encoder.finish2();
+        }
+        finally {
+            encoder.reset();
+        }
+    }
+}
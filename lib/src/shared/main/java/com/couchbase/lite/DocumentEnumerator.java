@@ -0,0 +1,162 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.couchbase.lite.internal.CBLStatus;
+import com.couchbase.lite.internal.core.C4Database;
+import com.couchbase.lite.internal.core.C4DocEnumerator;
+import com.couchbase.lite.utils.Fn;
+
+
+/**
+ * A lazy iterator over the documents in a database.
+ * Documents are read from the database a few at a time, as they are needed,
+ * so memory use does not depend on the size of the database.
+ * The enumerator holds native resources until it has been iterated to its end or it is closed:
+ * be sure to close an enumerator that is abandoned before its end.
+ * An enumerator is not thread safe.
+ *
+ * @param <T> the type of the enumerated items
+ */
+public final class DocumentEnumerator<T> implements Iterator<T>, AutoCloseable {
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Reads an item from the current document of a C4DocEnumerator.
+     * Returns null if the document should be skipped.
+     */
+    interface ItemReader<T> {
+        @Nullable
+        T read(@NonNull ReaderPool.Connection connection, @NonNull C4DocEnumerator c4enum) throws LiteCoreException;
+    }
+
+    @NonNull
+    private final ReaderPool.Connection connection;
+    @NonNull
+    private final ItemReader<T> reader;
+
+    @NonNull
+    private final Deque<T> buffer = new ArrayDeque<>();
+
+    @GuardedBy("connection.getLock()")
+    @Nullable
+    private C4DocEnumerator c4enum;
+
+    // Call holding the connection's lock.
+    DocumentEnumerator(
+        @NonNull ReaderPool.Connection connection,
+        @NonNull Fn.FunctionThrows<C4Database, C4DocEnumerator, LiteCoreException> enumerator,
+        @NonNull ItemReader<T> reader)
+        throws CouchbaseLiteException {
+        this.connection = connection;
+        this.reader = reader;
+        try { c4enum = enumerator.apply(connection.getC4Database()); }
+        catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
+    }
+
+    /**
+     * Returns true if there are more items.
+     *
+     * @return true if there are more items.
+     * @throws IllegalStateException if reading from the database fails, for instance, because it has been closed.
+     */
+    @Override
+    public boolean hasNext() {
+        if (buffer.isEmpty()) { fill(); }
+        return !buffer.isEmpty();
+    }
+
+    /**
+     * Returns the next item.
+     *
+     * @return the next item.
+     * @throws NoSuchElementException if there are no more items.
+     * @throws IllegalStateException  if reading from the database fails, for instance, because it has been closed.
+     */
+    @NonNull
+    @Override
+    public T next() {
+        if (!hasNext()) { throw new NoSuchElementException(); }
+        return buffer.removeFirst();
+    }
+
+    /**
+     * Releases the enumerator's native resources.  It is safe to call this method more than once.
+     */
+    @Override
+    public void close() {
+        buffer.clear();
+        synchronized (connection.getLock()) { free(); }
+    }
+
+    //---------------------------------------------
+    // Protected level access
+    //---------------------------------------------
+
+    @SuppressWarnings("NoFinalizer")
+    @Override
+    protected void finalize() throws Throwable {
+        free();
+        super.finalize();
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    // Read the next batch of items, holding the connection's lock only once per batch.
+    private void fill() {
+        synchronized (connection.getLock()) {
+            if (c4enum == null) { return; }
+
+            // throws if the database has been closed
+            connection.getC4Database();
+
+            try {
+                while (buffer.size() < BATCH_SIZE) {
+                    if (!c4enum.next()) {
+                        free();
+                        return;
+                    }
+
+                    final T item = reader.read(connection, c4enum);
+                    if (item != null) { buffer.addLast(item); }
+                }
+            }
+            catch (LiteCoreException e) {
+                free();
+                throw new IllegalStateException("Document enumeration failed", CBLStatus.convertException(e));
+            }
+        }
+    }
+
+    private void free() {
+        final C4DocEnumerator e = c4enum;
+        c4enum = null;
+        if (e == null) { return; }
+        e.close();
+        e.free();
+    }
+}
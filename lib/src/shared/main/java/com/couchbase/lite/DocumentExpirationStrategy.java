@@ -82,7 +82,14 @@ class DocumentExpirationStrategy {
 
         if (!db.isOpen()) { return; }
 
+        // An index being built in the background holds the write lock: try again later.
+        if (db.isBuildingIndexes()) {
+            schedulePurge(expirationInterval);
+            return;
+        }
+
         final int purged = db.getC4Database().purgeExpiredDocs();
+        if (purged > 0) { db.invalidateDocumentCache(); }
         Log.v(LogDomain.DATABASE, "Purged %d expired documents", purged);
 
         schedulePurge(expirationInterval);
@@ -0,0 +1,67 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * The metadata for the current revision of a document: everything but its properties.
+ */
+public final class DocumentMetadata {
+    @NonNull
+    private final String id;
+    @NonNull
+    private final String revisionID;
+    private final long sequence;
+    private final boolean deleted;
+
+    DocumentMetadata(@NonNull String id, @NonNull String revisionID, long sequence, boolean deleted) {
+        this.id = id;
+        this.revisionID = revisionID;
+        this.sequence = sequence;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Returns the document ID
+     */
+    @NonNull
+    public String getId() { return id; }
+
+    /**
+     * Returns the ID of the document's current revision
+     */
+    @NonNull
+    public String getRevisionID() { return revisionID; }
+
+    /**
+     * Returns the sequence number of the document's current revision.
+     * Every change to the database is assigned the next sequence number.
+     */
+    public long getSequence() { return sequence; }
+
+    /**
+     * Returns true if the document's current revision is a deletion
+     */
+    public boolean isDeleted() { return deleted; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DocumentMetadata{" + id + "@" + revisionID + ", seq=" + sequence + (deleted ? ", deleted" : "") + "}";
+    }
+}
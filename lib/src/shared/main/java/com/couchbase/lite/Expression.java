@@ -31,6 +31,7 @@ import java.util.Map;
 
 import com.couchbase.lite.internal.support.Log;
 import com.couchbase.lite.internal.utils.DateUtils;
+import com.couchbase.lite.internal.utils.JsonWriter;
 import com.couchbase.lite.internal.utils.Preconditions;
 
 
@@ -50,10 +51,16 @@ public abstract class Expression {
             this.value = value;
         }
 
+        @Nullable
+        Object getValue() { return value; }
+
         @Nullable
         @Override
         Object asJSON() { return asJSON(value); }
 
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) { writeJSON(writer, value); }
+
         @Nullable
         @SuppressWarnings("unchecked")
         private Object asJSON(@Nullable Object value) {
@@ -84,6 +91,29 @@ public abstract class Expression {
             return json;
         }
 
+        @SuppressWarnings("unchecked")
+        private void writeJSON(@NonNull JsonWriter writer, @Nullable Object value) {
+            if (value instanceof Date) { writer.value(DateUtils.toJson((Date) value)); }
+            else if (value instanceof Map) {
+                writer.beginObject();
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                    writer.key(entry.getKey());
+                    writeJSON(writer, entry.getValue());
+                }
+                writer.endObject();
+            }
+            else if (value instanceof List) {
+                writer.beginArray().value("[]"); // Array Operation
+                for (Object obj : (List<Object>) value) { writeJSON(writer, obj); }
+                writer.endArray();
+            }
+            else if (value instanceof Expression) { ((Expression) value).writeJSON(writer); }
+            else {
+                verifySupportedType(value);
+                writer.value(value);
+            }
+        }
+
         private void verifySupportedType(@Nullable Object value) {
             if (value == null
                 || value instanceof String
@@ -121,6 +151,13 @@ public abstract class Expression {
             for (Expression expr : expressions) { json.add(expr.asJSON()); }
             return json;
         }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            writer.beginArray().value("[]");
+            for (Expression expr : expressions) { expr.writeJSON(writer); }
+            writer.endArray();
+        }
     }
 
     static final class BinaryExpression extends Expression {
@@ -157,76 +194,93 @@ public abstract class Expression {
             this.type = type;
         }
 
+        @NonNull
+        Expression getLhs() { return lhs; }
+
+        @NonNull
+        Expression getRhs() { return rhs; }
+
+        boolean isEqualTo() { return type == OpType.EqualTo; }
+
+        boolean isLike() { return type == OpType.Like; }
+
         @NonNull
         @Override
         Object asJSON() {
             final List<Object> json = new ArrayList<>();
+            json.add(getOperator());
+
+            json.add(lhs.asJSON());
+
+            if (type != OpType.Between) { json.add(rhs.asJSON()); }
+            else {
+                // "between"'s RHS is an aggregate of the min and max, but the min and max need to be
+                // written out as parameters to the BETWEEN operation:
+                final List<Expression> rangeExprs = ((AggregateExpression) rhs).getExpressions();
+                json.add(rangeExprs.get(0).asJSON());
+                json.add(rangeExprs.get(1).asJSON());
+            }
+
+            return json;
+        }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            writer.beginArray().value(getOperator());
+
+            lhs.writeJSON(writer);
+
+            if (type != OpType.Between) { rhs.writeJSON(writer); }
+            else {
+                // see asJSON
+                final List<Expression> rangeExprs = ((AggregateExpression) rhs).getExpressions();
+                rangeExprs.get(0).writeJSON(writer);
+                rangeExprs.get(1).writeJSON(writer);
+            }
+
+            writer.endArray();
+        }
+
+        @NonNull
+        private String getOperator() {
             switch (type) {
                 case Add:
-                    json.add("+");
-                    break;
+                    return "+";
                 case Between:
-                    json.add("BETWEEN");
-                    break;
+                    return "BETWEEN";
                 case Divide:
-                    json.add("/");
-                    break;
+                    return "/";
                 case EqualTo:
-                    json.add("=");
-                    break;
+                    return "=";
                 case GreaterThan:
-                    json.add(">");
-                    break;
+                    return ">";
                 case GreaterThanOrEqualTo:
-                    json.add(">=");
-                    break;
+                    return ">=";
                 case In:
-                    json.add("IN");
-                    break;
+                    return "IN";
                 case Is:
-                    json.add("IS");
-                    break;
+                    return "IS";
                 case IsNot:
-                    json.add("IS NOT");
-                    break;
+                    return "IS NOT";
                 case LessThan:
-                    json.add("<");
-                    break;
+                    return "<";
                 case LessThanOrEqualTo:
-                    json.add("<=");
-                    break;
+                    return "<=";
                 case Like:
-                    json.add("LIKE");
-                    break;
+                    return "LIKE";
                 case Modulus:
-                    json.add("%");
-                    break;
+                    return "%";
                 case Multiply:
-                    json.add("*");
-                    break;
+                    return "*";
                 case NotEqualTo:
-                    json.add("!=");
-                    break;
+                    return "!=";
                 case RegexLike:
-                    json.add("regexp_like()");
-                    break;
+                    return "regexp_like()";
                 case Subtract:
-                    json.add("-");
-                    break;
-            }
-
-            json.add(lhs.asJSON());
-
-            if (type != OpType.Between) { json.add(rhs.asJSON()); }
-            else {
-                // "between"'s RHS is an aggregate of the min and max, but the min and max need to be
-                // written out as parameters to the BETWEEN operation:
-                final List<Expression> rangeExprs = ((AggregateExpression) rhs).getExpressions();
-                json.add(rangeExprs.get(0).asJSON());
-                json.add(rangeExprs.get(1).asJSON());
+                    return "-";
+                default:
+                    throw new IllegalStateException("Unexpected binary type: " + type);
             }
-
-            return json;
         }
     }
 
@@ -247,25 +301,41 @@ public abstract class Expression {
             this.subexpressions = subexpressions;
         }
 
+        boolean isAnd() { return type == OpType.And; }
+
+        @NonNull
+        List<Expression> getSubexpressions() { return subexpressions; }
+
         @NonNull
         @Override
         Object asJSON() {
             final List<Object> json = new ArrayList<>();
+            json.add(getOperator());
+
+            for (Expression expr : subexpressions) { json.add(expr.asJSON()); }
+
+            return json;
+        }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            writer.beginArray().value(getOperator());
+            for (Expression expr : subexpressions) { expr.writeJSON(writer); }
+            writer.endArray();
+        }
+
+        @NonNull
+        private String getOperator() {
             switch (type) {
                 case And:
-                    json.add("AND");
-                    break;
+                    return "AND";
                 case Or:
-                    json.add("OR");
-                    break;
+                    return "OR";
                 case Not:
-                    json.add("NOT");
-                    break;
+                    return "NOT";
+                default:
+                    throw new IllegalStateException("Unexpected compound type: " + type);
             }
-
-            for (Expression expr : subexpressions) { json.add(expr.asJSON()); }
-
-            return json;
         }
     }
 
@@ -313,6 +383,36 @@ public abstract class Expression {
                     return Arrays.asList();
             }
         }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            writer.beginArray();
+            switch (type) {
+                case Missing:
+                case Null:
+                    writer.value("IS");
+                    break;
+
+                case NotMissing:
+                case NotNull:
+                    writer.value("IS NOT");
+                    break;
+
+                default:
+                    Log.i(LogDomain.QUERY, "Unexpected unary type: " + type);
+                    writer.endArray();
+                    return;
+            }
+
+            operand.writeJSON(writer);
+
+            if ((type == OpType.Missing) || (type == OpType.NotMissing)) {
+                writer.beginArray().value("MISSING").endArray();
+            }
+            else { writer.nullValue(); }
+
+            writer.endArray();
+        }
     }
 
     //---------------------------------------------
@@ -331,6 +431,9 @@ public abstract class Expression {
             json.add("$" + name);
             return json;
         }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) { writer.beginArray().value("$" + name).endArray(); }
     }
 
     //---------------------------------------------
@@ -356,6 +459,14 @@ public abstract class Expression {
             json.add(operand.asJSON());
             return json;
         }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            writer.beginArray().value("COLLATE");
+            collation.writeJSON(writer);
+            operand.writeJSON(writer);
+            writer.endArray();
+        }
     }
 
     //---------------------------------------------
@@ -380,6 +491,13 @@ public abstract class Expression {
             for (Expression expr : params) { json.add(expr.asJSON()); }
             return json;
         }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            writer.beginArray().value(func);
+            for (Expression expr : params) { expr.writeJSON(writer); }
+            writer.endArray();
+        }
     }
 
     //---------------------------------------------
@@ -548,6 +666,10 @@ public abstract class Expression {
 
     abstract Object asJSON();
 
+    // Write the expression's JSON directly, without building it as a tree of Maps and Lists.
+    // The expressions used to build queries override this: the default writes the tree.
+    void writeJSON(@NonNull JsonWriter writer) { writer.value(asJSON()); }
+
     /**
      * Create a multiply expression to multiply the current expression by the given expression.
      *
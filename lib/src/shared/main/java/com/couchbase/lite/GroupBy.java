@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * A GroupBy represents the GROUP BY clause to group the query result.
@@ -127,4 +129,10 @@ public final class GroupBy extends AbstractQuery implements HavingRouter, OrderB
         for (Expression expression : expressions) { groupBy.add(expression.asJSON()); }
         return groupBy;
     }
+
+    void writeJSON(@NonNull JsonWriter writer) {
+        writer.beginArray();
+        for (Expression expression : expressions) { expression.writeJSON(writer); }
+        writer.endArray();
+    }
 }
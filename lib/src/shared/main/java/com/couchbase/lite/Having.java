@@ -21,6 +21,8 @@ import android.support.annotation.NonNull;
 
 import java.util.Arrays;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * Having represents a HAVING clause of the query statement used for filtering the aggregated values
@@ -103,4 +105,11 @@ public final class Having extends AbstractQuery implements OrderByRouter, LimitR
     Object asJSON() {
         return expression != null ? expression.asJSON() : null;
     }
+
+    // Write the HAVING clause into the query object that is being written.
+    void writeJSONMembers(@NonNull JsonWriter writer) {
+        if (expression == null) { return; }
+        writer.key("HAVING");
+        expression.writeJSON(writer);
+    }
 }
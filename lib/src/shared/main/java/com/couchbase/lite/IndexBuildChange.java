@@ -0,0 +1,108 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+
+/**
+ * IndexBuildChange contains the status of an asynchronous index build.
+ */
+public final class IndexBuildChange {
+    /**
+     * The states of an index build.
+     */
+    public enum Status {
+        /**
+         * The index is being built.  It is not yet visible to queries.
+         */
+        BUILDING,
+
+        /**
+         * The index has been built and is visible to queries.
+         */
+        COMPLETED,
+
+        /**
+         * The index could not be built.
+         */
+        FAILED
+    }
+
+    @NonNull
+    private final Database database;
+    @NonNull
+    private final String indexName;
+    @NonNull
+    private final Status status;
+    private final long elapsedMs;
+    @Nullable
+    private final CouchbaseLiteException error;
+
+    IndexBuildChange(
+        @NonNull Database database,
+        @NonNull String indexName,
+        @NonNull Status status,
+        long elapsedMs,
+        @Nullable CouchbaseLiteException error) {
+        this.database = database;
+        this.indexName = indexName;
+        this.status = status;
+        this.elapsedMs = elapsedMs;
+        this.error = error;
+    }
+
+    /**
+     * Return the database in which the index is being built.
+     */
+    @NonNull
+    public Database getDatabase() { return database; }
+
+    /**
+     * Return the name of the index.
+     */
+    @NonNull
+    public String getIndexName() { return indexName; }
+
+    /**
+     * Return the status of the build.
+     */
+    @NonNull
+    public Status getStatus() { return status; }
+
+    /**
+     * Return the time, in milliseconds, since the build started.
+     */
+    public long getElapsedMs() { return elapsedMs; }
+
+    /**
+     * Return the reason that the build failed, if it did.
+     */
+    @Nullable
+    public CouchbaseLiteException getError() { return error; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "IndexBuildChange{" +
+            "index=" + indexName +
+            ", status=" + status +
+            ", elapsed=" + elapsedMs + "ms" +
+            ((error == null) ? "" : (", error=" + error)) +
+            '}';
+    }
+}
@@ -22,6 +22,7 @@ import android.support.annotation.NonNull;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
 import com.couchbase.lite.internal.utils.Preconditions;
 
 
@@ -82,6 +83,14 @@ public class Join {
             json.putAll(super.dataSource.asJSON());
             return json;
         }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            writer.beginObject().key("JOIN").value(super.type.getTag()).key("ON");
+            onExpression.writeJSON(writer);
+            super.dataSource.writeJSONMembers(writer);
+            writer.endObject();
+        }
     }
 
     //---------------------------------------------
@@ -178,4 +187,10 @@ public class Join {
         json.putAll(dataSource.asJSON());
         return json;
     }
+
+    void writeJSON(@NonNull JsonWriter writer) {
+        writer.beginObject().key("JOIN").value(type.getTag());
+        dataSource.writeJSONMembers(writer);
+        writer.endObject();
+    }
 }
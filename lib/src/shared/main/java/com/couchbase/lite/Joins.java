@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * A Joins component represents a collection of the joins clauses of the query statement.
@@ -127,4 +129,11 @@ public final class Joins extends AbstractQuery implements WhereRouter, OrderByRo
         for (Join join : joins) { json.add(join.asJSON()); }
         return json;
     }
+
+    // Write the joins into the array that is being written.
+    void writeJSONElements(@NonNull JsonWriter writer) {
+        for (Join join : joins) { join.writeJSON(writer); }
+    }
+
+    boolean isEmpty() { return joins.isEmpty(); }
 }
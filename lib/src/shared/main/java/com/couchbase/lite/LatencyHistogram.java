@@ -0,0 +1,125 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * A histogram of durations.
+ * Bucket 0 counts durations shorter than 1 microsecond; bucket i, for i > 0,
+ * counts durations of at least 2^(i-1) and less than 2^i microseconds.
+ * The last bucket also counts all longer durations.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 32;
+
+    @NonNull
+    private final long[] buckets;
+    private long count;
+    private long total;
+    private long max;
+
+    LatencyHistogram() { buckets = new long[BUCKETS]; }
+
+    LatencyHistogram(@NonNull LatencyHistogram histogram) {
+        buckets = histogram.buckets.clone();
+        count = histogram.count;
+        total = histogram.total;
+        max = histogram.max;
+    }
+
+    /**
+     * Returns the number of durations recorded
+     */
+    public long getCount() { return count; }
+
+    /**
+     * Returns the sum of the durations recorded, in nanoseconds
+     */
+    public long getTotalNanos() { return total; }
+
+    /**
+     * Returns the mean duration, in nanoseconds
+     */
+    public long getMeanNanos() { return (count <= 0) ? 0 : total / count; }
+
+    /**
+     * Returns the longest duration recorded, in nanoseconds
+     */
+    public long getMaxNanos() { return max; }
+
+    /**
+     * Returns the number of buckets
+     */
+    public int getBucketCount() { return buckets.length; }
+
+    /**
+     * Returns the number of durations in a bucket
+     *
+     * @param bucket the bucket index
+     * @return the number of durations in the bucket
+     */
+    public long getBucket(int bucket) { return buckets[bucket]; }
+
+    /**
+     * Returns the upper bound, exclusive, of a bucket, in nanoseconds.
+     *
+     * @param bucket the bucket index
+     * @return the bucket's upper bound
+     */
+    public long getBucketUpperBoundNanos(int bucket) { return 1000L << bucket; }
+
+    /**
+     * Returns an estimate of a percentile: the upper bound of the bucket that contains it,
+     * or the longest duration recorded, if that is less.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the estimated duration, in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+        if ((percentile < 0) || (percentile > 100)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100.");
+        }
+        if (count <= 0) { return 0; }
+
+        final long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if ((seen >= rank) && (seen > 0)) { return Math.min(getBucketUpperBoundNanos(i), max); }
+        }
+        return max;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + count + ", mean=" + getMeanNanos() + "ns, max=" + max + "ns}";
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) { nanos = 0; }
+
+        final long micros = nanos / 1000;
+        final int bucket = (micros <= 0) ? 0 : Math.min(Long.SIZE - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets[bucket]++;
+
+        count++;
+        total += nanos;
+        if (nanos > max) { max = nanos; }
+    }
+}
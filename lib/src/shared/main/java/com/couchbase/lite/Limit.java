@@ -17,9 +17,13 @@
 //
 package com.couchbase.lite;
 
+import android.support.annotation.NonNull;
+
 import java.util.ArrayList;
 import java.util.List;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * A Limit component represents the LIMIT clause of the query statement.
@@ -53,4 +57,14 @@ public class Limit extends AbstractQuery {
         if (offset != null) { json.add(offset.asJSON()); }
         return json;
     }
+
+    // Write the LIMIT and OFFSET clauses into the query object that is being written.
+    void writeJSONMembers(@NonNull JsonWriter writer) {
+        writer.key("LIMIT");
+        limit.writeJSON(writer);
+        if (offset != null) {
+            writer.key("OFFSET");
+            offset.writeJSON(writer);
+        }
+    }
 }
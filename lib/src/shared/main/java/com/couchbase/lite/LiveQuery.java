@@ -18,9 +18,12 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
-import java.util.concurrent.Executor;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.couchbase.lite.internal.support.Log;
@@ -42,7 +45,7 @@ final class LiveQuery implements DatabaseChangeListener {
     private static final LogDomain DOMAIN = LogDomain.QUERY;
 
     @VisibleForTesting
-    static final long LIVE_QUERY_UPDATE_INTERVAL_MS = 200; // 0.2sec (200ms)
+    static final long LIVE_QUERY_UPDATE_INTERVAL_MS = LiveQueryConfiguration.DEFAULT_UPDATE_INTERVAL_MS;
 
     private enum State {STOPPED, STARTED, SCHEDULED}
 
@@ -56,10 +59,32 @@ final class LiveQuery implements DatabaseChangeListener {
 
     private ResultSet previousResults;
 
+    // The rows of the most recently reported results, and the result set that they belong to:
+    // null unless deltas are enabled.
+    private List<ResultDelta.Row> previousRows;
+    private ResultSet previousRowsResults;
+    private int previousKeyIndex = -1;
 
+    // The delay before the next refresh, and the time that the last refresh completed.
+    private long updateDelay = LIVE_QUERY_UPDATE_INTERVAL_MS;
+    private long lastRefresh;
+
+    // The query to run: a copy of the query that created this live query.
     @NonNull
     private final AbstractQuery query;
 
+    // The query's JSON, parameters and configuration: null if this live query is not shared.
+    @Nullable
+    private final String key;
+
+    // Null if no change can be shown to be irrelevant to the query.
+    @Nullable
+    private final LiveQueryFilter filter;
+
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong skippedChanges = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
     private final Object lock = new Object();
 
     private ListenerToken dbListenerToken;
@@ -68,9 +93,14 @@ final class LiveQuery implements DatabaseChangeListener {
     // Constructors
     //---------------------------------------------
 
-    LiveQuery(@NonNull AbstractQuery query) {
+    LiveQuery(@NonNull AbstractQuery query) { this(query, null); }
+
+    // A live query with a key is shared by all of the queries with the same key.
+    LiveQuery(@NonNull AbstractQuery query, @Nullable String key) {
         Preconditions.checkArgNotNull(query, "query");
         this.query = query;
+        this.key = key;
+        this.filter = LiveQueryFilter.forQuery(query);
     }
 
     //---------------------------------------------
@@ -86,7 +116,20 @@ final class LiveQuery implements DatabaseChangeListener {
     //---------------------------------------------
 
     @Override
-    public void changed(@NonNull DatabaseChange change) { update(LIVE_QUERY_UPDATE_INTERVAL_MS); }
+    public void changed(@NonNull DatabaseChange change) {
+        if (state.get() == State.STOPPED) { return; }
+        changes.incrementAndGet();
+
+        // The filter must see every change, even while a refresh is pending.
+        if ((filter != null) && (!filter.isRelevant(change))) {
+            skippedChanges.incrementAndGet();
+            return;
+        }
+
+        // A refresh is already pending: it will see this change.
+        if (state.get() != State.STARTED) { return; }
+        update(getUpdateDelay());
+    }
 
     //---------------------------------------------
     // protected methods
@@ -106,12 +149,12 @@ final class LiveQuery implements DatabaseChangeListener {
     /**
      * Adds a change listener.
      * <p>
-     * NOTE: this method is synchronized with Query level.
+     * The token belongs to a Query that shares this live query: it may be moved to another
+     * live query when the Query's parameters change.
      */
-    ListenerToken addChangeListener(Executor executor, QueryChangeListener listener) {
-        final ChangeListenerToken token = changeNotifier.addChangeListener(executor, listener);
+    void addChangeListener(@NonNull ChangeListenerToken<QueryChange> token) {
+        changeNotifier.addChangeListener(token);
         start(false);
-        return token;
     }
 
     /**
@@ -123,6 +166,12 @@ final class LiveQuery implements DatabaseChangeListener {
         if (changeNotifier.removeChangeListener(token) <= 0) { stop(); }
     }
 
+    @Nullable
+    String getKey() { return key; }
+
+    @NonNull
+    LiveQueryStats getStats() { return new LiveQueryStats(changes.get(), skippedChanges.get(), refreshes.get()); }
+
     /**
      * Starts observing database changes and reports changes in the query result.
      */
@@ -132,6 +181,8 @@ final class LiveQuery implements DatabaseChangeListener {
 
         synchronized (lock) {
             if (state.compareAndSet(State.STOPPED, State.STARTED)) {
+                // Changes made while the query was stopped were not examined.
+                if (filter != null) { filter.reset(); }
                 db.addActiveLiveQuery(this);
                 dbListenerToken = db.addChangeListener(this);
             }
@@ -165,6 +216,23 @@ final class LiveQuery implements DatabaseChangeListener {
             }
 
             previousResults = null;
+            previousRows = null;
+            previousRowsResults = null;
+        }
+    }
+
+    // If a change arrives within the current delay of the last refresh, changes are arriving continuously:
+    // back off, doubling the delay up to the configured maximum.  Otherwise, return to the configured delay.
+    private long getUpdateDelay() {
+        final LiveQueryConfiguration config = query.getLiveQueryConfig();
+        final long interval = config.getUpdateInterval();
+        final long maxInterval = config.getMaxUpdateInterval();
+        synchronized (lock) {
+            final long now = System.currentTimeMillis();
+            updateDelay = ((maxInterval <= interval) || (now - lastRefresh > updateDelay))
+                ? interval
+                : Math.max(interval, Math.min(Math.max(updateDelay, 1) * 2, maxInterval));
+            return updateDelay;
         }
     }
 
@@ -183,12 +251,32 @@ final class LiveQuery implements DatabaseChangeListener {
                 prevResults = previousResults;
             }
 
-            final ResultSet newResults = (prevResults == null) ? query.execute() : prevResults.refresh();
+            // The filter's set of matching documents must be complete before the query is run.
+            if (filter != null) {
+                try { filter.seed(); }
+                catch (CouchbaseLiteException e) { Log.w(DOMAIN, "Failed seeding live query filter", e); }
+            }
+
+            refreshes.incrementAndGet();
+            // Listeners only get copies of the results, so the previous results should still be open.
+            // If they are not, run the query again.
+            final ResultSet newResults = ((prevResults == null) || prevResults.isClosed())
+                ? query.execute()
+                : prevResults.refresh();
             Log.i(DOMAIN, "LiveQuery refresh: %s > %s", prevResults, newResults);
             if (newResults == null) { return; }
 
+            // Each listener gets its own copy of the rows, so that no listener can consume or close them
+            // for the others: the rows must be read before the change is posted.
+            final List<Result> rows = newResults.readAll();
+
+            final ResultDelta delta = (!query.getLiveQueryConfig().isDeltasEnabled())
+                ? null
+                : computeDelta(newResults, rows);
+
             boolean update = false;
             synchronized (lock) {
+                lastRefresh = System.currentTimeMillis();
                 if (state.get() != State.STOPPED) {
                     previousResults = newResults;
                     update = true;
@@ -196,10 +284,43 @@ final class LiveQuery implements DatabaseChangeListener {
             }
 
             // Listeners may be notified even after the LiveQuery has been stopped.
-            if (update) { changeNotifier.postChange(new QueryChange(query, newResults, null)); }
+            if (update) { changeNotifier.postChange(new QueryChange(query, newResults, null, delta)); }
         }
         catch (CouchbaseLiteException err) {
             changeNotifier.postChange(new QueryChange(query, null, err));
         }
     }
+
+    // Runs on the query.database.queryExecutor
+    // Returns null if there is no valid previous generation to compare to:
+    // its results have been closed, or it was computed with a different key.
+    private ResultDelta computeDelta(@NonNull ResultSet newResults, @NonNull List<Result> results) {
+        final String key = query.getLiveQueryConfig().getDeltaKey();
+        int keyIndex = -1;
+        if (key != null) {
+            keyIndex = newResults.getColumnIndex(key);
+            if (keyIndex < 0) { Log.w(DOMAIN, "LiveQuery delta key is not a result column: %s", key); }
+        }
+
+        final List<ResultDelta.Row> rows = ResultDelta.getRows(results, keyIndex);
+
+        final List<ResultDelta.Row> prevRows;
+        final ResultSet prevRowsResults;
+        final int prevKeyIndex;
+        synchronized (lock) {
+            prevRows = previousRows;
+            prevRowsResults = previousRowsResults;
+            prevKeyIndex = previousKeyIndex;
+            previousRows = rows;
+            previousRowsResults = newResults;
+            previousKeyIndex = keyIndex;
+        }
+
+        // The first generation: everything is new
+        if (prevRows == null) { return ResultDelta.compute(Collections.<ResultDelta.Row>emptyList(), rows); }
+
+        if ((prevKeyIndex != keyIndex) || prevRowsResults.isClosed()) { return null; }
+
+        return ResultDelta.compute(prevRows, rows);
+    }
 }
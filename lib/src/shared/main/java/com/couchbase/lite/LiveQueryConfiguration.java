@@ -0,0 +1,174 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * Options that control how a query with change listeners is refreshed, and what its changes report.
+ * A query copies its configuration when the configuration is set:
+ * changes made to this object afterwards have no effect on the query.
+ */
+public final class LiveQueryConfiguration {
+    //---------------------------------------------
+    // constants
+    //---------------------------------------------
+
+    /**
+     * The default time, in milliseconds, between a database change and the query refresh that it causes.
+     */
+    public static final long DEFAULT_UPDATE_INTERVAL_MS = 200;
+
+    //---------------------------------------------
+    // member variables
+    //---------------------------------------------
+    private long updateInterval = DEFAULT_UPDATE_INTERVAL_MS;
+    private long maxUpdateInterval = DEFAULT_UPDATE_INTERVAL_MS;
+    private boolean deltasEnabled;
+    private String deltaKey;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    public LiveQueryConfiguration() { }
+
+    /**
+     * Constructs a configuration object based on another one so that it may be modified
+     *
+     * @param config The other configuration to copy settings from
+     */
+    public LiveQueryConfiguration(@NonNull LiveQueryConfiguration config) {
+        Preconditions.checkArgNotNull(config, "config");
+        updateInterval = config.updateInterval;
+        maxUpdateInterval = config.maxUpdateInterval;
+        deltasEnabled = config.deltasEnabled;
+        deltaKey = config.deltaKey;
+    }
+
+    //---------------------------------------------
+    // Setters
+    //---------------------------------------------
+
+    /**
+     * Sets the time, in milliseconds, between a database change and the query refresh that it causes.
+     * Changes that happen while a refresh is pending are handled by that refresh.  The default is 200ms.
+     * If the maximum update interval is less than this interval, it is set to this interval.
+     *
+     * @param updateInterval the update interval, in milliseconds
+     * @return The self object
+     */
+    @NonNull
+    public LiveQueryConfiguration setUpdateInterval(long updateInterval) {
+        if (updateInterval < 0) { throw new IllegalArgumentException("update interval cannot be negative."); }
+        this.updateInterval = updateInterval;
+        if (maxUpdateInterval < updateInterval) { maxUpdateInterval = updateInterval; }
+        return this;
+    }
+
+    /**
+     * Sets the longest time, in milliseconds, between a database change and the query refresh that it causes.
+     * When changes arrive continuously, each one within the current interval of the last refresh,
+     * the interval is doubled, up to this maximum.  It returns to the update interval once the changes stop.
+     * The default is the update interval: no backoff.
+     *
+     * @param maxUpdateInterval the maximum update interval, in milliseconds
+     * @return The self object
+     */
+    @NonNull
+    public LiveQueryConfiguration setMaxUpdateInterval(long maxUpdateInterval) {
+        if (maxUpdateInterval < updateInterval) {
+            throw new IllegalArgumentException("max update interval cannot be less than the update interval.");
+        }
+        this.maxUpdateInterval = maxUpdateInterval;
+        return this;
+    }
+
+    /**
+     * Sets whether changes report the rows that were inserted, removed and updated since the previous change.
+     * Computing the delta requires reading every row of the new results and keeping a copy of each:
+     * enable it when the listeners' work is proportional to the number of rows that they process.
+     * The default is false.
+     *
+     * @param deltasEnabled true if changes should report deltas
+     * @return The self object
+     */
+    @NonNull
+    public LiveQueryConfiguration setDeltasEnabled(boolean deltasEnabled) {
+        this.deltasEnabled = deltasEnabled;
+        return this;
+    }
+
+    /**
+     * Sets the name of the result column that identifies a row, for computing deltas.
+     * A row whose key is in both the previous and the new results, but whose other columns differ,
+     * is reported as updated.  Keys should be unique: a document ID is a good choice.
+     * If no key is set, rows are compared by their entire content,
+     * so a changed row is reported as removed and inserted.
+     *
+     * @param deltaKey the name of the key column, or null to compare whole rows
+     * @return The self object
+     */
+    @NonNull
+    public LiveQueryConfiguration setDeltaKey(@Nullable String deltaKey) {
+        this.deltaKey = deltaKey;
+        return this;
+    }
+
+    //---------------------------------------------
+    // Getters
+    //---------------------------------------------
+
+    /**
+     * Gets the time, in milliseconds, between a database change and the query refresh that it causes.
+     *
+     * @return the update interval
+     */
+    public long getUpdateInterval() { return updateInterval; }
+
+    /**
+     * Gets the longest time, in milliseconds, between a database change and the query refresh that it causes.
+     *
+     * @return the maximum update interval
+     */
+    public long getMaxUpdateInterval() { return maxUpdateInterval; }
+
+    /**
+     * Gets whether changes report deltas.
+     *
+     * @return true if changes report deltas
+     */
+    public boolean isDeltasEnabled() { return deltasEnabled; }
+
+    /**
+     * Gets the name of the result column that identifies a row, for computing deltas.
+     *
+     * @return the name of the key column, or null
+     */
+    @Nullable
+    public String getDeltaKey() { return deltaKey; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LiveQueryConfiguration{interval=" + updateInterval + ", max=" + maxUpdateInterval
+            + ", deltas=" + deltasEnabled + ", key=" + ((deltaKey == null) ? "null" : ("\"" + deltaKey + "\"")) + "}";
+    }
+}
@@ -0,0 +1,339 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Decides whether a database change could have affected a live query's results.
+ * <p>
+ * Only the simplest predicates, ANDed at the top level of the query's WHERE clause, are considered:
+ * <ul>
+ * <li>{@code Meta.id = 'id'} and {@code Meta.id LIKE 'prefix%'}: a document's ID never changes,
+ * so a change to a document whose ID does not match cannot affect the results.</li>
+ * <li>{@code property = constant}, where the property is a top level property and the constant is a
+ * string or a number.</li>
+ * </ul>
+ * Everything else in the clause is ignored: a document that matches these predicates may still not
+ * be in the results, but a document that does not match them cannot be.
+ * <p>
+ * Property predicates are harder.  A change to a document that does not match them now may still
+ * affect the results, if the document matched them before the change.  The filter keeps the set
+ * of IDs of documents that may be in the most recently computed results: it is seeded, before the query
+ * is first run, by a query for the IDs of the documents that match the property predicates,
+ * and maintained by examining every changed document.  A change is irrelevant only if the changed
+ * document is not in the set, and the revision that the change created does not match the predicates.
+ * When the revision cannot be examined, because it has already been superseded, the change is relevant.
+ * <p>
+ * A query with joins is never filtered.
+ */
+final class LiveQueryFilter {
+    private static final String META_ID = "_id";
+
+    private static final class PropertyPredicate {
+        @NonNull
+        final String key;
+        @NonNull
+        final Object value;
+
+        PropertyPredicate(@NonNull String key, @NonNull Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        // May return a false positive, but never a false negative.
+        boolean mayMatch(@NonNull Document doc) {
+            Object docValue = doc.getValue(key);
+            if (value instanceof String) { return value.equals(docValue); }
+
+            if (docValue instanceof Boolean) { docValue = ((Boolean) docValue) ? 1 : 0; }
+            return (docValue instanceof Number)
+                && (((Number) docValue).doubleValue() == ((Number) value).doubleValue());
+        }
+    }
+
+    /**
+     * Create a filter for a query.
+     *
+     * @param query the query
+     * @return the filter, or null if the query's WHERE clause has no predicates that it can use.
+     */
+    @Nullable
+    static LiveQueryFilter forQuery(@NonNull AbstractQuery query) {
+        final Expression where = query.getWhere();
+        if ((where == null) || query.hasJoins()) { return null; }
+
+        final DataSource from = query.getFrom();
+        final String alias = from.getAlias();
+
+        final List<Expression> conjuncts = new ArrayList<>();
+        addConjuncts(where, conjuncts);
+
+        final List<String> ids = new ArrayList<>();
+        final List<String> idPrefixes = new ArrayList<>();
+        final List<Expression> propertyExprs = new ArrayList<>();
+        final List<PropertyPredicate> properties = new ArrayList<>();
+        for (Expression conjunct : conjuncts) {
+            if (!(conjunct instanceof Expression.BinaryExpression)) { continue; }
+            final Expression.BinaryExpression expr = (Expression.BinaryExpression) conjunct;
+
+            final Expression rhs = expr.getRhs();
+            if (!(rhs instanceof Expression.ValueExpression)) { continue; }
+            final Object value = ((Expression.ValueExpression) rhs).getValue();
+
+            final Expression lhs = expr.getLhs();
+            if (lhs instanceof MetaExpression) {
+                final MetaExpression meta = (MetaExpression) lhs;
+                if ((!META_ID.equals(meta.getKeyPath()))
+                    || (!isFrom(meta.getFromAlias(), alias))
+                    || (!(value instanceof String))) {
+                    continue;
+                }
+
+                if (expr.isEqualTo()) { ids.add((String) value); }
+                else if (expr.isLike()) {
+                    final String prefix = getLikePrefix((String) value);
+                    if (prefix != null) { idPrefixes.add(prefix); }
+                }
+            }
+            else if (lhs instanceof PropertyExpression) {
+                final PropertyExpression prop = (PropertyExpression) lhs;
+                if ((!expr.isEqualTo())
+                    || (!isTopLevelKey(prop.getKeyPath()))
+                    || (!isFrom(prop.getFromAlias(), alias))
+                    || (!((value instanceof String) || (value instanceof Number)))) {
+                    continue;
+                }
+
+                properties.add(new PropertyPredicate(prop.getKeyPath(), value));
+                propertyExprs.add(expr);
+            }
+        }
+
+        return (ids.isEmpty() && idPrefixes.isEmpty() && properties.isEmpty())
+            ? null
+            : new LiveQueryFilter(from, ids, idPrefixes, properties, propertyExprs);
+    }
+
+    private static void addConjuncts(@NonNull Expression expr, @NonNull List<Expression> conjuncts) {
+        if (!((expr instanceof Expression.CompoundExpression) && ((Expression.CompoundExpression) expr).isAnd())) {
+            conjuncts.add(expr);
+            return;
+        }
+
+        for (Expression subexpr : ((Expression.CompoundExpression) expr).getSubexpressions()) {
+            addConjuncts(subexpr, conjuncts);
+        }
+    }
+
+    // A property with no alias refers to the query's only data source.
+    private static boolean isFrom(@Nullable String exprAlias, @Nullable String alias) {
+        return (exprAlias == null) || exprAlias.equals(alias);
+    }
+
+    // Anything that might be a key path, or an escape, is not a top level key.
+    private static boolean isTopLevelKey(@Nullable String keyPath) {
+        if ((keyPath == null) || keyPath.isEmpty()) { return false; }
+        for (int i = 0; i < keyPath.length(); i++) {
+            switch (keyPath.charAt(i)) {
+                case '.':
+                case '[':
+                case '\\':
+                case '$':
+                    return false;
+                default:
+            }
+        }
+        return true;
+    }
+
+    // The literal prefix of a pattern that has no wildcards except, perhaps, a final '%'.
+    @Nullable
+    private static String getLikePrefix(@NonNull String pattern) {
+        final int n = pattern.endsWith("%") ? pattern.length() - 1 : pattern.length();
+        for (int i = 0; i < n; i++) {
+            switch (pattern.charAt(i)) {
+                case '%':
+                case '_':
+                case '\\':
+                    return null;
+                default:
+            }
+        }
+        return pattern.substring(0, n);
+    }
+
+
+    @NonNull
+    private final DataSource from;
+    @NonNull
+    private final List<String> ids;
+    @NonNull
+    private final List<String> idPrefixes;
+    @NonNull
+    private final List<PropertyPredicate> properties;
+    @NonNull
+    private final List<Expression> propertyExprs;
+
+    private final Object lock = new Object();
+
+    // IDs of the documents that may be in the most recent results.
+    @GuardedBy("lock")
+    @NonNull
+    private final Set<String> matched = new HashSet<>();
+
+    // Until the set is seeded, every change that passes the ID predicates is relevant.
+    @GuardedBy("lock")
+    private boolean seeded;
+
+    // Incremented when the filter is reset: a seed started before a reset is discarded.
+    @GuardedBy("lock")
+    private long generation;
+
+    private LiveQueryFilter(
+        @NonNull DataSource from,
+        @NonNull List<String> ids,
+        @NonNull List<String> idPrefixes,
+        @NonNull List<PropertyPredicate> properties,
+        @NonNull List<Expression> propertyExprs) {
+        this.from = from;
+        this.ids = ids;
+        this.idPrefixes = idPrefixes;
+        this.properties = properties;
+        this.propertyExprs = propertyExprs;
+    }
+
+    /**
+     * Forget the set of matched documents.
+     * Call this whenever the query stops observing the database: changes made while it was
+     * not observing it were never examined.
+     */
+    void reset() {
+        synchronized (lock) {
+            matched.clear();
+            seeded = false;
+            generation++;
+        }
+    }
+
+    /**
+     * Seed the set of matched documents, if necessary.
+     * Call this before running the query: the set must include every document that may be in its results.
+     */
+    void seed() throws CouchbaseLiteException {
+        final long seedGeneration;
+        synchronized (lock) {
+            if (seeded || properties.isEmpty()) { return; }
+            seedGeneration = generation;
+        }
+
+        Expression where = null;
+        for (Expression expr : propertyExprs) { where = (where == null) ? expr : where.and(expr); }
+
+        final List<String> seedIds = new ArrayList<>();
+        final Query query = QueryBuilder.select(SelectResult.expression(Meta.id)).from(from).where(where);
+        final ResultSet results = query.execute();
+        try {
+            Result result;
+            while ((result = results.next()) != null) { seedIds.add(result.getString(0)); }
+        }
+        finally {
+            results.close();
+        }
+
+        synchronized (lock) {
+            if (seedGeneration != generation) { return; }
+            matched.addAll(seedIds);
+            seeded = true;
+        }
+    }
+
+    /**
+     * Decide whether a database change could have affected the query's results.
+     * Every change must be passed to this method, in the order in which it was posted, whether or not
+     * a refresh is already pending: it keeps the set of matched documents up to date.
+     *
+     * @param change the change
+     * @return false if the change cannot have affected the query's results
+     */
+    boolean isRelevant(@NonNull DatabaseChange change) {
+        final List<String> docIds = change.getDocumentIDs();
+        final List<Long> sequences = change.getSequences();
+        final boolean canExamine = (sequences != null) && (sequences.size() == docIds.size());
+
+        boolean relevant = false;
+        final int n = docIds.size();
+        for (int i = 0; i < n; i++) {
+            final String docId = docIds.get(i);
+            if (!idMayMatch(docId)) { continue; }
+
+            // Without property predicates, a matching ID is enough.
+            if (properties.isEmpty()) { return true; }
+
+            // Without the sequences, the revisions that the change created cannot be identified.
+            if (!canExamine) { return true; }
+
+            // Every document must be examined, even after a relevant one, to keep the set up to date.
+            if (isRelevant(change.getDatabase(), docId, sequences.get(i))) { relevant = true; }
+        }
+
+        return relevant;
+    }
+
+    private boolean idMayMatch(@NonNull String docId) {
+        // LIKE may be case insensitive: compare case insensitively, to be safe.
+        for (String id : ids) {
+            if (!id.equalsIgnoreCase(docId)) { return false; }
+        }
+        for (String prefix : idPrefixes) {
+            if (!docId.regionMatches(true, 0, prefix, 0, prefix.length())) { return false; }
+        }
+        return true;
+    }
+
+    private boolean isRelevant(@NonNull Database db, @NonNull String docId, long sequence) {
+        final Document doc = db.readDocument(docId, true);
+        final boolean mayMatch = (doc != null) && (!doc.isDeleted()) && mayMatch(doc);
+        // If the document has changed again, the revision created by this change is unknown.
+        final boolean isChangedRevision = (doc != null) && (doc.getSequence() == sequence);
+
+        synchronized (lock) {
+            if (mayMatch) {
+                matched.add(docId);
+                return true;
+            }
+
+            // The document no longer matches: the refresh that this change causes will remove it from the results.
+            final boolean wasMatched = matched.remove(docId);
+            return (!seeded) || (!isChangedRevision) || wasMatched;
+        }
+    }
+
+    private boolean mayMatch(@NonNull Document doc) {
+        for (PropertyPredicate property : properties) {
+            if (!property.mayMatch(doc)) { return false; }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,56 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * A snapshot of the statistics for a query with change listeners.
+ */
+public final class LiveQueryStats {
+    private final long changes;
+    private final long skippedChanges;
+    private final long refreshes;
+
+    LiveQueryStats(long changes, long skippedChanges, long refreshes) {
+        this.changes = changes;
+        this.skippedChanges = skippedChanges;
+        this.refreshes = refreshes;
+    }
+
+    /**
+     * Returns the number of database changes that the query has been notified of
+     */
+    public long getChanges() { return changes; }
+
+    /**
+     * Returns the number of database changes that could not have affected the query's results,
+     * and so did not cause it to be refreshed
+     */
+    public long getSkippedChanges() { return skippedChanges; }
+
+    /**
+     * Returns the number of times that the query has been run, or refreshed
+     */
+    public long getRefreshes() { return refreshes; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LiveQueryStats{changes=" + changes + ", skipped=" + skippedChanges + ", refreshes=" + refreshes + "}";
+    }
+}
@@ -0,0 +1,765 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.couchbase.lite.internal.CBLStatus;
+import com.couchbase.lite.internal.core.C4Constants;
+import com.couchbase.lite.internal.core.C4Database;
+import com.couchbase.lite.internal.core.C4RawDocument;
+import com.couchbase.lite.internal.support.Log;
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * A materialized view: the count and the sum of the values that a map function emits for the documents
+ * in a database, grouped by key, and maintained incrementally as the documents change.
+ * <p>
+ * A view is stored in the database, in a private store of its own: a record of the values that each document
+ * emitted, a record for each row, indexes of the documents and of the rows, and a record with the sequence
+ * up to which the rows are up to date.  When documents change, only the changed documents are mapped: the values that
+ * each of them emitted before the change are subtracted from their rows, and the new values are added.
+ * Only the records of the changed documents and of the rows that they touch are read and written.
+ * When a view is opened, it reads its rows and catches up from its saved sequence: documents that were purged
+ * while it was not open are found by comparing its index of documents to the database.  Reading a view's rows
+ * takes time proportional to the number of rows, not to the number of documents.
+ * <p>
+ * Views are obtained with Database.getMaterializedView.  A view is updated in the background, as the
+ * database changes, and is brought up to date before its rows are read.
+ */
+public final class MaterializedView {
+    /**
+     * Maps a document to the keys and values that it contributes to a view.
+     */
+    public interface Mapper {
+        /**
+         * Emit the keys and values for a document.  This method is called on a background thread:
+         * its result must depend only on the document.
+         *
+         * @param doc     the document
+         * @param emitter the emitter for the document's keys and values
+         */
+        void map(@NonNull Document doc, @NonNull Emitter emitter);
+    }
+
+    /**
+     * Receives the keys and values emitted for a document.
+     */
+    public interface Emitter {
+        /**
+         * Emit a value for a key.  Every emitted value is counted: values that are not null are also summed.
+         *
+         * @param key   the key
+         * @param value the value, or null to count the key without adding to its sum
+         */
+        void emit(@NonNull String key, @Nullable Number value);
+    }
+
+    /**
+     * A row of a view: the aggregate of the values emitted for a key.
+     */
+    public static final class Row {
+        @NonNull
+        private final String key;
+        private final long count;
+        private final double sum;
+
+        Row(@NonNull String key, long count, double sum) {
+            this.key = key;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * Returns the row's key
+         */
+        @NonNull
+        public String getKey() { return key; }
+
+        /**
+         * Returns the number of values emitted for the key
+         */
+        public long getCount() { return count; }
+
+        /**
+         * Returns the sum of the values emitted for the key
+         */
+        public double getSum() { return sum; }
+
+        /**
+         * Returns the sum of the values emitted for the key, divided by their number
+         */
+        public double getAverage() { return sum / count; }
+
+        @NonNull
+        @Override
+        public String toString() { return "Row{" + key + ", count=" + count + ", sum=" + sum + "}"; }
+    }
+
+    // The running total for a row.
+    private static final class Aggregate {
+        long count;
+        double sum;
+
+        Aggregate(long count, double sum) {
+            this.count = count;
+            this.sum = sum;
+        }
+    }
+
+    //---------------------------------------------
+    // static variables
+    //---------------------------------------------
+    private static final LogDomain DOMAIN = LogDomain.QUERY;
+
+    @VisibleForTesting
+    static final String STORE_PREFIX = "cbl_view_";
+    private static final String STATE_KEY = "_state";
+    private static final String DOC_KEY_PREFIX = "doc:";
+    @VisibleForTesting
+    static final String DOC_INDEX_PREFIX = "docs:";
+    private static final String ROW_KEY_PREFIX = "row:";
+    @VisibleForTesting
+    static final String ROW_INDEX_PREFIX = "rows:";
+
+    private static final String STATE_VERSION = "version";
+    private static final String STATE_SEQUENCE = "sequence";
+
+    // An index is split into this many records, so that adding or removing a key rewrites only one of them.
+    @VisibleForTesting
+    static final int INDEX_BUCKETS = 64;
+
+    // Changed documents are applied to the view in transactions of at most this many documents.
+    private static final int BATCH_SIZE = 1000;
+
+    //---------------------------------------------
+    // static methods
+    //---------------------------------------------
+
+    // Delete all of a view's records, using its indexes to find them.
+    static void delete(@NonNull AbstractDatabase db, @NonNull String name) throws CouchbaseLiteException {
+        deleteRecords(db, getStoreName(name), null);
+    }
+
+    // Delete all of a view's records.  When the records are those of an open view, stop as soon as it is
+    // closed: the records may, by then, belong to a new version of the view.
+    private static void deleteRecords(
+        @NonNull AbstractDatabase db,
+        @NonNull String store,
+        @Nullable MaterializedView view)
+        throws CouchbaseLiteException {
+        for (int i = 0; i < INDEX_BUCKETS; i++) {
+            deleteIndexed(db, store, DOC_INDEX_PREFIX + i, DOC_KEY_PREFIX, view);
+            deleteIndexed(db, store, ROW_INDEX_PREFIX + i, ROW_KEY_PREFIX, view);
+        }
+        db.inRawTransaction(c4db -> {
+            if ((view != null) && view.closed) { return; }
+            c4db.rawPut(store, STATE_KEY, null, null);
+        });
+    }
+
+    @NonNull
+    private static String getStoreName(@NonNull String name) { return STORE_PREFIX + name; }
+
+    // Delete the records listed in one of an index's records, and the index record itself.
+    private static void deleteIndexed(
+        @NonNull AbstractDatabase db,
+        @NonNull String store,
+        @NonNull String indexKey,
+        @NonNull String keyPrefix,
+        @Nullable MaterializedView view)
+        throws CouchbaseLiteException {
+        db.inRawTransaction(c4db -> {
+            if ((view != null) && view.closed) { return; }
+
+            // The records listed in a corrupt index record cannot be found.  They are left in place:
+            // a view reads only the records that its indexes list, and overwrites the others.
+            Set<String> keys;
+            try { keys = readIndex(c4db, store, indexKey); }
+            catch (LiteCoreException e) {
+                if (!isCorrupt(e)) { throw e; }
+                Log.w(DOMAIN, "Deleting corrupt index record %s in %s", e, indexKey, store);
+                keys = Collections.emptySet();
+            }
+
+            for (String key : keys) { c4db.rawPut(store, keyPrefix + key, null, null); }
+            c4db.rawPut(store, indexKey, null, null);
+        });
+    }
+
+    @NonNull
+    private static String getIndexKey(@NonNull String prefix, @NonNull String key) {
+        return prefix + ((key.hashCode() & Integer.MAX_VALUE) % INDEX_BUCKETS);
+    }
+
+    // The keys listed in one of an index's records.
+    @NonNull
+    private static Set<String> readIndex(@NonNull C4Database c4db, @NonNull String store, @NonNull String indexKey)
+        throws LiteCoreException {
+        final Set<String> keys = new HashSet<>();
+        final String record = readRecord(c4db, store, indexKey);
+        if (record == null) { return keys; }
+
+        try {
+            final JSONArray json = new JSONArray(record);
+            final int n = json.length();
+            for (int i = 0; i < n; i++) { keys.add(json.getString(i)); }
+        }
+        catch (JSONException e) { throw corrupt(store, e); }
+
+        return keys;
+    }
+
+    // The index records that list the given keys, by index key.
+    @NonNull
+    private static Map<String, Set<String>> readIndexes(
+        @NonNull C4Database c4db,
+        @NonNull String store,
+        @NonNull String prefix,
+        @NonNull Collection<String> keys)
+        throws LiteCoreException {
+        final Map<String, Set<String>> indexes = new HashMap<>();
+        for (String key : keys) {
+            final String indexKey = getIndexKey(prefix, key);
+            if (!indexes.containsKey(indexKey)) { indexes.put(indexKey, readIndex(c4db, store, indexKey)); }
+        }
+        return indexes;
+    }
+
+    // Add keys to an index, and remove keys from it, rewriting only the index records that change.
+    // Index records that are not in the given map, of those already read, are read here.
+    private static void updateIndex(
+        @NonNull C4Database c4db,
+        @NonNull String store,
+        @NonNull String prefix,
+        @NonNull Map<String, Set<String>> indexes,
+        @NonNull Set<String> added,
+        @NonNull Set<String> removed)
+        throws LiteCoreException {
+        final Set<String> indexKeys = new HashSet<>();
+        for (String key : added) { indexKeys.add(getIndexKey(prefix, key)); }
+        for (String key : removed) { indexKeys.add(getIndexKey(prefix, key)); }
+
+        for (String indexKey : indexKeys) {
+            Set<String> keys = indexes.get(indexKey);
+            if (keys == null) { keys = readIndex(c4db, store, indexKey); }
+            for (String key : added) { if (indexKey.equals(getIndexKey(prefix, key))) { keys.add(key); } }
+            for (String key : removed) { if (indexKey.equals(getIndexKey(prefix, key))) { keys.remove(key); } }
+
+            final byte[] body = keys.isEmpty() ? null : new JSONArray(keys).toString().getBytes(StandardCharsets.UTF_8);
+            c4db.rawPut(store, indexKey, null, body);
+        }
+    }
+
+    private static boolean isCorrupt(@NonNull LiteCoreException e) {
+        return (e.domain == C4Constants.ErrorDomain.LITE_CORE) && (e.code == C4Constants.LiteCoreError.CORRUPT_DATA);
+    }
+
+    @NonNull
+    private static LiteCoreException corrupt(@NonNull String store, @NonNull JSONException e) {
+        return new LiteCoreException(
+            C4Constants.ErrorDomain.LITE_CORE,
+            C4Constants.LiteCoreError.CORRUPT_DATA,
+            "Corrupt record in materialized view store " + store + ": " + e.getMessage());
+    }
+
+    // Returns null if the record does not exist.
+    @Nullable
+    private static String readRecord(@NonNull C4Database c4db, @NonNull String store, @NonNull String key)
+        throws LiteCoreException {
+        final C4RawDocument record;
+        try { record = c4db.rawGet(store, key); }
+        catch (LiteCoreException e) {
+            if ((e.domain == C4Constants.ErrorDomain.LITE_CORE) && (e.code == C4Constants.LiteCoreError.NOT_FOUND)) {
+                return null;
+            }
+            throw e;
+        }
+
+        try {
+            final byte[] body = record.body();
+            return (body == null) ? null : new String(body, StandardCharsets.UTF_8);
+        }
+        finally {
+            record.free();
+        }
+    }
+
+    //---------------------------------------------
+    // member variables
+    //---------------------------------------------
+    @NonNull
+    private final AbstractDatabase db;
+    @NonNull
+    private final String name;
+    @NonNull
+    private final String version;
+    @NonNull
+    private final Mapper mapper;
+    @NonNull
+    private final String store;
+
+    private final Object lock = new Object();
+
+    // The rows are changed only holding the lock, and then only once their records have been committed.
+    // Their aggregates are replaced, never modified.
+    @GuardedBy("rows")
+    @NonNull
+    private final TreeMap<String, Aggregate> rows = new TreeMap<>();
+    private volatile long lastSequence;
+
+    // True if the stored view was built by a different version of the mapper.
+    @GuardedBy("lock")
+    private boolean needsRebuild;
+
+    // True until the view has looked for documents that were purged while it was not open.
+    @GuardedBy("lock")
+    private boolean needsPurgeCheck = true;
+
+    // IDs of documents that the database has reported as changed, since the last update.
+    // A reported document that is no longer in the database has been purged.
+    @GuardedBy("reportedIds")
+    @NonNull
+    private final Set<String> reportedIds = new HashSet<>();
+
+    private volatile boolean closed;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    MaterializedView(
+        @NonNull AbstractDatabase db,
+        @NonNull String name,
+        @NonNull String version,
+        @NonNull Mapper mapper) {
+        this.db = db;
+        this.name = name;
+        this.version = version;
+        this.mapper = mapper;
+        this.store = getStoreName(name);
+    }
+
+    //---------------------------------------------
+    // API - public methods
+    //---------------------------------------------
+
+    /**
+     * Returns the view's name
+     */
+    @NonNull
+    public String getName() { return name; }
+
+    /**
+     * Returns the version of the view's mapper
+     */
+    @NonNull
+    public String getVersion() { return version; }
+
+    /**
+     * Returns the database sequence up to which the view is up to date
+     */
+    public long getLastSequence() { return lastSequence; }
+
+    /**
+     * Returns the view's rows, in key order, after bringing the view up to date.
+     * Inside a batch (Database.inBatch) the view is not updated: the rows are those of its last update.
+     *
+     * @return the rows
+     * @throws CouchbaseLiteException if the view cannot be updated
+     */
+    @NonNull
+    public List<Row> getRows() throws CouchbaseLiteException {
+        if (!isInBatch()) { update(); }
+
+        synchronized (rows) {
+            final List<Row> result = new ArrayList<>(rows.size());
+            for (Map.Entry<String, Aggregate> entry : rows.entrySet()) {
+                final Aggregate row = entry.getValue();
+                result.add(new Row(entry.getKey(), row.count, row.sum));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the row for a key, after bringing the view up to date.
+     * Inside a batch (Database.inBatch) the view is not updated: the row is that of its last update.
+     *
+     * @param key the key
+     * @return the row, or null if no values have been emitted for the key
+     * @throws CouchbaseLiteException if the view cannot be updated
+     */
+    @Nullable
+    public Row getRow(@NonNull String key) throws CouchbaseLiteException {
+        Preconditions.checkArgNotNull(key, "key");
+        if (!isInBatch()) { update(); }
+
+        final Aggregate row;
+        synchronized (rows) { row = rows.get(key); }
+        return (row == null) ? null : new Row(key, row.count, row.sum);
+    }
+
+    /**
+     * Bring the view up to date, by mapping the documents that have changed since its last sequence.
+     *
+     * @throws CouchbaseLiteException if the view cannot be updated
+     * @throws IllegalStateException  if called inside a batch (Database.inBatch)
+     */
+    public void update() throws CouchbaseLiteException {
+        // An update holds the view's lock while it waits for the database's lock: the reverse would deadlock.
+        if (isInBatch()) { throw new IllegalStateException("Cannot update a materialized view in a batch."); }
+
+        synchronized (lock) {
+            if (closed) { return; }
+
+            try { updateLocked(); }
+            catch (CouchbaseLiteException e) {
+                // The next update rebuilds a view whose records turn out to be corrupt.
+                if (CBLError.Domain.CBLITE.equals(e.getDomain()) && (e.getCode() == CBLError.Code.CORRUPT_DATA)) {
+                    needsRebuild = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() { return "MaterializedView{" + name + "@" + version + "}"; }
+
+    //---------------------------------------------
+    // Package level access
+    //---------------------------------------------
+
+    // Call holding the database lock.
+    // Read the view's saved state and rows.  If it was built by a different version of the mapper,
+    // or cannot be read, it will be rebuilt.
+    void load() throws CouchbaseLiteException {
+        synchronized (lock) {
+            try {
+                final C4Database c4db = db.getC4Database();
+                final String state = readRecord(c4db, store, STATE_KEY);
+                if (state == null) { return; }
+
+                final JSONObject json = new JSONObject(state);
+                if (!version.equals(json.getString(STATE_VERSION))) {
+                    Log.i(DOMAIN, "Materialized view %s has changed: rebuilding it", name);
+                    needsRebuild = true;
+                    return;
+                }
+
+                final TreeMap<String, Aggregate> savedRows = new TreeMap<>();
+                for (int i = 0; i < INDEX_BUCKETS; i++) {
+                    for (String key : readIndex(c4db, store, ROW_INDEX_PREFIX + i)) {
+                        final String row = readRecord(c4db, store, ROW_KEY_PREFIX + key);
+                        if (row == null) { throw new JSONException("Missing row: " + key); }
+                        final JSONArray jsonRow = new JSONArray(row);
+                        savedRows.put(key, new Aggregate(jsonRow.getLong(0), jsonRow.getDouble(1)));
+                    }
+                }
+
+                synchronized (rows) {
+                    rows.clear();
+                    rows.putAll(savedRows);
+                }
+                lastSequence = json.getLong(STATE_SEQUENCE);
+            }
+            catch (LiteCoreException e) {
+                if (!isCorrupt(e)) { throw CBLStatus.convertException(e); }
+                Log.w(DOMAIN, "Materialized view %s is corrupt: rebuilding it", e, name);
+                needsRebuild = true;
+            }
+            catch (JSONException e) {
+                Log.w(DOMAIN, "Materialized view %s is corrupt: rebuilding it", e, name);
+                needsRebuild = true;
+            }
+        }
+    }
+
+    // Called on the database's view executor, when the database changes.
+    void changed(@NonNull DatabaseChange change) {
+        if (closed) { return; }
+        synchronized (reportedIds) { reportedIds.addAll(change.getDocumentIDs()); }
+        updateQuietly();
+    }
+
+    void updateQuietly() {
+        try { update(); }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            if (!closed) { Log.w(DOMAIN, "Failed updating materialized view %s", e, name); }
+        }
+    }
+
+    // Call holding the database lock.
+    // The view stops updating.  An update that is in progress checks for close in each of its transactions,
+    // all of which hold the database lock: it writes nothing once the view is closed.
+    void close() { closed = true; }
+
+    //---------------------------------------------
+    // Private level access
+    //---------------------------------------------
+
+    private boolean isInBatch() { return Thread.holdsLock(db.getLock()); }
+
+    // Call holding the lock.
+    private void updateLocked() throws CouchbaseLiteException {
+        if (needsRebuild) {
+            deleteRecords(db, store, this);
+            synchronized (rows) { rows.clear(); }
+            lastSequence = 0;
+            needsRebuild = false;
+            apply(new ArrayList<>(), 0);
+        }
+
+        final Set<String> reported;
+        synchronized (reportedIds) {
+            reported = new HashSet<>(reportedIds);
+            reportedIds.clear();
+        }
+
+        final List<String> batch = new ArrayList<>();
+        long sequence = lastSequence;
+        final DocumentEnumerator<DocumentMetadata> changes = db.changesSince(lastSequence);
+        try {
+            while ((!closed) && changes.hasNext()) {
+                final DocumentMetadata meta = changes.next();
+                reported.remove(meta.getId());
+                batch.add(meta.getId());
+                sequence = Math.max(sequence, meta.getSequence());
+                if (batch.size() >= BATCH_SIZE) {
+                    apply(batch, sequence);
+                    batch.clear();
+                }
+            }
+        }
+        finally {
+            changes.close();
+        }
+
+        // A document that was reported as changed, and that is not in the database, has been purged.
+        for (String id : reported) {
+            if (db.readDocument(id, true) == null) { batch.add(id); }
+        }
+
+        // Purges are not in the database's changes: look, once, for documents that were purged
+        // while the view was not open.
+        final boolean purgeCheck = (!closed) && needsPurgeCheck;
+        if (purgeCheck) { batch.addAll(getPurgedIds(batch)); }
+
+        if (!batch.isEmpty()) { apply(batch, sequence); }
+        if (purgeCheck) { needsPurgeCheck = false; }
+    }
+
+    // Call holding the lock.
+    // Map the documents, without holding the database lock, then update their records, and the records
+    // of the rows that they change, in a single transaction.  The rows are changed only when the transaction
+    // has committed.
+    private void apply(@NonNull List<String> ids, long sequence) throws CouchbaseLiteException {
+        final int n = ids.size();
+        final List<String> emitted = new ArrayList<>(n);
+        for (String id : ids) { emitted.add(map(id)); }
+
+        // The new aggregates for the rows that the documents change: a row whose count is 0 is removed.
+        final Map<String, Aggregate> changedRows = new HashMap<>();
+        db.inRawTransaction(c4db -> {
+            // The database may have deleted the view's records, or a new version of the view may own them.
+            if (closed) { return; }
+
+            // The doc index, not the doc records, says which documents the view holds: a record that it
+            // does not list was orphaned by the rebuild of a corrupt index, and is overwritten.
+            final Map<String, Set<String>> docIndexes = readIndexes(c4db, store, DOC_INDEX_PREFIX, ids);
+            final Set<String> addedIds = new HashSet<>();
+            final Set<String> removedIds = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                final String id = ids.get(i);
+                final String key = DOC_KEY_PREFIX + id;
+                final Set<String> indexed = docIndexes.get(getIndexKey(DOC_INDEX_PREFIX, id));
+                final String prev = ((indexed == null) || !indexed.contains(id)) ? null : readRecord(c4db, store, key);
+                final String cur = emitted.get(i);
+                if ((prev == null) && (cur != null)) { addedIds.add(id); }
+                else if ((prev != null) && (cur == null)) { removedIds.add(id); }
+
+                try {
+                    if (prev != null) { accumulate(changedRows, new JSONArray(prev), -1); }
+                    if (cur != null) { accumulate(changedRows, new JSONArray(cur), 1); }
+                }
+                catch (JSONException e) { throw corrupt(store, e); }
+
+                c4db.rawPut(store, key, null, (cur == null) ? null : cur.getBytes(StandardCharsets.UTF_8));
+            }
+            updateIndex(c4db, store, DOC_INDEX_PREFIX, docIndexes, addedIds, removedIds);
+
+            final Set<String> addedKeys = new HashSet<>();
+            final Set<String> removedKeys = new HashSet<>();
+            for (Map.Entry<String, Aggregate> entry : changedRows.entrySet()) {
+                final String key = entry.getKey();
+                final Aggregate row = entry.getValue();
+                final boolean exists = getAggregate(key) != null;
+                if (row.count > 0) {
+                    c4db.rawPut(store, ROW_KEY_PREFIX + key, null, encodeRow(row));
+                    if (!exists) { addedKeys.add(key); }
+                }
+                else {
+                    c4db.rawPut(store, ROW_KEY_PREFIX + key, null, null);
+                    if (exists) { removedKeys.add(key); }
+                }
+            }
+            updateIndex(c4db, store, ROW_INDEX_PREFIX, new HashMap<>(), addedKeys, removedKeys);
+
+            c4db.rawPut(store, STATE_KEY, null, encodeState(sequence));
+        });
+
+        synchronized (rows) {
+            for (Map.Entry<String, Aggregate> entry : changedRows.entrySet()) {
+                final Aggregate row = entry.getValue();
+                if (row.count > 0) { rows.put(entry.getKey(), row); }
+                else { rows.remove(entry.getKey()); }
+            }
+        }
+        lastSequence = sequence;
+    }
+
+    // Call holding the lock.
+    // The IDs of the documents in the view's index that are no longer in the database, and are not already
+    // in the given batch.
+    @NonNull
+    private Set<String> getPurgedIds(@NonNull List<String> batch) throws CouchbaseLiteException {
+        final Set<String> ids = new HashSet<>();
+        synchronized (db.getLock()) {
+            try {
+                final C4Database c4db = db.getC4Database();
+                for (int i = 0; i < INDEX_BUCKETS; i++) { ids.addAll(readIndex(c4db, store, DOC_INDEX_PREFIX + i)); }
+            }
+            catch (LiteCoreException e) {
+                throw CBLStatus.convertException(e);
+            }
+        }
+        if (ids.isEmpty()) { return ids; }
+
+        final DocumentEnumerator<DocumentMetadata> docs = db.allDocumentsMetadata(true);
+        try {
+            while (docs.hasNext()) { ids.remove(docs.next().getId()); }
+        }
+        finally {
+            docs.close();
+        }
+
+        ids.removeAll(batch);
+        if (!ids.isEmpty()) { Log.i(DOMAIN, "Materialized view %s: %d documents were purged", name, ids.size()); }
+        return ids;
+    }
+
+    // Call holding the lock.
+    // Add (sign = 1) or subtract (sign = -1) a document's emitted values to the changed rows.
+    private void accumulate(@NonNull Map<String, Aggregate> changedRows, @NonNull JSONArray emitted, int sign)
+        throws JSONException {
+        final int n = emitted.length();
+        for (int i = 0; i < n; i++) {
+            final JSONArray pair = emitted.getJSONArray(i);
+            final String key = pair.getString(0);
+            final double value = pair.isNull(1) ? 0 : pair.getDouble(1);
+
+            Aggregate row = changedRows.get(key);
+            if (row == null) {
+                final Aggregate cur = getAggregate(key);
+                row = (cur == null) ? new Aggregate(0, 0) : new Aggregate(cur.count, cur.sum);
+                changedRows.put(key, row);
+            }
+
+            row.count += sign;
+            row.sum += sign * value;
+        }
+    }
+
+    @Nullable
+    private Aggregate getAggregate(@NonNull String key) {
+        synchronized (rows) { return rows.get(key); }
+    }
+
+    // Returns the JSON encoding of the keys and values that a document emits,
+    // or null if it emits none, or if it has been deleted or purged.
+    @Nullable
+    private String map(@NonNull String id) {
+        final Document doc = db.readDocument(id, false);
+        if (doc == null) { return null; }
+
+        final JSONArray emitted = new JSONArray();
+        try {
+            mapper.map(doc, (key, value) -> {
+                Preconditions.checkArgNotNull(key, "key");
+                if ((value != null) && (Double.isNaN(value.doubleValue()) || Double.isInfinite(value.doubleValue()))) {
+                    throw new IllegalArgumentException("value must be a finite number.");
+                }
+
+                final JSONArray pair = new JSONArray();
+                pair.put(key);
+                pair.put((value == null) ? JSONObject.NULL : value);
+                emitted.put(pair);
+            });
+        }
+        catch (RuntimeException e) {
+            Log.w(DOMAIN, "Materialized view %s failed mapping document %s: skipping it", e, name, id);
+            return null;
+        }
+
+        return (emitted.length() <= 0) ? null : emitted.toString();
+    }
+
+    @NonNull
+    private byte[] encodeState(long sequence) throws LiteCoreException {
+        try {
+            final JSONObject json = new JSONObject();
+            json.put(STATE_VERSION, version);
+            json.put(STATE_SEQUENCE, sequence);
+            return json.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        catch (JSONException e) { throw encodingFailed(e); }
+    }
+
+    @NonNull
+    private byte[] encodeRow(@NonNull Aggregate row) throws LiteCoreException {
+        try { return new JSONArray().put(row.count).put(row.sum).toString().getBytes(StandardCharsets.UTF_8); }
+        catch (JSONException e) { throw encodingFailed(e); }
+    }
+
+    @NonNull
+    private LiteCoreException encodingFailed(@NonNull JSONException e) {
+        return new LiteCoreException(
+            C4Constants.ErrorDomain.LITE_CORE,
+            C4Constants.LiteCoreError.UNEXPECTED_ERROR,
+            "Failed encoding materialized view " + name + ": " + e.getMessage());
+    }
+}
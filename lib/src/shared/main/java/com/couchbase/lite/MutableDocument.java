@@ -18,6 +18,7 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.util.Date;
 import java.util.Locale;
@@ -25,6 +26,7 @@ import java.util.Map;
 import java.util.UUID;
 
 import com.couchbase.lite.internal.core.C4Document;
+import com.couchbase.lite.internal.fleece.FLEncodable;
 
 
 /**
@@ -34,6 +36,10 @@ public final class MutableDocument extends Document implements MutableDictionary
 
     private static String createUUID() { return UUID.randomUUID().toString().toLowerCase(Locale.ENGLISH); }
 
+    // If non-null, the body that is encoded when the document is saved, in place of its dictionary.
+    @Nullable
+    private final FLEncodable body;
+
     //---------------------------------------------
     // Constructors
     //---------------------------------------------
@@ -53,7 +59,7 @@ public final class MutableDocument extends Document implements MutableDictionary
      *
      * @param id the document ID.
      */
-    public MutableDocument(String id) { this(null, id, null); }
+    public MutableDocument(String id) { this(null, id, null, null); }
 
     /**
      * Initializes a new CBLDocument object with a new random UUID and the dictionary as the content.
@@ -78,12 +84,12 @@ public final class MutableDocument extends Document implements MutableDictionary
      * @param data the Map object
      */
     public MutableDocument(String id, Map<String, Object> data) {
-        this(null, id, null);
+        this(null, id, null, null);
         setData(data);
     }
 
     protected MutableDocument(Document doc) {
-        this(doc.getDatabase(), doc.getId(), doc.getC4doc());
+        this(doc.getDatabase(), doc.getId(), doc.getC4doc(), doc.getConnection());
         if (doc.isMutable()) {
             final Dictionary dict = doc.getContent();
             if (dict != null) { setContent(dict.toMutable()); }
@@ -96,12 +102,29 @@ public final class MutableDocument extends Document implements MutableDictionary
     // mutable state, if the source has been changed since it was created
     // the previous constructor will lose those changes when it is encoded.
     MutableDocument(String id, Document doc) {
-        this(doc.getDatabase(), id, null);
+        this(doc.getDatabase(), id, null, null);
         setData(doc.getContent().toMap());
     }
 
-    private MutableDocument(Database database, String id, C4Document c4doc) {
-        super(database, id != null ? id : createUUID(), c4doc);
+    // A document whose body is written directly to the encoder, when it is saved.
+    MutableDocument(@NonNull String id, @NonNull FLEncodable body) { this(null, id, null, null, body); }
+
+    private MutableDocument(
+        Database database,
+        String id,
+        C4Document c4doc,
+        ReaderPool.Connection connection) {
+        this(database, id, c4doc, connection, null);
+    }
+
+    private MutableDocument(
+        Database database,
+        String id,
+        C4Document c4doc,
+        ReaderPool.Connection connection,
+        @Nullable FLEncodable body) {
+        super(database, id != null ? id : createUUID(), c4doc, connection);
+        this.body = body;
     }
 
     //---------------------------------------------
@@ -317,6 +340,13 @@ public final class MutableDocument extends Document implements MutableDictionary
     @Override
     long generation() { return super.generation() + (isChanged() ? 1 : 0); }
 
+    @Override
+    boolean isEmpty() { return (body == null) && super.isEmpty(); }
+
+    @NonNull
+    @Override
+    FLEncodable getEncodable() { return (body != null) ? body : super.getEncodable(); }
+
     //---------------------------------------------
     // Private access
     //---------------------------------------------
@@ -0,0 +1,482 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.couchbase.lite.internal.fleece.FLArray;
+import com.couchbase.lite.internal.fleece.FLConstants;
+import com.couchbase.lite.internal.fleece.FLDict;
+import com.couchbase.lite.internal.fleece.FLDictIterator;
+import com.couchbase.lite.internal.fleece.FLEncodable;
+import com.couchbase.lite.internal.fleece.FLEncoder;
+import com.couchbase.lite.internal.fleece.FLValue;
+import com.couchbase.lite.internal.utils.DateUtils;
+import com.couchbase.lite.utils.Fn;
+
+
+/**
+ * Maps the properties of documents and query results to the fields of plain Java objects.
+ * <p>
+ * A mapped class must have a no-argument constructor.  Each of its fields, and those of its superclasses,
+ * that is neither static nor transient is mapped to the property with the same name.
+ * Fields may be primitives or their boxed types, Strings, Dates (stored as ISO-8601 strings), enums
+ * (stored by name), byte arrays, Blobs, Lists, Sets and Maps with String keys, or other mapped classes.
+ * Properties that are missing, or null, leave the field unchanged.  A property that cannot be converted
+ * to its field's type is an error: reading the object throws an IllegalArgumentException that names
+ * the field and the stored type.
+ * <p>
+ * The fields of a class are found once, and cached.  Values are read directly from the Fleece data,
+ * and objects are written directly to the encoder: no intermediate Maps or Lists are built.
+ * Fleece data must be read holding the lock for the connection from which it was read.
+ */
+final class ObjectMapper<T> {
+    private static final Map<Class<?>, ObjectMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+
+    // A mapped field.
+    private static final class Property {
+        @NonNull
+        final String name;
+        @NonNull
+        final Field field;
+        @NonNull
+        final Type type;
+
+        Property(@NonNull Field field) {
+            this.name = field.getName();
+            this.field = field;
+            this.type = field.getGenericType();
+        }
+    }
+
+    //---------------------------------------------
+    // Factory
+    //---------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    static <T> ObjectMapper<T> forClass(@NonNull Class<T> type) {
+        ObjectMapper<?> mapper = MAPPERS.get(type);
+        if (mapper == null) {
+            mapper = new ObjectMapper<>(type);
+            final ObjectMapper<?> prev = MAPPERS.putIfAbsent(type, mapper);
+            if (prev != null) { mapper = prev; }
+        }
+        return (ObjectMapper<T>) mapper;
+    }
+
+    // A document whose body is the encoded object.
+    @NonNull
+    static MutableDocument toDocument(@NonNull String id, @NonNull Object obj) {
+        final ObjectMapper<?> mapper = forClass(obj.getClass());
+        return new MutableDocument(id, enc -> mapper.encodeObject(obj, enc));
+    }
+
+    //---------------------------------------------
+    // member variables
+    //---------------------------------------------
+    @NonNull
+    private final Class<T> type;
+    @NonNull
+    private final Constructor<T> constructor;
+    @NonNull
+    private final Property[] properties;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    private ObjectMapper(@NonNull Class<T> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isEnum()
+            || Modifier.isAbstract(type.getModifiers()) || isValueType(type)) {
+            throw new IllegalArgumentException("cannot map objects of type " + type.getName() + ".");
+        }
+        this.type = type;
+
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName() + " does not have a no-argument constructor.", e);
+        }
+
+        final List<Property> props = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        for (Class<?> c = type; (c != null) && (c != Object.class); c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                // A field hides a superclass field with the same name.
+                if (!names.add(field.getName())) { continue; }
+                field.setAccessible(true);
+                props.add(new Property(field));
+            }
+        }
+        properties = props.toArray(new Property[0]);
+    }
+
+    //---------------------------------------------
+    // Package level access
+    //---------------------------------------------
+
+    // Call holding the lock for the connection from which the dictionary was read.
+    @NonNull
+    T fromFleece(@NonNull FLDict dict, @NonNull Database db) { return fromFleece(dict::get, db); }
+
+    // Call holding the lock for the connection from which the values were read.
+    @NonNull
+    T fromFleece(@NonNull Fn.Function<String, FLValue> values, @NonNull Database db) {
+        final T obj = newInstance();
+        for (Property prop : properties) {
+            final FLValue value = values.apply(prop.name);
+            if (value == null) { continue; }
+            try { setField(obj, prop, decodeFleece(value, prop.type, db)); }
+            catch (IllegalArgumentException e) { throw mismatch(prop, e); }
+        }
+        return obj;
+    }
+
+    // Reads a mutable document's current properties.
+    @NonNull
+    T fromDictionary(@NonNull DictionaryInterface dict) {
+        final T obj = newInstance();
+        for (Property prop : properties) {
+            if (!dict.contains(prop.name)) { continue; }
+            try { setField(obj, prop, decodeNative(dict.getValue(prop.name), prop.type)); }
+            catch (IllegalArgumentException e) { throw mismatch(prop, e); }
+        }
+        return obj;
+    }
+
+    void encodeObject(@NonNull Object obj, @NonNull FLEncoder enc) {
+        enc.beginDict(properties.length);
+        for (Property prop : properties) {
+            final Object value;
+            try { value = prop.field.get(obj); }
+            catch (IllegalAccessException e) {
+                throw new IllegalStateException("cannot read field " + prop.name + " of " + type.getName(), e);
+            }
+            if (value == null) { continue; }
+            enc.writeKey(prop.name);
+            encodeValue(value, enc);
+        }
+        enc.endDict();
+    }
+
+    //---------------------------------------------
+    // Private (class only)
+    //---------------------------------------------
+
+    @NonNull
+    private T newInstance() {
+        try { return constructor.newInstance(); }
+        catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("cannot create an instance of " + type.getName(), e);
+        }
+    }
+
+    @NonNull
+    private IllegalArgumentException mismatch(@NonNull Property prop, @NonNull IllegalArgumentException e) {
+        return new IllegalArgumentException("field " + prop.name + " of " + type.getName() + ": " + e.getMessage(), e);
+    }
+
+    // A null value leaves the field unchanged.
+    private void setField(@NonNull T obj, @NonNull Property prop, @Nullable Object value) {
+        if (value == null) { return; }
+        try { prop.field.set(obj, value); }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("cannot set field " + prop.name + " of " + type.getName(), e);
+        }
+    }
+
+    //---------------------------------------------
+    // Decoding
+    //---------------------------------------------
+
+    // Returns null if the value is null.
+    // Throws IllegalArgumentException if the value cannot be converted to the type.
+    @Nullable
+    private static Object decodeFleece(@NonNull FLValue value, @NonNull Type type, @NonNull Database db) {
+        final Class<?> raw = rawClass(type);
+        switch (value.getType()) {
+            case FLConstants.ValueType.ARRAY:
+                return decodeFleeceArray(value.asFLArray(), type, raw, db);
+            case FLConstants.ValueType.DICT:
+                return decodeFleeceDict(value.asFLDict(), type, raw, db);
+            case FLConstants.ValueType.DATA:
+                return (raw == byte[].class)
+                    ? value.asData()
+                    : convertScalar(new Blob("application/octet-stream", value.asData()), raw);
+            case FLConstants.ValueType.NULL:
+            case FLConstants.ValueType.UNDEFINED:
+                return null;
+            default:
+                return convertScalar(value.asObject(), raw);
+        }
+    }
+
+    @Nullable
+    private static Object decodeFleeceArray(
+        @NonNull FLArray array,
+        @NonNull Type type,
+        @NonNull Class<?> raw,
+        @NonNull Database db) {
+        final Collection<Object> items = newCollection(raw);
+        if (items == null) { throw typeMismatch("Array", raw); }
+
+        final Type itemType = typeArgument(type, 0);
+        final long n = array.count();
+        for (long i = 0; i < n; i++) {
+            items.add(decodeFleece(array.get(i), itemType, db));
+        }
+        return items;
+    }
+
+    @Nullable
+    private static Object decodeFleeceDict(
+        @NonNull FLDict dict,
+        @NonNull Type type,
+        @NonNull Class<?> raw,
+        @NonNull Database db) {
+        if (isBlob(dict)) { return convertScalar(new Blob(db, dict.asDict()), raw); }
+
+        if ((raw == Object.class) || Map.class.isAssignableFrom(raw)) {
+            if (!raw.isAssignableFrom(LinkedHashMap.class)) { throw typeMismatch("Dictionary", raw); }
+
+            final Type itemType = typeArgument(type, 1);
+            final Map<String, Object> items = new LinkedHashMap<>();
+            final FLDictIterator itr = new FLDictIterator();
+            try {
+                itr.begin(dict);
+                String key;
+                while ((key = itr.getKeyString()) != null) {
+                    items.put(key, decodeFleece(itr.getValue(), itemType, db));
+                    itr.next();
+                }
+            }
+            finally {
+                itr.free();
+            }
+            return items;
+        }
+
+        if (!isMappable(raw)) { throw typeMismatch("Dictionary", raw); }
+        return forClass(raw).fromFleece(dict, db);
+    }
+
+    // Returns null if the value is null.
+    // Throws IllegalArgumentException if the value cannot be converted to the type.
+    @Nullable
+    private static Object decodeNative(@Nullable Object value, @NonNull Type type) {
+        if (value == null) { return null; }
+
+        final Class<?> raw = rawClass(type);
+
+        if (value instanceof Array) {
+            final Collection<Object> items = newCollection(raw);
+            if (items == null) { throw typeMismatch("Array", raw); }
+
+            final Type itemType = typeArgument(type, 0);
+            final Array array = (Array) value;
+            final int n = array.count();
+            for (int i = 0; i < n; i++) { items.add(decodeNative(array.getValue(i), itemType)); }
+            return items;
+        }
+
+        if (value instanceof Dictionary) {
+            final Dictionary dict = (Dictionary) value;
+            if ((raw == Object.class) || Map.class.isAssignableFrom(raw)) {
+                if (!raw.isAssignableFrom(LinkedHashMap.class)) { throw typeMismatch("Dictionary", raw); }
+
+                final Type itemType = typeArgument(type, 1);
+                final Map<String, Object> items = new LinkedHashMap<>();
+                for (String key : dict.getKeys()) { items.put(key, decodeNative(dict.getValue(key), itemType)); }
+                return items;
+            }
+
+            if (!isMappable(raw)) { throw typeMismatch("Dictionary", raw); }
+            return forClass(raw).fromDictionary(dict);
+        }
+
+        if ((value instanceof Blob) && (raw == byte[].class)) { return ((Blob) value).getContent(); }
+
+        return convertScalar(value, raw);
+    }
+
+    // Returns null if the value is null.
+    // Throws IllegalArgumentException if the value cannot be converted to the type.
+    @SuppressWarnings({"unchecked", "rawtypes", "PMD.CyclomaticComplexity"})
+    @Nullable
+    private static Object convertScalar(@Nullable Object value, @NonNull Class<?> raw) {
+        if (value == null) { return null; }
+
+        final Class<?> target = boxed(raw);
+        if (target.isInstance(value)) { return value; }
+
+        if (value instanceof Number) {
+            final Number n = (Number) value;
+            if (target == Integer.class) { return n.intValue(); }
+            if (target == Long.class) { return n.longValue(); }
+            if (target == Double.class) { return n.doubleValue(); }
+            if (target == Float.class) { return n.floatValue(); }
+            if (target == Short.class) { return n.shortValue(); }
+            if (target == Byte.class) { return n.byteValue(); }
+            if (target == Date.class) { return new Date(n.longValue()); }
+        }
+        else if (value instanceof String) {
+            final String str = (String) value;
+            if (target == Date.class) {
+                final Date date = DateUtils.fromJson(str);
+                if (date != null) { return date; }
+            }
+            else if (target.isEnum()) {
+                try { return Enum.valueOf((Class<? extends Enum>) target, str); }
+                catch (IllegalArgumentException ignore) { }
+            }
+            else if ((target == Character.class) && (str.length() == 1)) { return str.charAt(0); }
+        }
+
+        throw typeMismatch(value.getClass().getSimpleName(), raw);
+    }
+
+    @NonNull
+    private static IllegalArgumentException typeMismatch(@NonNull String stored, @NonNull Class<?> raw) {
+        return new IllegalArgumentException("cannot convert the stored " + stored + " to " + raw.getName());
+    }
+
+    //---------------------------------------------
+    // Encoding
+    //---------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static void encodeValue(@Nullable Object value, @NonNull FLEncoder enc) {
+        if (value == null) { enc.writeNull(); }
+        else if ((value instanceof String) || (value instanceof Boolean) || (value instanceof byte[])
+            || (value instanceof FLEncodable)) {
+            enc.writeValue(value);
+        }
+        else if (value instanceof Number) { encodeNumber((Number) value, enc); }
+        else if (value instanceof Date) { enc.writeString(DateUtils.toJson((Date) value)); }
+        else if (value instanceof Enum) { enc.writeString(((Enum<?>) value).name()); }
+        else if (value instanceof Character) { enc.writeString(value.toString()); }
+        else if (value instanceof Collection) {
+            final Collection<Object> items = (Collection<Object>) value;
+            enc.beginArray(items.size());
+            for (Object item : items) { encodeValue(item, enc); }
+            enc.endArray();
+        }
+        else if (value instanceof Map) {
+            final Map<Object, Object> items = (Map<Object, Object>) value;
+            enc.beginDict(items.size());
+            for (Map.Entry<Object, Object> entry : items.entrySet()) {
+                enc.writeKey(String.valueOf(entry.getKey()));
+                encodeValue(entry.getValue(), enc);
+            }
+            enc.endDict();
+        }
+        else { forClass(value.getClass()).encodeObject(value, enc); }
+    }
+
+    // The encoder handles only some of the Number types.
+    private static void encodeNumber(@NonNull Number value, @NonNull FLEncoder enc) {
+        if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short)
+            || (value instanceof Double) || (value instanceof Float)) {
+            enc.writeValue(value);
+        }
+        else if (value instanceof Byte) { enc.writeValue(value.longValue()); }
+        else { enc.writeValue(value.doubleValue()); }
+    }
+
+    //---------------------------------------------
+    // Types
+    //---------------------------------------------
+
+    @NonNull
+    private static Class<?> rawClass(@NonNull Type type) {
+        if (type instanceof Class) { return (Class<?>) type; }
+        if (type instanceof ParameterizedType) { return rawClass(((ParameterizedType) type).getRawType()); }
+        return Object.class;
+    }
+
+    // The type argument of a parameterized collection or map: Object if there is none.
+    @NonNull
+    private static Type typeArgument(@NonNull Type type, int index) {
+        if (!(type instanceof ParameterizedType)) { return Object.class; }
+        final Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+        return (index < args.length) ? args[index] : Object.class;
+    }
+
+    // Returns null if a collection of the type cannot be created.
+    @Nullable
+    private static Collection<Object> newCollection(@NonNull Class<?> raw) {
+        if (raw.isAssignableFrom(ArrayList.class)) { return new ArrayList<>(); }
+        if (raw.isAssignableFrom(LinkedHashSet.class)) { return new LinkedHashSet<>(); }
+        return null;
+    }
+
+    private static boolean isBlob(@NonNull FLDict dict) {
+        final FLValue flType = dict.get(Blob.META_PROP_TYPE);
+        return (flType != null) && Blob.TYPE_BLOB.equals(flType.asString());
+    }
+
+    private static boolean isMappable(@NonNull Class<?> raw) {
+        return !(raw.isPrimitive() || raw.isArray() || raw.isInterface() || raw.isEnum()
+            || Modifier.isAbstract(raw.getModifiers()) || isValueType(raw));
+    }
+
+    private static boolean isValueType(@NonNull Class<?> type) {
+        return (type == String.class) || (type == Boolean.class) || (type == Character.class)
+            || Number.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type)
+            || Blob.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type)
+            || Map.class.isAssignableFrom(type) || DictionaryInterface.class.isAssignableFrom(type)
+            || ArrayInterface.class.isAssignableFrom(type);
+    }
+
+    @NonNull
+    private static Class<?> boxed(@NonNull Class<?> type) {
+        if (!type.isPrimitive()) { return type; }
+        if (type == int.class) { return Integer.class; }
+        if (type == long.class) { return Long.class; }
+        if (type == double.class) { return Double.class; }
+        if (type == boolean.class) { return Boolean.class; }
+        if (type == float.class) { return Float.class; }
+        if (type == short.class) { return Short.class; }
+        if (type == byte.class) { return Byte.class; }
+        if (type == char.class) { return Character.class; }
+        return type;
+    }
+}
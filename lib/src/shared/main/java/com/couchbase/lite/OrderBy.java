@@ -23,6 +23,8 @@ import android.support.annotation.NonNull;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * An OrderBy represents an ORDER BY clause of the query for specifying properties or expressions
@@ -90,4 +92,10 @@ public final class OrderBy extends AbstractQuery implements LimitRouter {
         for (Ordering ordering : orderings) { json.add(ordering.asJSON()); }
         return json;
     }
+
+    void writeJSON(@NonNull JsonWriter writer) {
+        writer.beginArray();
+        for (Ordering ordering : orderings) { ordering.writeJSON(writer); }
+        writer.endArray();
+    }
 }
@@ -22,6 +22,8 @@ import android.support.annotation.NonNull;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * An Ordering represents a single ordering component in the query ORDER BY clause.
@@ -66,6 +68,10 @@ public abstract class Ordering {
             return this;
         }
 
+        Expression getExpression() { return expression; }
+
+        boolean isAscending() { return isAscending; }
+
         Object asJSON() {
             if (isAscending) { return expression.asJSON(); }
 
@@ -74,6 +80,18 @@ public abstract class Ordering {
             json.add(expression.asJSON());
             return json;
         }
+
+        @Override
+        void writeJSON(@NonNull JsonWriter writer) {
+            if (isAscending) {
+                expression.writeJSON(writer);
+                return;
+            }
+
+            writer.beginArray().value("DESC");
+            expression.writeJSON(writer);
+            writer.endArray();
+        }
     }
 
     //---------------------------------------------
@@ -118,4 +136,6 @@ public abstract class Ordering {
     //---------------------------------------------
 
     abstract Object asJSON();
+
+    abstract void writeJSON(@NonNull JsonWriter writer);
 }
@@ -17,15 +17,18 @@
 //
 package com.couchbase.lite;
 
+import android.support.annotation.GuardedBy;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import com.couchbase.lite.internal.fleece.AllocSlice;
 import com.couchbase.lite.internal.fleece.FLEncoder;
+import com.couchbase.lite.internal.utils.JsonWriter;
 import com.couchbase.lite.internal.utils.Preconditions;
 
 
@@ -33,6 +36,27 @@ import com.couchbase.lite.internal.utils.Preconditions;
  * A Parameters object used for setting values to the query parameters defined in the query.
  */
 public final class Parameters {
+    //---------------------------------------------
+    // static variables
+    //---------------------------------------------
+
+    // An encoder for a single thread.  It is freed when the thread is gone.
+    private static final class ThreadEncoder {
+        @NonNull
+        final FLEncoder encoder = new FLEncoder();
+
+        @SuppressWarnings("NoFinalizer")
+        @Override
+        protected void finalize() throws Throwable {
+            encoder.free();
+            super.finalize();
+        }
+    }
+
+    private static final ThreadLocal<ThreadEncoder> ENCODERS = new ThreadLocal<ThreadEncoder>() {
+        @Override
+        protected ThreadEncoder initialValue() { return new ThreadEncoder(); }
+    };
 
     //---------------------------------------------
     // member variables
@@ -41,6 +65,13 @@ public final class Parameters {
     private final Map<String, Object> map;
     private final boolean readonly;
 
+    private final Object lock = new Object();
+
+    // The encoded parameters: created when first needed, and freed when the parameters change.
+    @GuardedBy("lock")
+    @Nullable
+    private AllocSlice encoded;
+
     //---------------------------------------------
     // Constructors
     //---------------------------------------------
@@ -49,7 +80,8 @@ public final class Parameters {
     public Parameters(@Nullable Parameters parameters) { this(parameters, false); }
 
     private Parameters(@Nullable Parameters parameters, boolean readonly) {
-        map = (parameters == null) ? new HashMap<>() : new HashMap<>(parameters.map);
+        if (parameters == null) { map = new HashMap<>(); }
+        else { synchronized (parameters.lock) { map = new HashMap<>(parameters.map); } }
         this.readonly = readonly;
     }
 
@@ -66,7 +98,7 @@ public final class Parameters {
     @Nullable
     public Object getValue(@NonNull String name) {
         Preconditions.checkArgNotNull(name, "name");
-        return map.get(name);
+        synchronized (lock) { return map.get(name); }
     }
 
     /**
@@ -202,21 +234,73 @@ public final class Parameters {
     public Parameters setValue(@NonNull String name, @Nullable Object value) {
         Preconditions.checkArgNotNull(name, "name");
         if (readonly) { throw new IllegalStateException("Parameters is readonly mode."); }
-        map.put(name, value);
+        synchronized (lock) {
+            map.put(name, value);
+            freeEncoded();
+        }
         return this;
     }
 
+    //---------------------------------------------
+    // protected methods
+    //---------------------------------------------
+
+    @SuppressWarnings("NoFinalizer")
+    @Override
+    protected void finalize() throws Throwable {
+        synchronized (lock) { freeEncoded(); }
+        super.finalize();
+    }
+
     //---------------------------------------------
     // package level access
     //---------------------------------------------
     Parameters readonlyCopy() { return new Parameters(this, true); }
 
-    AllocSlice encode() throws LiteCoreException {
-        final FLEncoder encoder = new FLEncoder();
+    // A JSON encoding of the parameters, with their names in order, so that equal parameters have equal keys.
+    // Null if any of the values cannot be written as JSON.
+    @Nullable
+    String getKey() {
+        final Map<String, Object> sorted;
+        synchronized (lock) { sorted = new TreeMap<>(map); }
+        try { return new JsonWriter().value(sorted).toString(); }
+        catch (IllegalArgumentException e) { return null; }
+    }
+
+    // The encoded parameters, cached until the parameters change.  The slice belongs to this object:
+    // the caller must not free it, and must not use it after the parameters change or are freed.
+    // Parameters that another thread might change must be copied with readonlyCopy before they are encoded.
+    @NonNull
+    AllocSlice getEncoded() throws LiteCoreException {
+        synchronized (lock) {
+            if (encoded == null) { encoded = encode(ENCODERS.get().encoder); }
+            return encoded;
+        }
+    }
+
+    // Free the encoded parameters now, instead of when this object is finalized.
+    void free() {
+        synchronized (lock) { freeEncoded(); }
+    }
+
+    //---------------------------------------------
+    // Private level access
+    //---------------------------------------------
+
+    // The encoder is reused: it is reset, ready for the next use.
+    @NonNull
+    private AllocSlice encode(@NonNull FLEncoder encoder) throws LiteCoreException {
         try {
             encoder.write(map);
             return encoder.finish2();
         }
-        finally { encoder.free(); }
+        finally { encoder.reset(); }
+    }
+
+    // Call holding the lock.
+    private void freeEncoded() {
+        if (encoded == null) { return; }
+        encoded.free();
+        encoded = null;
     }
 }
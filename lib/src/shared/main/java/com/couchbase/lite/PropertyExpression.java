@@ -22,6 +22,8 @@ import android.support.annotation.NonNull;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * Property expression
@@ -80,6 +82,15 @@ public final class PropertyExpression extends Expression {
         return json;
     }
 
+    @Override
+    void writeJSON(@NonNull JsonWriter writer) {
+        writer.beginArray().value((fromAlias != null) ? ("." + fromAlias + "." + keyPath) : ("." + keyPath)).endArray();
+    }
+
+    String getKeyPath() { return keyPath; }
+
+    String getFromAlias() { return fromAlias; }
+
     String getColumnName() {
         if (columnName == null) {
             final String[] paths = keyPath.split("\\.");
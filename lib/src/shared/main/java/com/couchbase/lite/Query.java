@@ -18,7 +18,9 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 
 
@@ -59,6 +61,61 @@ public interface Query {
     @NonNull
     ResultSet execute() throws CouchbaseLiteException;
 
+    /**
+     * Executes the query, failing if it has not run within the given time.
+     * The timeout is checked when the query has acquired a database connection, again when it has run,
+     * and before each batch of rows is read from the result set.  If the query takes too long to run,
+     * its results are discarded and this method throws a CouchbaseLiteException with the code
+     * CBLError.Code.TIMEOUT.  If the timeout expires while the rows are being read, the result set
+     * ends early.  A query cannot be interrupted once it has started running, so the timeout does not
+     * bound the time for which the query holds its connection, which may be the database's own lock.
+     *
+     * @param timeoutMs the timeout, in milliseconds, or 0 for no timeout
+     * @return the ResultSet for the query result.
+     * @throws CouchbaseLiteException if there is an error when running the query, or the query times out.
+     */
+    @NonNull
+    ResultSet execute(long timeoutMs) throws CouchbaseLiteException;
+
+    /**
+     * Executes the query in the background, and passes the results to the listener.
+     * The results, or the error that prevented them, are delivered as a QueryChange, on the
+     * executor if it is not null or otherwise on the main thread, as for change listeners.
+     * The returned handle may be used to cancel the execution: the listener is not called
+     * for an execution that has been cancelled.
+     *
+     * @param executor the executor on which the listener is called, or null
+     * @param listener the listener to receive the results
+     * @return a handle with which to cancel the execution
+     */
+    @NonNull
+    QueryExecution executeAsync(@Nullable Executor executor, @NonNull QueryChangeListener listener);
+
+    /**
+     * Executes the query once for each of a list of parameter sets, and returns the result sets
+     * in the same order.  The query is compiled once, and the parameters are encoded with a single encoder.
+     * The parameters set with setParameters are ignored: a null entry in the list means no parameters.
+     * Each result set must be closed, when its results are no longer needed.
+     *
+     * @param parameterSets the parameter sets
+     * @return a ResultSet for each parameter set.
+     * @throws CouchbaseLiteException if there is an error when running the query.
+     */
+    @NonNull
+    List<ResultSet> executeBatch(@NonNull List<Parameters> parameterSets) throws CouchbaseLiteException;
+
+    /**
+     * Executes the query once for each of a list of parameter sets, and passes each result set
+     * to the listener, in order, as soon as it is available.  Each result set is closed when the
+     * listener returns, so that no more than one is open at a time.
+     *
+     * @param parameterSets the parameter sets
+     * @param listener      the listener to receive the results
+     * @throws CouchbaseLiteException if there is an error when running the query, or the listener throws one.
+     */
+    void executeBatch(@NonNull List<Parameters> parameterSets, @NonNull QueryBatchListener listener)
+        throws CouchbaseLiteException;
+
     /**
      * Returns a string describing the implementation of the compiled query.
      * This is intended to be read by a developer for purposes of optimizing the query, especially
@@ -76,6 +133,22 @@ public interface Query {
     @NonNull
     String explain() throws CouchbaseLiteException;
 
+    /**
+     * Returns the number of rows in the query's results, without creating Result objects for them.
+     *
+     * @return the number of rows.
+     * @throws CouchbaseLiteException if there is an error when running the query.
+     */
+    long count() throws CouchbaseLiteException;
+
+    /**
+     * Returns true if the query has at least one result row, without creating Result objects.
+     *
+     * @return true if the query has results.
+     * @throws CouchbaseLiteException if there is an error when running the query.
+     */
+    boolean exists() throws CouchbaseLiteException;
+
     /**
      * Adds a change listener for the changes that occur in the query results.
      * The changes will be delivered on the UI thread for the Android platform and on an arbitrary
@@ -109,4 +182,33 @@ public interface Query {
      * @param token The listener token.
      */
     void removeChangeListener(@NonNull ListenerToken token);
+
+    /**
+     * Returns a copy of the configuration that controls how the query is refreshed
+     * while it has change listeners.
+     *
+     * @return the live query configuration.
+     */
+    @NonNull
+    LiveQueryConfiguration getLiveQueryConfiguration();
+
+    /**
+     * Sets the configuration that controls how the query is refreshed while it has change listeners.
+     * The configuration is copied.  If the query has listeners, it is run again with the new configuration.
+     *
+     * @param config the live query configuration: null for the default configuration.
+     */
+    void setLiveQueryConfiguration(@Nullable LiveQueryConfiguration config);
+
+    /**
+     * Returns statistics about the database changes that the query has seen while it had change listeners:
+     * how many there were, how many could not have affected its results and so were skipped,
+     * and how many times it was refreshed.
+     * Identical queries, with the same parameters and configuration, share a single live query:
+     * the statistics are those of the shared live query.
+     *
+     * @return the live query statistics.
+     */
+    @NonNull
+    LiveQueryStats getLiveQueryStats();
 }
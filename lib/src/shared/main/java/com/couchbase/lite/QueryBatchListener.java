@@ -0,0 +1,35 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * The listener interface for receiving the results of a batch query execution, one parameter set at a time.
+ */
+public interface QueryBatchListener {
+    /**
+     * The callback function from Query.executeBatch.
+     * It is called on the thread that called executeBatch, in the order of the parameter sets.
+     * The result set is closed when this method returns: read the rows that are needed before returning.
+     *
+     * @param index   the index of the parameter set, in the list passed to executeBatch
+     * @param results the results of the query, run with that parameter set
+     * @throws CouchbaseLiteException to stop the batch: executeBatch rethrows it
+     */
+    void results(int index, @NonNull ResultSet results) throws CouchbaseLiteException;
+}
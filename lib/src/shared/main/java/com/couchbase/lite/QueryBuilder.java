@@ -18,6 +18,9 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
 
 
 public class QueryBuilder {
@@ -51,6 +54,84 @@ public class QueryBuilder {
         return new Select(true, results);
     }
 
+    /**
+     * Create a query for a page of results, using keyset pagination: the page starts after the last row
+     * of the previous page, as identified by the values of its sort keys, rather than at an offset.
+     * The database can use an index on the sort keys to find the start of the page, so reading a page
+     * takes time proportional to the page size, however deep into the results it is.
+     * <p>
+     * The query is: {@code WHERE <where> AND <sort keys after lastKey> ORDER BY <orderings> LIMIT <pageSize>}.
+     * The orderings must identify rows uniquely (end them with Meta.id, if necessary), and the sort keys
+     * must not be null or missing in any row: otherwise, rows may be skipped or repeated.
+     *
+     * @param from      the SELECT and FROM clauses of the query.
+     * @param where     the query's own WHERE clause, or null.
+     * @param orderings the sort orders.
+     * @param lastKey   the values of the sort keys in the last row of the previous page,
+     *                  in the same order as the orderings: null for the first page.
+     * @param pageSize  the maximum number of rows in the page.
+     * @return the query for the page.
+     */
+    @NonNull
+    public static Limit keysetPage(
+        @NonNull From from,
+        @Nullable Expression where,
+        @NonNull List<Ordering.SortOrder> orderings,
+        @Nullable List<Object> lastKey,
+        int pageSize) {
+        if (from == null) { throw new IllegalArgumentException("from cannot be null."); }
+        if ((orderings == null) || orderings.isEmpty()) {
+            throw new IllegalArgumentException("orderings cannot be null or empty.");
+        }
+        if (pageSize <= 0) { throw new IllegalArgumentException("page size must be positive."); }
+
+        Expression predicate = where;
+        if (lastKey != null) {
+            final Expression after = getKeysetPredicate(orderings, lastKey);
+            predicate = (predicate == null) ? after : predicate.and(after);
+        }
+
+        final Ordering[] order = orderings.toArray(new Ordering[0]);
+        final Expression limit = Expression.intValue(pageSize);
+        return (predicate == null)
+            ? from.orderBy(order).limit(limit)
+            : from.where(predicate).orderBy(order).limit(limit);
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    // Rows after the key, in the sort order: for keys (k1, k2, ...) and values (v1, v2, ...)
+    // (k1 > v1) OR (k1 = v1 AND k2 > v2) OR ..., with < in place of > for descending keys.
+    @NonNull
+    private static Expression getKeysetPredicate(
+        @NonNull List<Ordering.SortOrder> orderings,
+        @NonNull List<Object> key) {
+        if (key.size() != orderings.size()) {
+            throw new IllegalArgumentException("last key must have a value for each ordering.");
+        }
+
+        Expression predicate = null;
+        Expression equalPrefix = null;
+        for (int i = 0; i < orderings.size(); i++) {
+            final Ordering.SortOrder ordering = orderings.get(i);
+            final Object value = key.get(i);
+            if (value == null) { throw new IllegalArgumentException("last key values cannot be null."); }
+
+            final Expression keyExpr = ordering.getExpression();
+            final Expression valueExpr = Expression.value(value);
+            Expression after = ordering.isAscending() ? keyExpr.greaterThan(valueExpr) : keyExpr.lessThan(valueExpr);
+            if (equalPrefix != null) { after = equalPrefix.and(after); }
+            predicate = (predicate == null) ? after : predicate.or(after);
+
+            final Expression equal = keyExpr.equalTo(valueExpr);
+            equalPrefix = (equalPrefix == null) ? equal : equalPrefix.and(equal);
+        }
+
+        return predicate;
+    }
+
     //---------------------------------------------
     // Constructor
     //---------------------------------------------
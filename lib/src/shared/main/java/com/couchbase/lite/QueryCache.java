@@ -0,0 +1,123 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.couchbase.lite.internal.core.C4Query;
+
+
+/**
+ * An LRU cache of compiled queries, by their JSON encoding, for a single connection.
+ * <p>
+ * The cache owns its queries: a cached query may be used by any number of Query objects,
+ * but only while holding the connection's lock.  It is freed when it is evicted, when it is found
+ * to be stale, or when the cache is cleared, always by a thread holding the connection's lock.
+ * A query compiled before the database's indexes changed may have been planned without an index
+ * that now exists, or may refer to one that is gone: invalidating the cache makes all of its queries stale.
+ * Invalidation does not need the connection's lock, so a thread changing the indexes on one connection
+ * need not take the locks of the others.
+ */
+final class QueryCache {
+    private static final class CachedQuery {
+        @NonNull
+        final C4Query query;
+        final long generation;
+
+        CachedQuery(@NonNull C4Query query, long generation) {
+            this.query = query;
+            this.generation = generation;
+        }
+    }
+
+    private final int capacity;
+
+    @GuardedBy("this")
+    @NonNull
+    private final Map<String, CachedQuery> entries;
+
+    @GuardedBy("this")
+    private long generation;
+    @GuardedBy("this")
+    private long hits;
+    @GuardedBy("this")
+    private long misses;
+
+    QueryCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, CachedQuery>(16, 0.75F, true) {
+            // Called from put: the caller holds the connection's lock.
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest) {
+                if (size() <= QueryCache.this.capacity) { return false; }
+                eldest.getValue().query.free();
+                return true;
+            }
+        };
+    }
+
+    // Call holding the connection's lock.
+    @Nullable
+    synchronized C4Query get(@NonNull String json) {
+        final CachedQuery entry = entries.get(json);
+        if ((entry != null) && (entry.generation == generation)) {
+            hits++;
+            return entry.query;
+        }
+
+        // stale
+        if (entry != null) {
+            entries.remove(json);
+            entry.query.free();
+        }
+
+        misses++;
+        return null;
+    }
+
+    synchronized long getGeneration() { return generation; }
+
+    // Call holding the connection's lock.
+    // The query must have been compiled after the generation was read: if the cache has been
+    // invalidated since, the query is cached anyway but will be found to be stale.
+    synchronized void put(@NonNull String json, @NonNull C4Query query, long queryGeneration) {
+        final CachedQuery prev = entries.put(json, new CachedQuery(query, queryGeneration));
+        if ((prev != null) && (prev.query != query)) { prev.query.free(); }
+    }
+
+    // The database's indexes have changed.
+    synchronized void invalidate() { generation++; }
+
+    // Call holding the connection's lock.
+    void clear() {
+        final List<CachedQuery> cleared;
+        synchronized (this) {
+            cleared = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        for (CachedQuery entry : cleared) { entry.query.free(); }
+    }
+
+    @NonNull
+    synchronized CacheStats getStats() { return new CacheStats(hits, misses, entries.size(), capacity); }
+}
@@ -18,6 +18,9 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
 
 
 /**
@@ -31,14 +34,18 @@ public final class QueryChange {
     private final Query query;
     private final ResultSet rs;
     private final Throwable error;
+    private final ResultDelta delta;
 
     //---------------------------------------------
     // constructors
     //---------------------------------------------
-    QueryChange(Query query, ResultSet rs, Throwable error) {
+    QueryChange(Query query, ResultSet rs, Throwable error) { this(query, rs, error, null); }
+
+    QueryChange(Query query, ResultSet rs, Throwable error, ResultDelta delta) {
         this.query = query;
         this.rs = rs;
         this.error = error;
+        this.delta = delta;
     }
 
     //---------------------------------------------
@@ -55,6 +62,8 @@ public final class QueryChange {
 
     /**
      * Return the new query result.
+     * Each listener gets its own copy of the result: iterating or closing it does not affect
+     * the other listeners.
      */
     @NonNull
     public ResultSet getResults() {
@@ -67,4 +76,48 @@ public final class QueryChange {
     public Throwable getError() {
         return error;
     }
+
+    /**
+     * Return the rows that are in the new query result but were not in the previous one.
+     * In the first change reported to a listener, all of the rows are inserted.
+     * Returns null unless deltas are enabled in the query's LiveQueryConfiguration,
+     * or if the previous result was closed before this change was computed.
+     */
+    @Nullable
+    public List<Result> getInsertedResults() {
+        return (delta == null) ? null : delta.getInserted();
+    }
+
+    /**
+     * Return the rows that were in the previous query result but are not in the new one.
+     * These rows belong to the previous result: closing a listener's copy of it does not free them.
+     * Returns null unless deltas are enabled in the query's LiveQueryConfiguration,
+     * or if the previous result was closed before this change was computed.
+     */
+    @Nullable
+    public List<Result> getRemovedResults() {
+        return (delta == null) ? null : delta.getRemoved();
+    }
+
+    /**
+     * Return the rows in the new query result whose key was in the previous one, but whose other values changed.
+     * This list is always empty unless the query's LiveQueryConfiguration specifies a delta key.
+     * Returns null unless deltas are enabled in the query's LiveQueryConfiguration,
+     * or if the previous result was closed before this change was computed.
+     */
+    @Nullable
+    public List<Result> getUpdatedResults() {
+        return (delta == null) ? null : delta.getUpdated();
+    }
+
+    //---------------------------------------------
+    // Package level access
+    //---------------------------------------------
+
+    // The same change, reported to one listener of a query that shares the live query.
+    // The listener gets its own copy of the results, which must have been read ahead.
+    @NonNull
+    QueryChange copyForQuery(@NonNull Query query) {
+        return new QueryChange(query, (rs == null) ? null : rs.copy(), error, delta);
+    }
 }
@@ -0,0 +1,119 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A handle on an execution of a query, that may be cancelled.
+ * <p>
+ * Once LiteCore has started running a query it cannot be interrupted: an execution is checked
+ * for cancellation, and for its deadline, when it has acquired its connection, again when the query
+ * has run, and before each batch of rows is read from its results.  A deadline therefore bounds
+ * the wait for the connection and the reading of the rows, but not the time that LiteCore spends
+ * running the query, holding the connection's lock.
+ * A cancelled execution's results are discarded, and its listener is not called.
+ * If the results have already been delivered, cancelling the execution ends their iteration at the
+ * next batch of rows.  It does not close them: the rows that were read can still be used.
+ */
+public final class QueryExecution {
+    //---------------------------------------------
+    // member variables
+    //---------------------------------------------
+    private final Object lock = new Object();
+
+    // The System.nanoTime() after which the execution times out, if hasDeadline is true.
+    private final long deadline;
+    private final boolean hasDeadline;
+
+    @GuardedBy("lock")
+    private boolean cancelled;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    // A timeout of 0 means no timeout.
+    QueryExecution(long timeoutMs) {
+        hasDeadline = timeoutMs > 0;
+        deadline = (!hasDeadline) ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    //---------------------------------------------
+    // API - public methods
+    //---------------------------------------------
+
+    /**
+     * Cancel the execution.  If the query has not yet run, it is not run.  If its results have not yet been
+     * delivered, they are discarded.  If they have been delivered, no more rows are read from them:
+     * the rows that have already been read remain valid until the results are closed.
+     * It is safe to call this method more than once.
+     */
+    public void cancel() {
+        synchronized (lock) { cancelled = true; }
+    }
+
+    /**
+     * Returns true if the execution has been cancelled.
+     *
+     * @return true if the execution has been cancelled
+     */
+    public boolean isCancelled() {
+        synchronized (lock) { return cancelled; }
+    }
+
+    //---------------------------------------------
+    // Package level access
+    //---------------------------------------------
+
+    /**
+     * Decide whether the execution should continue.
+     *
+     * @param profile the execution's profile, which records the cancellation or timeout
+     * @return false if the execution has been cancelled
+     * @throws CouchbaseLiteException if the execution has passed its deadline
+     */
+    boolean proceed(@Nullable QueryProfiler.Execution profile) throws CouchbaseLiteException {
+        if (isCancelled()) {
+            if (profile != null) { profile.cancelled(); }
+            return false;
+        }
+
+        if (hasDeadline && (System.nanoTime() - deadline > 0)) {
+            if (profile != null) { profile.timedOut(); }
+            throw new CouchbaseLiteException("QueryTimedOut", CBLError.Domain.CBLITE, CBLError.Code.TIMEOUT);
+        }
+
+        return true;
+    }
+
+    /**
+     * Decide whether the results should be delivered.  Results that are not delivered are closed.
+     * Results that have been delivered are never closed by the execution: the recipient may be using them.
+     *
+     * @param rs the results, or null if the query failed
+     * @return false if the execution has been cancelled: the results have been closed and must not be delivered
+     */
+    boolean deliver(@Nullable ResultSet rs) {
+        if (!isCancelled()) { return true; }
+        if (rs != null) { rs.close(); }
+        return false;
+    }
+}
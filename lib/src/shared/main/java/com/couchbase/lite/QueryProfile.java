@@ -0,0 +1,144 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+
+/**
+ * A snapshot of the execution statistics for all of the queries with the same JSON encoding.
+ */
+public final class QueryProfile {
+    @NonNull
+    private final String json;
+    private final long executions;
+    private final long slowExecutions;
+    private final long cancelledExecutions;
+    private final long timedOutExecutions;
+    private final long rows;
+    @NonNull
+    private final LatencyHistogram compileTimes;
+    @NonNull
+    private final LatencyHistogram runTimes;
+    @NonNull
+    private final LatencyHistogram firstRowTimes;
+    @NonNull
+    private final LatencyHistogram enumerationTimes;
+    @Nullable
+    private final String plan;
+
+    QueryProfile(
+        @NonNull String json,
+        long executions,
+        long slowExecutions,
+        long cancelledExecutions,
+        long timedOutExecutions,
+        long rows,
+        @NonNull LatencyHistogram compileTimes,
+        @NonNull LatencyHistogram runTimes,
+        @NonNull LatencyHistogram firstRowTimes,
+        @NonNull LatencyHistogram enumerationTimes,
+        @Nullable String plan) {
+        this.json = json;
+        this.executions = executions;
+        this.slowExecutions = slowExecutions;
+        this.cancelledExecutions = cancelledExecutions;
+        this.timedOutExecutions = timedOutExecutions;
+        this.rows = rows;
+        this.compileTimes = compileTimes;
+        this.runTimes = runTimes;
+        this.firstRowTimes = firstRowTimes;
+        this.enumerationTimes = enumerationTimes;
+        this.plan = plan;
+    }
+
+    /**
+     * Returns the JSON encoding of the query
+     */
+    @NonNull
+    public String getJson() { return json; }
+
+    /**
+     * Returns the number of times that the query was run, including live query refreshes
+     */
+    public long getExecutions() { return executions; }
+
+    /**
+     * Returns the number of executions that took longer than the database's slow query threshold
+     */
+    public long getSlowExecutions() { return slowExecutions; }
+
+    /**
+     * Returns the number of executions that were cancelled while waiting to run, or while running
+     */
+    public long getCancelledExecutions() { return cancelledExecutions; }
+
+    /**
+     * Returns the number of executions that failed because they passed their deadline
+     */
+    public long getTimedOutExecutions() { return timedOutExecutions; }
+
+    /**
+     * Returns the total number of rows read from the query's results
+     */
+    public long getRows() { return rows; }
+
+    /**
+     * Returns the times taken to compile the query.
+     * A query is compiled only when it is first run on a connection, unless it is in the query cache.
+     */
+    @NonNull
+    public LatencyHistogram getCompileTimes() { return compileTimes; }
+
+    /**
+     * Returns the times taken to start running the query
+     */
+    @NonNull
+    public LatencyHistogram getRunTimes() { return runTimes; }
+
+    /**
+     * Returns the times from the start of an execution, including compiling the query, to its first row
+     */
+    @NonNull
+    public LatencyHistogram getFirstRowTimes() { return firstRowTimes; }
+
+    /**
+     * Returns the times spent reading the rows of each execution's results.
+     * Time spent by the application between rows is not included.
+     */
+    @NonNull
+    public LatencyHistogram getEnumerationTimes() { return enumerationTimes; }
+
+    /**
+     * Returns the query's plan, as returned by Query.explain, if it is known
+     */
+    @Nullable
+    public String getPlan() { return plan; }
+
+    /**
+     * Returns true if the query's plan scans an entire table, instead of using an index
+     */
+    public boolean hasFullTableScan() { return QueryProfiler.hasFullTableScan(plan); }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "QueryProfile{executions=" + executions + ", slow=" + slowExecutions
+            + ", cancelled=" + cancelledExecutions + ", timedOut=" + timedOutExecutions + ", rows=" + rows
+            + ", run=" + runTimes + ", enumeration=" + enumerationTimes + ", json=" + json + "}";
+    }
+}
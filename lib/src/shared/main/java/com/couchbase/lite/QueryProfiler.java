@@ -0,0 +1,223 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * Execution statistics for a database's queries, by their JSON encoding.
+ * <p>
+ * Each execution of a query, and each refresh of a live query, is timed by an Execution,
+ * which is recorded when its results have been read to the end, or closed.
+ * An execution that takes longer than the slow query threshold, not counting the time that
+ * the application spends between rows, is logged with the query's plan.
+ * The profiler keeps the statistics for a limited number of queries: those for the
+ * least recently run query are discarded to make room for a new one.
+ */
+final class QueryProfiler {
+    private static final LogDomain DOMAIN = LogDomain.QUERY;
+
+    private static final int MAX_PROFILES = 256;
+
+    /**
+     * The timings for a single execution of a query.
+     * An execution is used by a single thread at a time: the thread holding its connection's lock.
+     */
+    final class Execution {
+        private String json;
+        private String plan;
+        private long compileTime = -1;
+        private long runTime;
+        private long firstRowTime = -1;
+        private long enumerationTime;
+        private long rows;
+        private boolean cancelled;
+        private boolean timedOut;
+        private boolean finished;
+
+        // The plan is needed only if the profiler does not already have it.
+        void setQuery(@NonNull String json, @Nullable String plan) {
+            this.json = json;
+            this.plan = plan;
+        }
+
+        void compiled(long nanos) { compileTime = nanos; }
+
+        void ran(long nanos) { runTime += nanos; }
+
+        void readRows(int count, long nanos) {
+            enumerationTime += nanos;
+            if ((count > 0) && (firstRowTime < 0)) {
+                firstRowTime = Math.max(compileTime, 0) + runTime + enumerationTime;
+            }
+            rows += count;
+        }
+
+        void cancelled() { cancelled = true; }
+
+        void timedOut() { timedOut = true; }
+
+        // Start timing a new execution of the same query: a refresh.
+        @NonNull
+        Execution rerun() {
+            final Execution execution = new Execution();
+            execution.json = json;
+            return execution;
+        }
+
+        // Record the execution.  It is safe to call this method more than once.
+        void finish() {
+            if (finished || (json == null)) { return; }
+            finished = true;
+            record(this);
+        }
+
+        long getTotalTime() { return Math.max(compileTime, 0) + runTime + enumerationTime; }
+    }
+
+    private static final class Profile {
+        final LatencyHistogram compileTimes = new LatencyHistogram();
+        final LatencyHistogram runTimes = new LatencyHistogram();
+        final LatencyHistogram firstRowTimes = new LatencyHistogram();
+        final LatencyHistogram enumerationTimes = new LatencyHistogram();
+        long executions;
+        long slowExecutions;
+        long cancelledExecutions;
+        long timedOutExecutions;
+        long rows;
+        String plan;
+    }
+
+    // The plan is the SQL statement, followed by the output of EXPLAIN QUERY PLAN: SQLite reports
+    // a scan of a whole table as "SCAN TABLE <table>" or, in later versions, "SCAN <table>",
+    // and a scan of an index as "SCAN ... USING [COVERING] INDEX <index>".
+    static boolean hasFullTableScan(@Nullable String plan) {
+        if (plan == null) { return false; }
+
+        final String[] lines = plan.split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            final String line = lines[i];
+            if (line.contains("SCAN ") && (!line.contains(" USING ")) && (!line.contains("CONSTANT ROW"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final long slowQueryThreshold;
+
+    @GuardedBy("this")
+    @NonNull
+    private final Map<String, Profile> profiles = new LinkedHashMap<String, Profile>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) { return size() > MAX_PROFILES; }
+    };
+
+    // slowQueryThreshold is in milliseconds: 0 means that no queries are logged as slow.
+    QueryProfiler(long slowQueryThreshold) {
+        this.slowQueryThreshold = TimeUnit.MILLISECONDS.toNanos(slowQueryThreshold);
+    }
+
+    @NonNull
+    Execution start() { return new Execution(); }
+
+    // True if the plan for the query has not been recorded yet.
+    synchronized boolean needsPlan(@NonNull String json) {
+        final Profile profile = profiles.get(json);
+        return (profile == null) || (profile.plan == null);
+    }
+
+    @NonNull
+    synchronized List<QueryProfile> getProfiles() {
+        final List<QueryProfile> snapshot = new ArrayList<>(profiles.size());
+        for (Map.Entry<String, Profile> entry : profiles.entrySet()) {
+            final Profile profile = entry.getValue();
+            snapshot.add(new QueryProfile(
+                entry.getKey(),
+                profile.executions,
+                profile.slowExecutions,
+                profile.cancelledExecutions,
+                profile.timedOutExecutions,
+                profile.rows,
+                new LatencyHistogram(profile.compileTimes),
+                new LatencyHistogram(profile.runTimes),
+                new LatencyHistogram(profile.firstRowTimes),
+                new LatencyHistogram(profile.enumerationTimes),
+                profile.plan));
+        }
+        return snapshot;
+    }
+
+    synchronized void reset() { profiles.clear(); }
+
+    private void record(@NonNull Execution execution) {
+        final long total = execution.getTotalTime();
+        final boolean slow = (slowQueryThreshold > 0) && (total >= slowQueryThreshold);
+
+        final String plan;
+        final boolean isNewPlan;
+        synchronized (this) {
+            Profile profile = profiles.get(execution.json);
+            if (profile == null) {
+                profile = new Profile();
+                profiles.put(execution.json, profile);
+            }
+
+            isNewPlan = (profile.plan == null) && (execution.plan != null);
+            if (isNewPlan) { profile.plan = execution.plan; }
+            plan = profile.plan;
+
+            profile.executions++;
+            if (slow) { profile.slowExecutions++; }
+            if (execution.cancelled) { profile.cancelledExecutions++; }
+            if (execution.timedOut) { profile.timedOutExecutions++; }
+            profile.rows += execution.rows;
+            if (execution.compileTime >= 0) { profile.compileTimes.record(execution.compileTime); }
+            profile.runTimes.record(execution.runTime);
+            if (execution.firstRowTime >= 0) { profile.firstRowTimes.record(execution.firstRowTime); }
+            profile.enumerationTimes.record(execution.enumerationTime);
+        }
+
+        if (isNewPlan && hasFullTableScan(plan)) {
+            Log.i(DOMAIN, "Query plan contains a full table scan: %s\n%s", execution.json, plan);
+        }
+
+        if (slow) {
+            Log.w(
+                DOMAIN,
+                "Slow query: %dms (compile %dus, run %dus, %d rows in %dus)%s: %s\n%s",
+                TimeUnit.NANOSECONDS.toMillis(total),
+                TimeUnit.NANOSECONDS.toMicros(Math.max(execution.compileTime, 0)),
+                TimeUnit.NANOSECONDS.toMicros(execution.runTime),
+                execution.rows,
+                TimeUnit.NANOSECONDS.toMicros(execution.enumerationTime),
+                hasFullTableScan(plan) ? ", full table scan" : "",
+                execution.json,
+                (plan == null) ? "plan unknown" : plan);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.couchbase.lite.internal.core.C4Constants;
+import com.couchbase.lite.internal.core.C4Database;
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * A pool of read-only connections to a database file.
+ * Each connection has its own lock, so that reads on one connection
+ * are not serialized behind reads on another, or behind the writer:
+ * SQLite's WAL mode allows readers to proceed while a write transaction is open.
+ * A reader sees the database as of the last committed transaction.
+ */
+final class ReaderPool {
+    private static final LogDomain DOMAIN = LogDomain.DATABASE;
+
+    private static final int READER_DATABASE_FLAGS
+        = C4Constants.DatabaseFlags.READ_ONLY
+        | C4Constants.DatabaseFlags.SHARED_KEYS;
+
+    /**
+     * A C4Database and the lock that must be held while using it,
+     * or any of the objects (documents, queries, enumerators) obtained from it.
+     */
+    static final class Connection {
+        @NonNull
+        private final Object lock;
+        private final boolean readOnly;
+
+        // Compiled queries: null if the configured query cache size is 0.
+        @Nullable
+        private final QueryCache queryCache;
+
+        @GuardedBy("lock")
+        @Nullable
+        private C4Database c4db;
+
+        Connection(@NonNull Object lock, @NonNull C4Database c4db, boolean readOnly) {
+            this(lock, c4db, readOnly, 0);
+        }
+
+        Connection(@NonNull Object lock, @NonNull C4Database c4db, boolean readOnly, int queryCacheSize) {
+            this.lock = lock;
+            this.c4db = c4db;
+            this.readOnly = readOnly;
+            this.queryCache = (queryCacheSize <= 0) ? null : new QueryCache(queryCacheSize);
+        }
+
+        @NonNull
+        Object getLock() { return lock; }
+
+        boolean isReadOnly() { return readOnly; }
+
+        @Nullable
+        QueryCache getQueryCache() { return queryCache; }
+
+        // Call holding the lock.
+        @NonNull
+        C4Database getC4Database() {
+            if (c4db == null) { throw new IllegalStateException(Log.lookupStandardMessage("DBClosed")); }
+            return c4db;
+        }
+
+        // Call holding the lock.
+        // Free the cached queries: they must not outlive the C4Database.
+        void freeQueries() {
+            if (queryCache != null) { queryCache.clear(); }
+        }
+
+        // Call holding the lock.
+        // Forget the C4Database without closing it: used for the main connection, which the database owns.
+        void invalidate() {
+            freeQueries();
+            c4db = null;
+        }
+
+        void close() {
+            synchronized (lock) {
+                if (c4db == null) { return; }
+
+                freeQueries();
+
+                try { c4db.close(); }
+                catch (LiteCoreException e) { Log.w(DOMAIN, "Failed closing reader connection", e); }
+
+                c4db.free();
+                c4db = null;
+            }
+        }
+    }
+
+    @NonNull
+    private final Connection[] readers;
+    @NonNull
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReaderPool(@NonNull String path, int size, int algorithm, @Nullable byte[] encryptionKey, int queryCacheSize)
+        throws LiteCoreException {
+        readers = new Connection[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                readers[i] = new Connection(
+                    new Object(),
+                    new C4Database(
+                        path,
+                        READER_DATABASE_FLAGS,
+                        null,
+                        C4Constants.DocumentVersioning.REVISION_TREES,
+                        algorithm,
+                        encryptionKey),
+                    true,
+                    queryCacheSize);
+            }
+        }
+        catch (LiteCoreException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Readers are handed out round-robin: a caller that finds its reader busy simply waits for it.
+    @NonNull
+    Connection getReader() {
+        return readers[(next.getAndIncrement() & Integer.MAX_VALUE) % readers.length];
+    }
+
+    @NonNull
+    Connection[] getReaders() { return readers.clone(); }
+
+    void close() {
+        for (Connection reader : readers) {
+            if (reader != null) { reader.close(); }
+        }
+    }
+}
@@ -29,12 +29,12 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import com.couchbase.lite.internal.core.C4QueryEnumerator;
-import com.couchbase.lite.internal.fleece.FLArrayIterator;
+import com.couchbase.lite.internal.fleece.FLConstants;
 import com.couchbase.lite.internal.fleece.FLValue;
 import com.couchbase.lite.internal.fleece.MContext;
 import com.couchbase.lite.internal.fleece.MRoot;
 import com.couchbase.lite.internal.utils.DateUtils;
+import com.couchbase.lite.internal.utils.Preconditions;
 
 
 /**
@@ -46,17 +46,20 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     // member variables
     //---------------------------------------------
     private final ResultSet rs;
-    private final List<FLValue> values;
+    // FLValue handles for a batch of rows: this row's values start at offset.
+    private final long[] values;
+    private final int offset;
     private final long missingColumns;
     private final MContext context;
 
     //---------------------------------------------
     // constructors
     //---------------------------------------------
-    Result(ResultSet rs, C4QueryEnumerator c4enum, MContext context) {
+    Result(ResultSet rs, long[] values, int offset, long missingColumns, MContext context) {
         this.rs = rs;
-        this.values = extractColumns(c4enum.getColumns());
-        this.missingColumns = c4enum.getMissingColumns();
+        this.values = values;
+        this.offset = offset;
+        this.missingColumns = missingColumns;
         this.context = context;
     }
 
@@ -126,8 +129,10 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     @Override
     public int getInt(int index) {
         check(index);
-        final FLValue flValue = values.get(index);
-        return flValue != null ? (int) flValue.asInt() : 0;
+        synchronized (rs.getLock()) {
+            final FLValue flValue = getFLValue(index);
+            return flValue != null ? (int) flValue.asInt() : 0;
+        }
     }
 
     /**
@@ -139,8 +144,10 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     @Override
     public long getLong(int index) {
         check(index);
-        final FLValue flValue = values.get(index);
-        return flValue != null ? flValue.asInt() : 0L;
+        synchronized (rs.getLock()) {
+            final FLValue flValue = getFLValue(index);
+            return flValue != null ? flValue.asInt() : 0L;
+        }
     }
 
     /**
@@ -152,8 +159,10 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     @Override
     public float getFloat(int index) {
         check(index);
-        final FLValue flValue = values.get(index);
-        return flValue != null ? flValue.asFloat() : 0.0F;
+        synchronized (rs.getLock()) {
+            final FLValue flValue = getFLValue(index);
+            return flValue != null ? flValue.asFloat() : 0.0F;
+        }
     }
 
     /**
@@ -165,8 +174,10 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     @Override
     public double getDouble(int index) {
         check(index);
-        final FLValue flValue = values.get(index);
-        return flValue != null ? flValue.asDouble() : 0.0;
+        synchronized (rs.getLock()) {
+            final FLValue flValue = getFLValue(index);
+            return flValue != null ? flValue.asDouble() : 0.0;
+        }
     }
 
     /**
@@ -178,8 +189,10 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     @Override
     public boolean getBoolean(int index) {
         check(index);
-        final FLValue flValue = values.get(index);
-        return flValue != null && flValue.asBool();
+        synchronized (rs.getLock()) {
+            final FLValue flValue = getFLValue(index);
+            return flValue != null && flValue.asBool();
+        }
     }
 
     /**
@@ -243,7 +256,12 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     @Override
     public List<Object> toList() {
         final List<Object> array = new ArrayList<>();
-        for (int i = 0; i < count(); i++) { array.add(values.get(i).asObject()); }
+        synchronized (rs.getLock()) {
+            for (int i = 0; i < count(); i++) {
+                final FLValue value = getFLValue(i);
+                array.add((value == null) ? null : value.asObject());
+            }
+        }
         return array;
     }
 
@@ -464,6 +482,47 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
         return dict;
     }
 
+    /**
+     * Gets the values as an object of the given class.  The class must have a no-argument constructor:
+     * each of its fields that is neither static nor transient is set from the column with the same name.
+     * Values are read directly from the query results, without converting them to a Map.
+     *
+     * @param type the class of the object
+     * @param <T>  the type of the object
+     * @return the object
+     * @throws IllegalArgumentException if a value cannot be converted to its field's type
+     */
+    @NonNull
+    public <T> T toObject(@NonNull Class<T> type) {
+        Preconditions.checkArgNotNull(type, "type");
+        final ObjectMapper<T> mapper = ObjectMapper.forClass(type);
+        synchronized (rs.getLock()) { return mapper.fromFleece(this::getFLValue, getDatabase()); }
+    }
+
+    /**
+     * The projecting result value for the given key as an object of the given class.
+     * This is useful for reading whole documents from the results of a query that uses
+     * SelectResult.all(): the key is the name of the database, or its alias.
+     *
+     * @param key  The select result key.
+     * @param type the class of the object
+     * @param <T>  the type of the object
+     * @return the object, or null if the key doesn't exist or its value is not a dictionary.
+     * @throws IllegalArgumentException if a property cannot be converted to its field's type
+     */
+    @Nullable
+    public <T> T getObject(@NonNull String key, @NonNull Class<T> type) {
+        Preconditions.checkArgNotNull(key, "key");
+        Preconditions.checkArgNotNull(type, "type");
+        final ObjectMapper<T> mapper = ObjectMapper.forClass(type);
+        synchronized (rs.getLock()) {
+            final FLValue value = getFLValue(key);
+            return ((value == null) || (value.getType() != FLConstants.ValueType.DICT))
+                ? null
+                : mapper.fromFleece(value.asFLDict(), getDatabase());
+        }
+    }
+
     /**
      * Tests whether a projecting result key exists or not.
      *
@@ -492,6 +551,28 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
         return getKeys().iterator();
     }
 
+    //---------------------------------------------
+    // package level access
+    //---------------------------------------------
+
+    // The JSON of the value in a column, or of the whole row if the index is negative.
+    // Comparing JSON is much cheaper than converting the values to Java objects.
+    // Returns null if the result set has been closed: its values are gone.
+    @Nullable
+    String toJSON(int index) {
+        synchronized (rs.getLock()) {
+            if (rs.isClosed()) { return null; }
+            if (index >= 0) { return toJSON(getFLValue(index)); }
+
+            final StringBuilder buf = new StringBuilder("[");
+            for (int i = 0; i < count(); i++) {
+                if (i > 0) { buf.append(','); }
+                buf.append(toJSON(getFLValue(i)));
+            }
+            return buf.append(']').toString();
+        }
+    }
+
     //---------------------------------------------
     // private level access
     //---------------------------------------------
@@ -506,19 +587,31 @@ public final class Result implements ArrayInterface, DictionaryInterface, Iterab
     // - (id) fleeceValueToObjectAtIndex: (NSUInteger)index
     private Object fleeceValueToObject(int index) {
         check(index);
-        final FLValue value = values.get(index);
-        if (value == null) { return null; }
-        final MRoot root = new MRoot(context, value, false);
-        synchronized (rs.getQuery().getDatabase().getLock()) {
-            return root.asNative();
+        synchronized (rs.getLock()) {
+            final FLValue value = getFLValue(index);
+            if (value == null) { return null; }
+            return new MRoot(context, value, false).asNative();
         }
     }
 
-    private List<FLValue> extractColumns(FLArrayIterator columns) {
-        final int count = rs.getColumnCount();
-        final List<FLValue> values = new ArrayList<>();
-        for (int i = 0; i < count; i++) { values.add(columns.getValueAt(i)); }
-        return values;
+    @NonNull
+    private static String toJSON(@Nullable FLValue value) { return (value == null) ? "null" : value.toJSON(); }
+
+    @Nullable
+    private FLValue getFLValue(@NonNull String key) {
+        final int index = indexForColumnName(key);
+        return (index < 0) ? null : getFLValue(index);
+    }
+
+    @NonNull
+    private Database getDatabase() { return rs.getQuery().getDatabase(); }
+
+    // Call holding the result set's lock: closing the result set frees the values.
+    @Nullable
+    private FLValue getFLValue(int index) {
+        if (rs.isClosed()) { throw new IllegalStateException("The result set has been closed."); }
+        final long hValue = values[offset + index];
+        return (hValue == 0L) ? null : new FLValue(hValue);
     }
 
     private void check(int index) {
@@ -22,7 +22,7 @@ package com.couchbase.lite;
  * by eliminating unused variables and methods
  */
 final class ResultContext extends DocContext {
-    ResultContext(Database db) {
-        super(db, null);
+    ResultContext(Database db, Object lock) {
+        super(db, null, lock);
     }
 }
@@ -0,0 +1,134 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The rows inserted, removed and updated between two generations of a live query's results.
+ * <p>
+ * Rows are matched by key, if the query has one, or else by their entire content.
+ * A key is the JSON of the key column's Fleece value: the rest of a row is copied only
+ * when its key matches a row in the other generation, to check whether it was updated.
+ * Matching uses the keys' hash codes, so computing a delta takes time proportional to the
+ * number of rows, not to its square.
+ */
+final class ResultDelta {
+    /**
+     * A result row and its key.
+     */
+    static final class Row {
+        @NonNull
+        final Result result;
+        @Nullable
+        final String key;
+        private final boolean keyIsRow;
+        @Nullable
+        private String values;
+
+        Row(@NonNull Result result, int keyIndex) {
+            this.result = result;
+            this.key = result.toJSON(keyIndex);
+            this.keyIsRow = keyIndex < 0;
+        }
+
+        // The JSON of the whole row: null if its result set has been closed.
+        @Nullable
+        String getValues() {
+            if (keyIsRow) { return key; }
+            if (values == null) { values = result.toJSON(-1); }
+            return values;
+        }
+    }
+
+    @NonNull
+    static List<Row> getRows(@NonNull List<Result> results, int keyIndex) {
+        final List<Row> rows = new ArrayList<>(results.size());
+        for (Result result : results) { rows.add(new Row(result, keyIndex)); }
+        return rows;
+    }
+
+    // Rows must have been created with the same key index.
+    // Returns null if either generation's result set is closed before the delta is complete.
+    @Nullable
+    static ResultDelta compute(@NonNull List<Row> previous, @NonNull List<Row> current) {
+        final ResultDelta delta = new ResultDelta();
+        return (delta.match(previous, current)) ? delta : null;
+    }
+
+    @NonNull
+    private final List<Result> inserted = new ArrayList<>();
+    @NonNull
+    private final List<Result> removed = new ArrayList<>();
+    @NonNull
+    private final List<Result> updated = new ArrayList<>();
+
+    private ResultDelta() { }
+
+    @NonNull
+    List<Result> getInserted() { return Collections.unmodifiableList(inserted); }
+
+    @NonNull
+    List<Result> getRemoved() { return Collections.unmodifiableList(removed); }
+
+    @NonNull
+    List<Result> getUpdated() { return Collections.unmodifiableList(updated); }
+
+    private boolean match(@NonNull List<Row> previous, @NonNull List<Row> current) {
+        // Rows with the same key are matched in order.
+        final Map<String, Deque<Row>> unmatched = new HashMap<>();
+        for (Row row : previous) {
+            Deque<Row> rows = unmatched.get(row.key);
+            if (rows == null) {
+                rows = new ArrayDeque<>(1);
+                unmatched.put(row.key, rows);
+            }
+            rows.addLast(row);
+        }
+
+        for (Row row : current) {
+            final Deque<Row> rows = unmatched.get(row.key);
+            final Row prev = (rows == null) ? null : rows.pollFirst();
+            if (prev == null) {
+                inserted.add(row.result);
+                continue;
+            }
+
+            final String prevValues = prev.getValues();
+            final String values = row.getValues();
+            if ((prevValues == null) || (values == null)) { return false; }
+            if (!prevValues.equals(values)) { updated.add(row.result); }
+        }
+
+        // Whatever is left in the previous generation was removed: report it in its original order.
+        for (Row row : previous) {
+            final Deque<Row> rows = unmatched.get(row.key);
+            if ((rows != null) && rows.remove(row)) { removed.add(row.result); }
+        }
+
+        return true;
+    }
+}
@@ -19,11 +19,13 @@
 package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.couchbase.lite.internal.CBLStatus;
@@ -35,33 +37,125 @@ import com.couchbase.lite.internal.utils.Preconditions;
 /**
  * A result set representing the _query result. The result set is an iterator of
  * the {@code Result} objects.
+ * Rows are read one at a time, as they are requested.
+ * A result set holds native resources until it is closed (or garbage collected):
+ * close it as soon as its results are no longer needed.
  */
-public class ResultSet implements Iterable<Result> {
+public class ResultSet implements Iterable<Result>, AutoCloseable {
+    /**
+     * An iterator that reads rows from the result set as they are requested.
+     */
+    private final class ResultIterator implements Iterator<Result> {
+        private Result nextResult;
+        private boolean done;
+
+        @Override
+        public boolean hasNext() {
+            if ((nextResult == null) && (!done)) {
+                nextResult = ResultSet.this.next();
+                done = nextResult == null;
+            }
+            return nextResult != null;
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            final Result result = nextResult;
+            nextResult = null;
+            return result;
+        }
+    }
+
     //---------------------------------------------
     // static variables
     //---------------------------------------------
     private static final LogDomain DOMAIN = LogDomain.QUERY;
 
+    // Rows are read from LiteCore this many at a time, with a single native call.
+    private static final int BATCH_SIZE = 64;
+
     //---------------------------------------------
     // member variables
     //---------------------------------------------
     private final AtomicBoolean isAlive = new AtomicBoolean(true);
 
     private final AbstractQuery query;
+    private final ReaderPool.Connection connection;
     private final Map<String, Integer> columnNames;
     private final ResultContext context;
     private C4QueryEnumerator c4enum;
     private boolean isAllEnumerated;
 
+    // The current batch of rows. A new batch is allocated for each read:
+    // the Results from the previous batch still refer to it.
+    private long[] batchValues;
+    private long[] batchMissingColumns;
+    private int batchSize;
+    private int batchPosition;
+
+    // Null unless the database is profiling its queries.
+    private final QueryProfiler.Execution profile;
+
+    // Null unless the query was run with a timeout, or may be cancelled: checked before each batch is read.
+    @Nullable
+    private final QueryExecution execution;
+
+    // Rows read ahead by readAll: next() returns them again.
+    private List<Result> readAhead;
+    private int readAheadPosition;
+
+    // True if this is a copy that only replays the rows read ahead by another result set.
+    private final boolean isCopy;
+
     //---------------------------------------------
     // constructors
     //---------------------------------------------
 
-    ResultSet(AbstractQuery query, C4QueryEnumerator c4enum, Map<String, Integer> columnNames) {
+    ResultSet(
+        AbstractQuery query,
+        ReaderPool.Connection connection,
+        C4QueryEnumerator c4enum,
+        Map<String, Integer> columnNames) {
+        this(query, connection, c4enum, columnNames, null);
+    }
+
+    ResultSet(
+        AbstractQuery query,
+        ReaderPool.Connection connection,
+        C4QueryEnumerator c4enum,
+        Map<String, Integer> columnNames,
+        QueryProfiler.Execution profile) {
+        this(query, connection, c4enum, columnNames, profile, null);
+    }
+
+    ResultSet(
+        AbstractQuery query,
+        ReaderPool.Connection connection,
+        C4QueryEnumerator c4enum,
+        Map<String, Integer> columnNames,
+        QueryProfiler.Execution profile,
+        @Nullable QueryExecution execution) {
         this.query = query;
+        this.connection = connection;
         this.c4enum = c4enum;
         this.columnNames = columnNames;
-        this.context = new ResultContext(query.getDatabase());
+        this.profile = profile;
+        this.execution = execution;
+        this.context = new ResultContext(query.getDatabase(), connection.getLock());
+        this.isCopy = false;
+    }
+
+    // A copy has no enumerator of its own: its Results belong to the source, which frees them.
+    private ResultSet(@NonNull ResultSet source, @NonNull List<Result> rows) {
+        this.query = source.query;
+        this.connection = source.connection;
+        this.columnNames = source.columnNames;
+        this.context = source.context;
+        this.profile = null;
+        this.execution = null;
+        this.readAhead = rows;
+        this.isCopy = true;
     }
 
     //---------------------------------------------
@@ -70,6 +164,8 @@ public class ResultSet implements Iterable<Result> {
 
     /**
      * Move the cursor forward one row from its current row position.
+     * If the query was run with a timeout, and the timeout expires while the rows are being read,
+     * or if its execution is cancelled, this method returns null as though there were no more rows.
      * Caution: next() method and iterator() method share same data structure.
      * Please don't use them together.
      * Caution: In case ResultSet is obtained from QueryChangeListener, and QueryChangeListener is
@@ -82,16 +178,21 @@ public class ResultSet implements Iterable<Result> {
         Preconditions.checkArgNotNull(query, "query");
         if (!isAlive.get()) { return null; }
 
-        synchronized (getDatabase().getLock()) {
+        if (readAhead != null) {
+            return (readAheadPosition >= readAhead.size()) ? null : readAhead.get(readAheadPosition++);
+        }
+
+        synchronized (getLock()) {
             try {
                 if (c4enum == null) { return null; }
                 else if (isAllEnumerated) {
                     Log.w(DOMAIN, "ResultSetAlreadyEnumerated");
                     return null;
                 }
-                else if (!c4enum.next()) {
+                else if ((batchPosition >= batchSize) && (!readBatch())) {
                     Log.i(DOMAIN, "End of query enumeration");
                     isAllEnumerated = true;
+                    if (profile != null) { profile.finish(); }
                     return null;
                 }
                 else {
@@ -102,6 +203,13 @@ public class ResultSet implements Iterable<Result> {
                 Log.w(DOMAIN, "Query enumeration error: %s", e.toString());
                 return null;
             }
+            catch (CouchbaseLiteException e) {
+                // The execution passed its deadline: the remaining rows are not read.
+                Log.w(DOMAIN, "Query enumeration timed out: %s", e.toString());
+                isAllEnumerated = true;
+                if (profile != null) { profile.finish(); }
+                return null;
+            }
         }
     }
 
@@ -121,20 +229,111 @@ public class ResultSet implements Iterable<Result> {
         return results;
     }
 
+    /**
+     * Returns the number of rows in the result set, including those that have already been read.
+     * This does not read the rows, or move the cursor.
+     *
+     * @return the number of rows, or 0 if the result set has been closed.
+     * @throws CouchbaseLiteException if there is an error counting the rows.
+     */
+    public int getRowCount() throws CouchbaseLiteException {
+        if (!isAlive.get()) { return 0; }
+        if (isCopy) { return readAhead.size(); }
+        synchronized (getLock()) {
+            if (c4enum == null) { return 0; }
+            try { return (int) c4enum.getRowCount(); }
+            catch (LiteCoreException e) { throw CBLStatus.convertException(e); }
+        }
+    }
+
+    /**
+     * Move the cursor to a row: the next call to next() returns the row at the given index.
+     * Seeking to the row count moves the cursor past the last row.  Rows that were already read
+     * are not affected: they are valid until the result set is closed.
+     * Caution: seek() and the iterator share the cursor.  Please don't use them together.
+     *
+     * @param rowIndex the index of the row, from 0 to the row count.
+     * @throws CouchbaseLiteException if there is an error moving the cursor.
+     */
+    public void seek(int rowIndex) throws CouchbaseLiteException {
+        if (rowIndex < 0) { throw new IllegalArgumentException("row index cannot be negative."); }
+        if (!isAlive.get()) { return; }
+
+        if (isCopy) {
+            if (rowIndex > readAhead.size()) {
+                throw new IllegalArgumentException("row index " + rowIndex + " is beyond the last row.");
+            }
+            readAheadPosition = rowIndex;
+            return;
+        }
+
+        synchronized (getLock()) {
+            if (c4enum == null) { return; }
+            try {
+                final long rowCount = c4enum.getRowCount();
+                if (rowIndex > rowCount) {
+                    throw new IllegalArgumentException("row index " + rowIndex + " is beyond the last row.");
+                }
+
+                // After seeking to a row, the enumerator's current row is that row:
+                // the next row read is the one after it.
+                c4enum.seek(rowIndex - 1);
+            }
+            catch (LiteCoreException e) {
+                throw CBLStatus.convertException(e);
+            }
+
+            batchSize = 0;
+            batchPosition = 0;
+            isAllEnumerated = false;
+            readAhead = null;
+        }
+    }
+
+    /**
+     * Return the row at the given index, without re-running the query.  This moves the cursor:
+     * the next call to next() returns the row that follows it.
+     *
+     * @param rowIndex the index of the row, from 0 to the row count - 1.
+     * @return the Result, or null if the index is the row count or the result set has been closed.
+     * @throws CouchbaseLiteException if there is an error reading the row.
+     */
+    @Nullable
+    public Result get(int rowIndex) throws CouchbaseLiteException {
+        seek(rowIndex);
+        return next();
+    }
+
     //---------------------------------------------
     // Iterable implementation
     //---------------------------------------------
 
     /**
      * Return Iterator of Results.
-     * Once called iterator(), next() method return null. Don't call next() and iterator()
-     * together.
+     * The iterator reads rows as they are requested: it shares its cursor with the next() method.
+     * Don't call next() and iterator() together.
      *
      * @return an iterator over the elements in this list in proper sequence
      */
     @NonNull
     @Override
-    public Iterator<Result> iterator() { return allResults().iterator(); }
+    public Iterator<Result> iterator() { return new ResultIterator(); }
+
+    //---------------------------------------------
+    // AutoCloseable implementation
+    //---------------------------------------------
+
+    /**
+     * Release the native resources held by this result set.
+     * The Results obtained from it must not be used after it has been closed:
+     * reading a value from one of them throws an IllegalStateException.
+     * It is safe to call this method more than once.
+     * The result sets passed to live query listeners are copies: closing one of them
+     * ends its iteration but does not affect the other listeners' copies.  Their native
+     * resources are released when none of them is in use.
+     */
+    @Override
+    public void close() { free(); }
 
     //---------------------------------------------
     // protected methods
@@ -153,6 +352,12 @@ public class ResultSet implements Iterable<Result> {
 
     AbstractQuery getQuery() { return query; }
 
+    boolean isClosed() { return !isAlive.get(); }
+
+    // The lock for the connection on which the query was run.
+    @NonNull
+    Object getLock() { return connection.getLock(); }
+
     int getColumnCount() { return columnNames.size(); }
 
     List<String> getColumnNames() { return new ArrayList<>(columnNames.keySet()); }
@@ -170,11 +375,14 @@ public class ResultSet implements Iterable<Result> {
     ResultSet refresh() throws CouchbaseLiteException {
         Preconditions.checkArgNotNull(query, "query");
 
-        synchronized (getDatabase().getLock()) {
+        synchronized (getLock()) {
             if (!isAlive.get()) { return null; }
             try {
+                final QueryProfiler.Execution newProfile = (profile == null) ? null : profile.rerun();
+                final long start = (newProfile == null) ? 0 : System.nanoTime();
                 final C4QueryEnumerator newEnum = c4enum.refresh();
-                return (newEnum == null) ? null : new ResultSet(query, newEnum, columnNames);
+                if (newProfile != null) { newProfile.ran(System.nanoTime() - start); }
+                return (newEnum == null) ? null : new ResultSet(query, connection, newEnum, columnNames, newProfile);
             }
             catch (LiteCoreException e) {
                 throw CBLStatus.convertException(e);
@@ -182,12 +390,34 @@ public class ResultSet implements Iterable<Result> {
         }
     }
 
+    // Read all of the remaining rows, so that they can be examined before the result set is handed on.
+    // The rows are returned again, by next() and the iterator.
+    @NonNull
+    List<Result> readAll() {
+        final List<Result> rows = allResults();
+        readAhead = rows;
+        readAheadPosition = 0;
+        return rows;
+    }
+
+    // An independent view of the rows read ahead by readAll: it has its own cursor,
+    // and closing it does not free the rows.  Readers of the same results must each have their own copy.
+    @NonNull
+    ResultSet copy() {
+        final List<Result> rows = readAhead;
+        if (rows == null) { throw new IllegalStateException("Result set has not been read ahead"); }
+        return new ResultSet(this, rows);
+    }
+
     // Please see the `refresh` method if changing this one.
     void free() {
         if (!isAlive.getAndSet(false)) { return; }
 
         if (c4enum != null) {
-            synchronized (getDatabase().getLock()) { c4enum.close(); }
+            synchronized (getLock()) {
+                c4enum.close();
+                if (profile != null) { profile.finish(); }
+            }
             c4enum.free();
             c4enum = null;
         }
@@ -196,8 +426,25 @@ public class ResultSet implements Iterable<Result> {
     //---------------------------------------------
     // Private level access
     //---------------------------------------------
-    private Database getDatabase() { return query.getDatabase(); }
+    // Call holding the lock.
+    private boolean readBatch() throws LiteCoreException, CouchbaseLiteException {
+        // The execution may have been cancelled, or passed its deadline, since the last batch was read.
+        if ((execution != null) && (!execution.proceed(profile))) { return false; }
+
+        final int nCols = getColumnCount();
+        batchValues = new long[BATCH_SIZE * nCols];
+        batchMissingColumns = new long[BATCH_SIZE];
+        final long start = (profile == null) ? 0 : System.nanoTime();
+        batchSize = c4enum.nextBatch(nCols, batchValues, batchMissingColumns);
+        if (profile != null) { profile.readRows(batchSize, System.nanoTime() - start); }
+        batchPosition = 0;
+        return batchSize > 0;
+    }
 
-    private Result currentObject() { return new Result(this, c4enum, context); }
+    // Call holding the lock.
+    private Result currentObject() {
+        final int row = batchPosition++;
+        return new Result(this, batchValues, row * getColumnCount(), batchMissingColumns[row], context);
+    }
 }
 
@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * Select represents the SELECT clause of the query for specifying the returning properties in each
@@ -86,4 +88,10 @@ public final class Select extends AbstractQuery implements FromRouter {
         for (SelectResult sr : selectResults) { json.add(sr.asJSON()); }
         return json;
     }
+
+    void writeJSON(@NonNull JsonWriter writer) {
+        writer.beginArray();
+        for (SelectResult sr : selectResults) { sr.writeJSON(writer); }
+        writer.endArray();
+    }
 }
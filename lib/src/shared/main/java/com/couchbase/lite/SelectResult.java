@@ -19,6 +19,8 @@ package com.couchbase.lite;
 
 import android.support.annotation.NonNull;
 
+import com.couchbase.lite.internal.utils.JsonWriter;
+
 
 /**
  * SelectResult represents a single return value of the query statement.
@@ -155,4 +157,6 @@ public class SelectResult {
     Object asJSON() {
         return selectExpression.asJSON();
     }
+
+    void writeJSON(@NonNull JsonWriter writer) { selectExpression.writeJSON(writer); }
 }
@@ -0,0 +1,264 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.couchbase.lite.internal.ExecutionService;
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * Group commit for asynchronous saves.
+ * Saves are queued and a single writer saves everything that is pending, in one transaction,
+ * once the commit window has elapsed or the maximum group size has been reached.
+ */
+final class WriteQueue {
+    /**
+     * A save waiting for its group to be committed.
+     * It completes with the saved document or fails with the reason that the save failed.
+     */
+    static final class PendingWrite implements Future<Document> {
+        @NonNull
+        private final MutableDocument document;
+        @NonNull
+        private final ConcurrencyControl concurrencyControl;
+
+        @GuardedBy("this")
+        private boolean done;
+        @GuardedBy("this")
+        private boolean cancelled;
+        // Set when the write is taken into a group: it can no longer be cancelled.
+        @GuardedBy("this")
+        private boolean taken;
+        @GuardedBy("this")
+        @Nullable
+        private Throwable error;
+
+        PendingWrite(@NonNull MutableDocument document, @NonNull ConcurrencyControl concurrencyControl) {
+            this.document = document;
+            this.concurrencyControl = concurrencyControl;
+        }
+
+        // A write that is cancelled before it is taken into a group is not saved.
+        // Once it has been taken, it will be saved and it cannot be cancelled.
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (done || taken) { return false; }
+                done = true;
+                cancelled = true;
+                notifyAll();
+                return true;
+            }
+        }
+
+        @Override
+        public synchronized boolean isCancelled() { return cancelled; }
+
+        @Override
+        public synchronized boolean isDone() { return done; }
+
+        @NonNull
+        @Override
+        public Document get() throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                while (!done) { wait(); }
+                return getResult();
+            }
+        }
+
+        @NonNull
+        @Override
+        public Document get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (!done) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) { throw new TimeoutException(); }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return getResult();
+            }
+        }
+
+        @NonNull
+        MutableDocument getDocument() { return document; }
+
+        @NonNull
+        ConcurrencyControl getConcurrencyControl() { return concurrencyControl; }
+
+        // Returns false if the write has been cancelled.
+        synchronized boolean take() {
+            if (cancelled) { return false; }
+            taken = true;
+            return true;
+        }
+
+        void succeed() { complete(null); }
+
+        void fail(@NonNull Throwable err) { complete(err); }
+
+        private synchronized void complete(@Nullable Throwable err) {
+            if (done) { return; }
+            done = true;
+            error = err;
+            notifyAll();
+        }
+
+        @GuardedBy("this")
+        @NonNull
+        private Document getResult() throws ExecutionException {
+            if (cancelled) { throw new CancellationException(); }
+            if (error != null) { throw new ExecutionException(error); }
+            return document;
+        }
+    }
+
+    @NonNull
+    private final AbstractDatabase db;
+    @NonNull
+    private final ExecutionService.CloseableExecutor writer;
+    private final long windowMs;
+    private final int maxGroupSize;
+
+    @GuardedBy("this")
+    @NonNull
+    private final Deque<PendingWrite> pending = new ArrayDeque<>();
+    @GuardedBy("this")
+    private ExecutionService.Cancellable delayedCommit;
+    @GuardedBy("this")
+    private boolean closed;
+    // The group that the writer has taken and may not yet have saved.
+    @GuardedBy("this")
+    @NonNull
+    private List<PendingWrite> inFlight = Collections.emptyList();
+
+    WriteQueue(@NonNull AbstractDatabase db, long windowMs, int maxGroupSize) {
+        this.db = db;
+        this.windowMs = windowMs;
+        this.maxGroupSize = Math.max(1, maxGroupSize);
+        this.writer = CouchbaseLite.getExecutionService().getSerialExecutor();
+    }
+
+    // A write that is enqueued after the queue has been closed fails immediately.
+    void enqueue(@NonNull PendingWrite write) {
+        synchronized (this) {
+            if (!closed) {
+                pending.add(write);
+
+                final int n = pending.size();
+                if (n >= maxGroupSize) {
+                    writer.execute(this::commitPending);
+                    return;
+                }
+
+                // The first write in a group starts the commit window
+                if ((n > 1) || (delayedCommit != null)) { return; }
+                delayedCommit = CouchbaseLite.getExecutionService()
+                    .postDelayedOnExecutor(windowMs, writer, this::commitPending);
+                return;
+            }
+        }
+
+        write.fail(new IllegalStateException(Log.lookupStandardMessage("DBClosed")));
+    }
+
+    // Close the queue and commit everything that is pending, on the calling thread.
+    // Called, holding the database lock, when the database is closing.
+    // The database saves a group holding its lock, so the group that the writer has taken has
+    // either been saved completely or not at all: if not, it is saved here, before the pending writes.
+    void close() {
+        final Deque<PendingWrite> remaining;
+        final ExecutionService.Cancellable task;
+        synchronized (this) {
+            closed = true;
+            remaining = new ArrayDeque<>(inFlight);
+            remaining.addAll(pending);
+            pending.clear();
+            task = delayedCommit;
+            delayedCommit = null;
+        }
+
+        if (task != null) { CouchbaseLite.getExecutionService().cancelDelayedTask(task); }
+
+        while (!remaining.isEmpty()) { saveGroup(takeGroup(remaining)); }
+
+        // Don't wait: a commit task that is already running is waiting for the database lock.
+        // It will find nothing to do: everything it took has been saved.
+        writer.stop(0, TimeUnit.SECONDS);
+    }
+
+    private void commitPending() {
+        synchronized (this) { delayedCommit = null; }
+        commitAll();
+    }
+
+    private void commitAll() {
+        boolean more = true;
+        while (more) {
+            final List<PendingWrite> group;
+            synchronized (this) {
+                group = takeGroup(pending);
+                more = !pending.isEmpty();
+                inFlight = group;
+            }
+
+            try { saveGroup(group); }
+            finally {
+                synchronized (this) { inFlight = Collections.emptyList(); }
+            }
+        }
+    }
+
+    private void saveGroup(@NonNull List<PendingWrite> group) {
+        if (!group.isEmpty()) { db.saveGroup(group); }
+    }
+
+    // Take the next group of writes, in the order in which they were queued.
+    @NonNull
+    private List<PendingWrite> takeGroup(@NonNull Deque<PendingWrite> writes) {
+        final List<PendingWrite> group = new ArrayList<>();
+
+        // Don't save the same document twice in a group:
+        // its result would be ambiguous.
+        final Set<MutableDocument> docs = Collections.newSetFromMap(new IdentityHashMap<>());
+        while (!writes.isEmpty() && (group.size() < maxGroupSize)) {
+            final PendingWrite write = writes.peekFirst();
+            if (!docs.add(write.getDocument())) { break; }
+            writes.removeFirst();
+            if (write.take()) { group.add(write); }
+        }
+
+        return group;
+    }
+}
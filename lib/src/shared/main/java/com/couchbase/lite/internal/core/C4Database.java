@@ -165,6 +165,19 @@ public class C4Database {
         return new C4Document(handle, docID, mustExist);
     }
 
+    // Get several documents with a single trip across the JNI boundary.
+    // The returned array is parallel to the array of IDs: the entry for
+    // a document that does not exist, or that has been deleted, is null.
+    @NonNull
+    public C4Document[] getDocuments(@NonNull String[] docIDs) throws LiteCoreException {
+        final long[] handles = getDocuments(handle, docIDs);
+        final C4Document[] docs = new C4Document[handles.length];
+        for (int i = 0; i < handles.length; i++) {
+            if (handles[i] != 0) { docs[i] = new C4Document(handles[i]); }
+        }
+        return docs;
+    }
+
     public C4Document getBySequence(long sequence) throws LiteCoreException {
         return new C4Document(handle, sequence);
     }
@@ -393,6 +406,8 @@ public class C4Database {
 
     private static native void purgeDoc(long db, String id) throws LiteCoreException;
 
+    private static native long[] getDocuments(long db, String[] docIDs) throws LiteCoreException;
+
     private static native int getMaxRevTreeDepth(long db);
 
     private static native void setMaxRevTreeDepth(long db, int maxRevTreeDepth);
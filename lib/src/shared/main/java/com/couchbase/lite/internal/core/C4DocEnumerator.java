@@ -79,6 +79,14 @@ public class C4DocEnumerator {
         return doc != 0 ? new C4Document(doc) : null;
     }
 
+    // Get the current document's ID and revision ID (outIDs) and its flags and sequence (outNumbers),
+    // without loading the document.  Returns false if there is no current document.
+    public boolean getDocumentInfo(String[] outIDs, long[] outNumbers) {
+        outIDs[0] = null;
+        getDocumentInfo(handle, outIDs, outNumbers);
+        return outIDs[0] != null;
+    }
+
     //-------------------------------------------------------------------------
     // protected methods
     //-------------------------------------------------------------------------
@@ -49,6 +49,8 @@ public class C4Document extends RefCounted {
 
     static native byte[] getSelectedBody(long doc);
 
+    static native long getSelectedBodySize(long doc);
+
     // - C4Revision
 
     // return pointer to FLValue
@@ -220,6 +222,10 @@ public class C4Document extends RefCounted {
         return getSelectedBody(handle);
     }
 
+    public long getSelectedBodySize() {
+        return getSelectedBodySize(handle);
+    }
+
     public FLDict getSelectedBody2() {
         final long value = getSelectedBody2(handle);
         return value == 0 ? null : new FLDict(value);
@@ -24,6 +24,12 @@ import com.couchbase.lite.internal.fleece.FLArrayIterator;
 public class C4QueryEnumerator {
     static native boolean next(long handle) throws LiteCoreException;
 
+    // Advances through up to missingColumns.length rows, storing the FLValue handles for the nColumns columns
+    // of each row in values (row major) and its missing column bitmap in missingColumns.
+    // Returns the number of rows read: fewer than requested only at the end of the enumeration.
+    static native int nextBatch(long handle, int nColumns, long[] values, long[] missingColumns)
+        throws LiteCoreException;
+
     static native long getRowCount(long handle) throws LiteCoreException;
 
     //-------------------------------------------------------------------------
@@ -76,6 +82,11 @@ public class C4QueryEnumerator {
         return ok;
     }
 
+    // The values are valid until the enumerator is freed.
+    public int nextBatch(int nColumns, long[] values, long[] missingColumns) throws LiteCoreException {
+        return nextBatch(handle, nColumns, values, missingColumns);
+    }
+
     //-------------------------------------------------------------------------
     // native methods
     //-------------------------------------------------------------------------
@@ -59,9 +59,11 @@ public class FLEncoder {
         final long hdl = handle;
         handle = 0;
 
-        if (hdl != 0) { free(handle); }
+        if (hdl != 0) { free(hdl); }
     }
 
+    public void setSharedKeys(FLSharedKeys sharedKeys) { setSharedKeys(handle, sharedKeys.getHandle()); }
+
     public boolean writeString(String value) { return writeString(handle, value); }
 
     public boolean writeData(byte[] value) { return writeData(handle, value); }
@@ -186,6 +188,8 @@ public class FLEncoder {
 
     static native void free(long encoder);
 
+    static native void setSharedKeys(long encoder, long sharedKeys);
+
     static native boolean writeNull(long encoder);
 
     static native boolean writeBool(long encoder, boolean value);
@@ -34,4 +34,13 @@ public class FLSharedKeys {
     public long getHandle() {
         return handle;
     }
+
+    // The number of keys: this changes whenever keys are added or, on a rollback, removed.
+    public int count() { return count(handle); }
+
+    //-------------------------------------------------------------------------
+    // native methods
+    //-------------------------------------------------------------------------
+
+    static native int count(long sk);
 }
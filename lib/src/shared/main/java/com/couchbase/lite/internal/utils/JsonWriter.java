@@ -0,0 +1,252 @@
+//
+// Copyright (c) 2020 Couchbase, Inc All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite.internal.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * A streaming JSON writer.
+ * Values are appended to a single buffer as they are written,
+ * without building an intermediate tree of Maps and Lists.
+ * The writer does not check that its output is well formed:
+ * its caller is responsible for balancing containers and writing a key before each value in an object.
+ */
+public final class JsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @NonNull
+    private final StringBuilder buf;
+
+    // True if the next value or key must be preceded by a comma.
+    private boolean needsComma;
+
+    public JsonWriter() { this(256); }
+
+    public JsonWriter(int capacity) { buf = new StringBuilder(capacity); }
+
+    @NonNull
+    public JsonWriter beginArray() {
+        separate();
+        buf.append('[');
+        needsComma = false;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter endArray() {
+        buf.append(']');
+        needsComma = true;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter beginObject() {
+        separate();
+        buf.append('{');
+        needsComma = false;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter endObject() {
+        buf.append('}');
+        needsComma = true;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter key(@NonNull String key) {
+        separate();
+        writeString(key);
+        buf.append(':');
+        needsComma = false;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter nullValue() {
+        separate();
+        buf.append("null");
+        needsComma = true;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter value(@Nullable String value) {
+        if (value == null) { return nullValue(); }
+        separate();
+        writeString(value);
+        needsComma = true;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter value(boolean value) {
+        separate();
+        buf.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    @NonNull
+    public JsonWriter value(long value) {
+        separate();
+        buf.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write a number.
+     *
+     * @param value the number
+     * @return this writer
+     * @throws IllegalArgumentException if the value is not finite: JSON cannot represent it.
+     */
+    @NonNull
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON cannot represent the number " + value);
+        }
+        separate();
+        buf.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write a number, with no more precision than a float has.
+     *
+     * @param value the number
+     * @return this writer
+     * @throws IllegalArgumentException if the value is not finite: JSON cannot represent it.
+     */
+    @NonNull
+    public JsonWriter value(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON cannot represent the number " + value);
+        }
+        separate();
+        buf.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write a value: null, a String, a Number, a Boolean, or a Map or List of them.
+     *
+     * @param value the value
+     * @return this writer
+     * @throws IllegalArgumentException if the value, or any value it contains, cannot be written as JSON.
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public JsonWriter value(@Nullable Object value) {
+        if (value == null) { return nullValue(); }
+
+        if (value instanceof String) { return value((String) value); }
+
+        if (value instanceof Boolean) { return value(((Boolean) value).booleanValue()); }
+
+        if (value instanceof Double) { return value(((Double) value).doubleValue()); }
+
+        if (value instanceof Float) { return value(((Float) value).floatValue()); }
+
+        if ((value instanceof Long) || (value instanceof Integer)
+            || (value instanceof Short) || (value instanceof Byte)) {
+            return value(((Number) value).longValue());
+        }
+
+        if (value instanceof Number) {
+            separate();
+            buf.append(value.toString());
+            needsComma = true;
+            return this;
+        }
+
+        if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                key(entry.getKey());
+                value(entry.getValue());
+            }
+            return endObject();
+        }
+
+        if (value instanceof List) {
+            beginArray();
+            for (Object item : (List<Object>) value) { value(item); }
+            return endArray();
+        }
+
+        throw new IllegalArgumentException(
+            String.format(
+                Locale.ENGLISH,
+                "The given value's type (%1$s) cannot be written as JSON.",
+                value.getClass()));
+    }
+
+    @NonNull
+    @Override
+    public String toString() { return buf.toString(); }
+
+    private void separate() {
+        if (needsComma) { buf.append(','); }
+    }
+
+    private void writeString(@NonNull String str) {
+        buf.append('"');
+        final int n = str.length();
+        for (int i = 0; i < n; i++) {
+            final char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    buf.append("\\\"");
+                    break;
+                case '\\':
+                    buf.append("\\\\");
+                    break;
+                case '\n':
+                    buf.append("\\n");
+                    break;
+                case '\r':
+                    buf.append("\\r");
+                    break;
+                case '\t':
+                    buf.append("\\t");
+                    break;
+                case '\b':
+                    buf.append("\\b");
+                    break;
+                case '\f':
+                    buf.append("\\f");
+                    break;
+                default:
+                    if (c >= 0x20) { buf.append(c); }
+                    else {
+                        buf.append("\\u00").append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+                    }
+            }
+        }
+        buf.append('"');
+    }
+}
@@ -27,4 +27,6 @@ public interface Fn {
     interface Provider<T> { T get(); }
     @FunctionalInterface
     interface Consumer<T> { void accept(T x); }
+    @FunctionalInterface
+    interface ConsumerThrows<T, E extends Throwable> { void accept(T x) throws E; }
 }
@@ -196,7 +196,200 @@ public class ConcurrencyTest extends BaseTest {
 
     @Test
     @ConcurrencyUnitTest
-    public void testConcurrentDelete() throws InterruptedException, CouchbaseLiteException {
+    public void testConcurrentReadNUpdateWithReaderPool() throws InterruptedException, CouchbaseLiteException {
+        final int kNDocs = 5;
+        final int kNRounds = 50;
+
+        reopenDBWithReaderPool(3);
+
+        // createDocs2 returns synchronized List.
+        final List<String> docIDs = createDocs(kNDocs, "Create");
+        assertEquals(kNDocs, docIDs.size());
+
+        // Read:
+        final CountDownLatch latch1 = new CountDownLatch(2);
+        runSafelyInThread(latch1, () -> readDocs(docIDs, kNRounds));
+        runSafelyInThread(latch1, () -> readDocs(docIDs, kNRounds));
+
+        // Query:
+        final CountDownLatch latch2 = new CountDownLatch(1);
+        runSafelyInThread(
+            latch2,
+            () -> {
+                for (int i = 0; i < kNRounds; i++) {
+                    try { verifyByTagName(null, (n, result) -> assertNotNull(result.getString(0))); }
+                    catch (CouchbaseLiteException e) { fail(); }
+                }
+            });
+
+        // Update:
+        final CountDownLatch latch3 = new CountDownLatch(1);
+        final String tag = "Update";
+        runSafelyInThread(latch3, () -> assertTrue(updateDocs(docIDs, kNRounds, tag)));
+
+        assertTrue(latch1.await(180, TimeUnit.SECONDS));
+        assertTrue(latch2.await(180, TimeUnit.SECONDS));
+        assertTrue(latch3.await(180, TimeUnit.SECONDS));
+        checkForFailure();
+
+        verifyByTagName(tag, kNDocs);
+    }
+
+    @Test
+    @ConcurrencyUnitTest
+    public void testReadDuringBatchWithReaderPool() throws InterruptedException, CouchbaseLiteException {
+        reopenDBWithReaderPool(2);
+
+        final List<String> docIDs = createDocs(5, "Create");
+
+        // Hold the writer lock until the reads are done.
+        final CountDownLatch inBatch = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        final CountDownLatch latch1 = new CountDownLatch(1);
+        runSafelyInThread(
+            latch1,
+            () -> {
+                try {
+                    db.inBatch(() -> {
+                        MutableDocument doc = db.getDocument(docIDs.get(0)).toMutable();
+                        doc.setValue("tag", "Batch");
+                        try { db.save(doc); }
+                        catch (CouchbaseLiteException e) { fail(); }
+                        inBatch.countDown();
+                        try { assertTrue(readsDone.await(60, TimeUnit.SECONDS)); }
+                        catch (InterruptedException e) { fail(); }
+                    });
+                }
+                catch (CouchbaseLiteException e) { fail(); }
+            });
+
+        assertTrue(inBatch.await(60, TimeUnit.SECONDS));
+
+        // The readers see the last committed state, without waiting for the batch.
+        readDocs(docIDs, 1);
+        assertEquals("Create", db.getDocument(docIDs.get(0)).getString("tag"));
+        verifyByTagName("Create", 5);
+        readsDone.countDown();
+
+        assertTrue(latch1.await(60, TimeUnit.SECONDS));
+        checkForFailure();
+
+        assertEquals("Batch", db.getDocument(docIDs.get(0)).getString("tag"));
+        verifyByTagName("Batch", 1);
+    }
+
+    // Measures how long a cheap operation that needs the database lock waits, while large documents are saved.
+    @Test
+    @ConcurrencyUnitTest
+    public void testLockHoldTimeWithConcurrentWriters() throws InterruptedException, CouchbaseLiteException {
+        final int kNThreads = 4;
+        final int kNDocs = 20;
+        final int kNProps = 2000;
+
+        final CountDownLatch latch = new CountDownLatch(kNThreads);
+        for (int i = 0; i < kNThreads; i++) {
+            final String tag = "tag-" + i;
+            runSafelyInThread(
+                latch,
+                () -> {
+                    for (int j = 0; j < kNDocs; j++) {
+                        MutableDocument doc = new MutableDocument(tag + "-" + j);
+                        for (int k = 0; k < kNProps; k++) { doc.setString("key" + k, tag + "-value-" + k); }
+                        try { db.save(doc); }
+                        catch (CouchbaseLiteException e) { fail(); }
+                    }
+                });
+        }
+
+        long maxWait = 0;
+        long totalWait = 0;
+        int nSamples = 0;
+        while (latch.getCount() > 0) {
+            final long start = System.nanoTime();
+            db.getCount();
+            final long wait = System.nanoTime() - start;
+            maxWait = Math.max(maxWait, wait);
+            totalWait += wait;
+            nSamples++;
+        }
+
+        assertTrue(latch.await(180, TimeUnit.SECONDS));
+        checkForFailure();
+
+        Report.log(
+            LogLevel.INFO,
+            String.format(
+                Locale.ENGLISH,
+                "Lock wait with %d writers: max %d us, mean %d us, over %d samples",
+                kNThreads,
+                TimeUnit.NANOSECONDS.toMicros(maxWait),
+                TimeUnit.NANOSECONDS.toMicros(totalWait / Math.max(1, nSamples)),
+                nSamples));
+
+        assertEquals(kNThreads * kNDocs, db.getCount());
+    }
+
+    // Writers encode outside the lock, while other writers add new shared keys, and rolled back batches remove them.
+    @Test
+    @ConcurrencyUnitTest
+    public void testConcurrentNewKeysWithRollbacks() throws InterruptedException, CouchbaseLiteException {
+        final int kNThreads = 4;
+        final int kNDocs = 50;
+        final int kNProps = 20;
+
+        final CountDownLatch latch = new CountDownLatch(kNThreads + 1);
+        for (int i = 0; i < kNThreads; i++) {
+            final String tag = "tag-" + i;
+            runSafelyInThread(
+                latch,
+                () -> {
+                    for (int j = 0; j < kNDocs; j++) {
+                        MutableDocument doc = new MutableDocument(tag + "-" + j);
+                        for (int k = 0; k < kNProps; k++) { doc.setString(tag + "-key-" + j + "-" + k, "value-" + k); }
+                        try { db.save(doc); }
+                        catch (CouchbaseLiteException e) { fail(); }
+                    }
+                });
+        }
+
+        runSafelyInThread(
+            latch,
+            () -> {
+                for (int j = 0; j < kNDocs; j++) {
+                    final int n = j;
+                    try {
+                        db.inBatch(() -> {
+                            MutableDocument doc = new MutableDocument("rollback-" + n);
+                            for (int k = 0; k < kNProps; k++) { doc.setString("rollback-key-" + n + "-" + k, "x"); }
+                            try { db.save(doc); }
+                            catch (CouchbaseLiteException e) { fail(); }
+                            throw new IllegalStateException("roll back");
+                        });
+                        fail();
+                    }
+                    catch (CouchbaseLiteException ignore) { }
+                }
+            });
+
+        assertTrue(latch.await(180, TimeUnit.SECONDS));
+        checkForFailure();
+
+        assertEquals(kNThreads * kNDocs, db.getCount());
+        for (int i = 0; i < kNThreads; i++) {
+            final String tag = "tag-" + i;
+            for (int j = 0; j < kNDocs; j++) {
+                Document doc = db.getDocument(tag + "-" + j);
+                assertEquals(kNProps, doc.count());
+                for (int k = 0; k < kNProps; k++) {
+                    assertEquals("value-" + k, doc.getString(tag + "-key-" + j + "-" + k));
+                }
+            }
+        }
+    }
+
+    @Test
+    @ConcurrencyUnitTest
+    public void testConcurrentDelete()throws InterruptedException, CouchbaseLiteException {
         final int kNDocs = 100;
 
         // createDocs2 returns synchronized List.
@@ -551,11 +744,22 @@ public class ConcurrencyTest extends BaseTest {
         }
     }
 
+    private void reopenDBWithReaderPool(int readerPoolSize) throws CouchbaseLiteException {
+        closeDB();
+        DatabaseConfiguration config = new DatabaseConfiguration();
+        config.setDirectory(getDbDir().getAbsolutePath());
+        config.setReaderPoolSize(readerPoolSize);
+        db = new Database(TEST_DB, config);
+    }
+
+    // if tag is null, select all documents.
     private void verifyByTagName(String tag, VerifyBlock<Result> block) throws CouchbaseLiteException {
         Expression TAG_EXPR = Expression.property("tag");
         SelectResult DOCID = SelectResult.expression(Meta.id);
         DataSource ds = DataSource.database(db);
-        Query query = QueryBuilder.select(DOCID).from(ds).where(TAG_EXPR.equalTo(Expression.string(tag)));
+        Query query = (tag == null)
+            ? QueryBuilder.select(DOCID).from(ds)
+            : QueryBuilder.select(DOCID).from(ds).where(TAG_EXPR.equalTo(Expression.string(tag)));
         ResultSet rs = query.execute();
         Result result;
         int n = 0;
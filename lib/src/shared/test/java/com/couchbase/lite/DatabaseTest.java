@@ -18,14 +18,19 @@
 package com.couchbase.lite;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -36,6 +41,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -316,6 +322,352 @@ public class DatabaseTest extends BaseTest {
         db.inBatch(() -> validateDocs(NUM_DOCS));
     }
 
+    @Test
+    public void testGetDocuments() throws CouchbaseLiteException {
+        final int NUM_DOCS = 10;
+
+        List<String> docIds = createDocs(NUM_DOCS);
+        db.delete(db.getDocument("doc_003"));
+        docIds.add("doc_missing");
+
+        Map<String, Document> docs = db.getDocuments(docIds);
+        assertEquals(NUM_DOCS - 1, docs.size());
+        assertFalse(docs.containsKey("doc_003"));
+        assertFalse(docs.containsKey("doc_missing"));
+        for (Map.Entry<String, Document> entry: docs.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().getId());
+            verifyGetDocument(entry.getKey(), entry.getValue().getInt("key"));
+        }
+    }
+
+    @Test
+    public void testChangesSince() throws CouchbaseLiteException {
+        final int NUM_DOCS = 10;
+
+        createDocs(NUM_DOCS);
+
+        int n = 0;
+        long prevSeq = 0;
+        try (DocumentEnumerator<DocumentMetadata> changes = db.changesSince(0)) {
+            while (changes.hasNext()) {
+                DocumentMetadata change = changes.next();
+                assertTrue(change.getSequence() > prevSeq);
+                assertFalse(change.isDeleted());
+                prevSeq = change.getSequence();
+                n++;
+            }
+        }
+        assertEquals(NUM_DOCS, n);
+
+        final long seq = db.getLastSequence();
+        assertEquals(prevSeq, seq);
+
+        MutableDocument doc = db.getDocument("doc_001").toMutable();
+        doc.setValue("key", 11);
+        save(doc);
+        db.delete(db.getDocument("doc_002"));
+
+        List<DocumentMetadata> changed = new ArrayList<>();
+        try (DocumentEnumerator<DocumentMetadata> changes = db.changesSince(seq)) {
+            while (changes.hasNext()) { changed.add(changes.next()); }
+        }
+
+        assertEquals(2, changed.size());
+        assertEquals("doc_001", changed.get(0).getId());
+        assertEquals(doc.getRevisionID(), changed.get(0).getRevisionID());
+        assertFalse(changed.get(0).isDeleted());
+        assertEquals("doc_002", changed.get(1).getId());
+        assertTrue(changed.get(1).isDeleted());
+        assertEquals(db.getLastSequence(), changed.get(1).getSequence());
+    }
+
+    @Test
+    public void testAllDocuments() throws CouchbaseLiteException {
+        final int NUM_DOCS = 250;
+
+        createDocs(NUM_DOCS);
+        db.delete(db.getDocument("doc_003"));
+
+        int n = 0;
+        String prevId = "";
+        try (DocumentEnumerator<Document> docs = db.allDocuments()) {
+            while (docs.hasNext()) {
+                Document doc = docs.next();
+                assertTrue(doc.getId().compareTo(prevId) > 0);
+                verifyGetDocument(doc.getId(), doc.getInt("key"));
+                prevId = doc.getId();
+                n++;
+            }
+        }
+        assertEquals(NUM_DOCS - 1, n);
+    }
+
+    @Test
+    public void testAllDocumentsMetadata() throws CouchbaseLiteException {
+        final int NUM_DOCS = 10;
+
+        createDocs(NUM_DOCS);
+        db.delete(db.getDocument("doc_003"));
+
+        List<DocumentMetadata> docs = new ArrayList<>();
+        try (DocumentEnumerator<DocumentMetadata> metadata = db.allDocumentsMetadata(false)) {
+            while (metadata.hasNext()) { docs.add(metadata.next()); }
+        }
+        assertEquals(NUM_DOCS - 1, docs.size());
+        assertEquals("doc_000", docs.get(0).getId());
+        assertEquals(db.getDocument("doc_000").getRevisionID(), docs.get(0).getRevisionID());
+
+        docs.clear();
+        try (DocumentEnumerator<DocumentMetadata> metadata = db.allDocumentsMetadata(true)) {
+            while (metadata.hasNext()) { docs.add(metadata.next()); }
+        }
+        assertEquals(NUM_DOCS, docs.size());
+        assertEquals("doc_003", docs.get(3).getId());
+        assertTrue(docs.get(3).isDeleted());
+    }
+
+    @Test
+    public void testCloseAllDocumentsEarly() throws CouchbaseLiteException {
+        createDocs(10);
+
+        DocumentEnumerator<Document> docs = db.allDocuments();
+        assertTrue(docs.hasNext());
+        assertEquals("doc_000", docs.next().getId());
+        docs.close();
+        assertFalse(docs.hasNext());
+        docs.close();
+    }
+
+    @Test
+    public void testMaterializedView() throws CouchbaseLiteException, InterruptedException {
+        final String[] types = {"red", "green", "blue"};
+        for (int i = 0; i < 30; i++) {
+            MutableDocument mDoc = new MutableDocument(String.format(Locale.ENGLISH, "doc_%03d", i));
+            mDoc.setString("type", types[i % 3]);
+            mDoc.setInt("amount", i);
+            db.save(mDoc);
+        }
+
+        final MaterializedView.Mapper mapper = (doc, emitter) -> {
+            String type = doc.getString("type");
+            if (type != null) { emitter.emit(type, doc.getNumber("amount")); }
+        };
+
+        MaterializedView view = db.getMaterializedView("totals", "1", mapper);
+        assertSame(view, db.getMaterializedView("totals", "1", mapper));
+
+        List<MaterializedView.Row> rows = view.getRows();
+        assertEquals(3, rows.size());
+        assertEquals("blue", rows.get(0).getKey());
+        assertEquals(10, rows.get(0).getCount());
+        assertEquals(155.0, rows.get(0).getSum(), 0.0);
+        assertEquals(135.0, view.getRow("red").getSum(), 0.0);
+
+        // Changes are applied incrementally
+        MutableDocument mDoc = db.getDocument("doc_000").toMutable();
+        mDoc.setString("type", "green");
+        db.save(mDoc);
+        db.delete(db.getDocument("doc_002"));
+        db.purge("doc_005");
+
+        assertEquals(9, view.getRow("red").getCount());
+        assertEquals(11, view.getRow("green").getCount());
+        assertTrue(view.getLastSequence() > 0);
+
+        // A purge is not in the database's changes: the view learns of it from the change notification
+        for (int i = 0; (i < 50) && (view.getRow("blue").getCount() > 8); i++) { Thread.sleep(100); }
+        assertEquals(8, view.getRow("blue").getCount());
+
+        // The view is saved: it catches up from its saved sequence,
+        // and finds the documents that were purged while it was not open
+        reopenDB();
+        db.purge("doc_008");
+        view = db.getMaterializedView("totals", "1", mapper);
+        assertEquals(9, view.getRow("red").getCount());
+        assertEquals(7, view.getRow("blue").getCount());
+        assertNull(view.getRow("yellow"));
+
+        // A purged document that is created again is counted only once
+        mDoc = new MutableDocument("doc_008");
+        mDoc.setString("type", "blue");
+        mDoc.setInt("amount", 8);
+        db.save(mDoc);
+        assertEquals(8, view.getRow("blue").getCount());
+
+        // A new version of the mapper rebuilds the view
+        final MaterializedView.Mapper allMapper = (doc, emitter) -> emitter.emit("all", null);
+        view = db.getMaterializedView("totals", "2", allMapper);
+        rows = view.getRows();
+        assertEquals(1, rows.size());
+        assertEquals(28, rows.get(0).getCount());
+        assertEquals(0.0, rows.get(0).getSum(), 0.0);
+
+        // Deleting a view deletes all of its records: a new view with the same name starts from scratch
+        db.deleteMaterializedView("totals");
+        view = db.getMaterializedView("totals", "2", allMapper);
+        assertEquals(28, view.getRow("all").getCount());
+        db.deleteMaterializedView("totals");
+    }
+
+    @Test
+    public void testRebuildCorruptMaterializedView() throws CouchbaseLiteException {
+        final String[] types = {"red", "green", "blue"};
+        for (int i = 0; i < 30; i++) {
+            MutableDocument mDoc = new MutableDocument(String.format(Locale.ENGLISH, "doc_%03d", i));
+            mDoc.setString("type", types[i % 3]);
+            db.save(mDoc);
+        }
+
+        final MaterializedView.Mapper mapper = (doc, emitter) -> emitter.emit(doc.getString("type"), null);
+        assertEquals(10, db.getMaterializedView("types", "1", mapper).getRow("red").getCount());
+
+        // Corrupt every one of the view's index records
+        final String store = MaterializedView.STORE_PREFIX + "types";
+        final byte[] garbage = "{[garbage".getBytes(StandardCharsets.UTF_8);
+        db.inRawTransaction(c4db -> {
+            for (int i = 0; i < MaterializedView.INDEX_BUCKETS; i++) {
+                c4db.rawPut(store, MaterializedView.DOC_INDEX_PREFIX + i, null, garbage);
+                c4db.rawPut(store, MaterializedView.ROW_INDEX_PREFIX + i, null, garbage);
+            }
+        });
+
+        // The view is rebuilt, ignoring the records that its corrupt indexes listed
+        reopenDB();
+        final MaterializedView view = db.getMaterializedView("types", "1", mapper);
+        assertEquals(10, view.getRow("red").getCount());
+        assertEquals(10, view.getRow("green").getCount());
+
+        MutableDocument mDoc = db.getDocument("doc_000").toMutable();
+        mDoc.setString("type", "green");
+        db.save(mDoc);
+        assertEquals(9, view.getRow("red").getCount());
+        assertEquals(11, view.getRow("green").getCount());
+
+        db.deleteMaterializedView("types");
+    }
+
+    @Test
+    public void testGetStatistics()throws CouchbaseLiteException {
+        createDocs(10);
+        db.delete(db.getDocument("doc_003"));
+
+        MutableDocument doc = new MutableDocument("doc_blob");
+        doc.setBlob("blob", new Blob("text/plain", "hello blob".getBytes()));
+        db.save(doc);
+
+        DatabaseStatistics stats = db.getStatistics();
+        assertEquals(10, stats.getDocumentCount());
+        assertEquals(db.getLastSequence(), stats.getLastSequence());
+        assertTrue(stats.getFileSize() > 0);
+        assertEquals(1, stats.getBlobCount());
+        assertEquals("hello blob".length(), stats.getBlobBytes());
+        assertEquals(-1, stats.getTombstoneCount());
+        assertEquals(-1, stats.getAverageBodySize());
+
+        stats = db.getStatistics(true);
+        assertEquals(1, stats.getTombstoneCount());
+        assertTrue(stats.getAverageBodySize() > 0);
+    }
+
+    @Test
+    public void testDocumentCache() throws CouchbaseLiteException {
+        assertNull(db.getDocumentCacheStats());
+
+        closeDB();
+        DatabaseConfiguration config = new DatabaseConfiguration();
+        config.setDirectory(getDbDir().getAbsolutePath());
+        config.setDocumentCacheSize(2);
+        db = new Database(TEST_DB, config);
+
+        createDocs(3);
+
+        Document doc = db.getDocument("doc_000");
+        assertNotNull(doc);
+        Document cached = db.getDocument("doc_000");
+        assertNotSame(doc, cached);
+        assertEquals(doc.getRevisionID(), cached.getRevisionID());
+        CacheStats stats = db.getDocumentCacheStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getSize());
+        assertEquals(2, stats.getCapacity());
+
+        // The least recently used document is evicted
+        db.getDocument("doc_001");
+        db.getDocument("doc_002");
+        assertEquals(2, db.getDocumentCacheStats().getSize());
+        db.getDocument("doc_000");
+        assertEquals(4, db.getDocumentCacheStats().getMisses());
+
+        // A save invalidates the cached document
+        doc = db.getDocument("doc_000");
+        MutableDocument mDoc = doc.toMutable();
+        mDoc.setString("foo", "bar");
+        db.save(mDoc);
+        Document saved = db.getDocument("doc_000");
+        assertNotSame(doc, saved);
+        assertEquals("bar", saved.getString("foo"));
+
+        // So does a delete
+        db.delete(saved);
+        assertNull(db.getDocument("doc_000"));
+
+        // A batch sees its own writes
+        db.inBatch(() -> {
+            try {
+                MutableDocument mDoc1 = db.getDocument("doc_001").toMutable();
+                mDoc1.setString("foo", "baz");
+                db.save(mDoc1);
+                assertEquals("baz", db.getDocument("doc_001").getString("foo"));
+            }
+            catch (CouchbaseLiteException e) { throw new RuntimeException(e); }
+        });
+        assertEquals("baz", db.getDocument("doc_001").getString("foo"));
+    }
+
+    @Test
+    public void testDeleteCachedDocument() throws CouchbaseLiteException, InterruptedException {
+        closeDB();
+        DatabaseConfiguration config = new DatabaseConfiguration();
+        config.setDirectory(getDbDir().getAbsolutePath());
+        config.setDocumentCacheSize(10);
+        db = new Database(TEST_DB, config);
+
+        MutableDocument mDoc = new MutableDocument("doc1");
+        for (int i = 0; i < 100; i++) { mDoc.setInt("key" + i, i); }
+        db.save(mDoc);
+
+        final Document reader = db.getDocument("doc1");
+        final Document deleter = db.getDocument("doc1");
+        assertNotSame(reader, deleter);
+        final String revId = reader.getRevisionID();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread t = new Thread(() -> {
+            try {
+                started.countDown();
+                for (int n = 0; n < 100; n++) {
+                    for (int i = 0; i < 100; i++) { assertEquals(i, reader.getInt("key" + i)); }
+                }
+            }
+            catch (Throwable e) { error.set(e); }
+        });
+        t.start();
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        db.delete(deleter);
+        t.join(10000);
+        assertNull(error.get());
+
+        // Deleting one instance does not change the other
+        assertTrue(deleter.isDeleted());
+        assertFalse(reader.isDeleted());
+        assertEquals(revId, reader.getRevisionID());
+        assertEquals(99, reader.getInt("key99"));
+        assertNull(db.getDocument("doc1"));
+    }
+
     @Test
     public void testGetDocFromClosedDB() throws CouchbaseLiteException {
         // Store doc:
@@ -485,6 +837,220 @@ public class DatabaseTest extends BaseTest {
         validateDocs(NUM_DOCS);
     }
 
+    @Test
+    public void testSaveAll() throws CouchbaseLiteException {
+        final int NUM_DOCS = 10;
+
+        List<MutableDocument> docs = new ArrayList<>();
+        for (int i = 0; i < NUM_DOCS; i++) {
+            MutableDocument doc = new MutableDocument(String.format(Locale.US, "doc_%03d", i));
+            doc.setValue("key", i);
+            docs.add(doc);
+        }
+
+        List<MutableDocument> conflicts = db.saveAll(docs, ConcurrencyControl.LAST_WRITE_WINS);
+        assertTrue(conflicts.isEmpty());
+        assertEquals(NUM_DOCS, db.getCount());
+        validateDocs(NUM_DOCS);
+    }
+
+    @Test
+    public void testSaveAllFailOnConflict() throws CouchbaseLiteException {
+        createDocs(2);
+
+        MutableDocument doc1 = db.getDocument("doc_000").toMutable();
+        MutableDocument doc2 = db.getDocument("doc_001").toMutable();
+
+        // Update doc_001 behind doc2's back
+        MutableDocument doc2a = db.getDocument("doc_001").toMutable();
+        doc2a.setValue("key", 22);
+        save(doc2a);
+
+        doc1.setValue("key", 10);
+        doc2.setValue("key", 11);
+        List<MutableDocument> conflicts = db.saveAll(Arrays.asList(doc1, doc2), ConcurrencyControl.FAIL_ON_CONFLICT);
+        assertEquals(1, conflicts.size());
+        assertEquals("doc_001", conflicts.get(0).getId());
+
+        verifyGetDocument("doc_000", 10);
+        verifyGetDocument("doc_001", 22);
+    }
+
+    @Test
+    public void testSaveAllDocInDifferentDB() throws CouchbaseLiteException {
+        createDocs(1);
+
+        MutableDocument doc1 = db.getDocument("doc_000").toMutable();
+        final String revId = doc1.getRevisionID();
+        final long sequence = doc1.getSequence();
+        doc1.setValue("key", 10);
+
+        Database otherDB = openDatabase("otherDB");
+        try {
+            MutableDocument doc2 = new MutableDocument("doc_001");
+            otherDB.save(doc2);
+            doc2.setValue("key", 11);
+
+            try {
+                db.saveAll(Arrays.asList(doc1, doc2), ConcurrencyControl.FAIL_ON_CONFLICT);
+                fail();
+            }
+            catch (CouchbaseLiteException e) {
+                assertEquals(CBLError.Domain.CBLITE, e.getDomain());
+                assertEquals(CBLError.Code.INVALID_PARAMETER, e.getCode());
+            }
+        }
+        finally {
+            deleteDatabase(otherDB);
+            deleteDatabase("otherDB");
+        }
+
+        // Nothing was saved and the valid document still has its original revision
+        assertEquals(revId, doc1.getRevisionID());
+        assertEquals(sequence, doc1.getSequence());
+        verifyGetDocument("doc_000", 0);
+        assertNull(db.getDocument("doc_001"));
+
+        // ... so it can still be saved
+        db.save(doc1, ConcurrencyControl.FAIL_ON_CONFLICT);
+        verifyGetDocument("doc_000", 10);
+    }
+
+    @Test
+    public void testSaveAsync() throws Exception {
+        final int NUM_DOCS = 100;
+
+        List<Future<Document>> saves = new ArrayList<>();
+        for (int i = 0; i < NUM_DOCS; i++) {
+            MutableDocument doc = new MutableDocument(String.format(Locale.US, "doc_%03d", i));
+            doc.setValue("key", i);
+            saves.add(db.saveAsync(doc));
+        }
+
+        for (int i = 0; i < NUM_DOCS; i++) {
+            Document doc = saves.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(String.format(Locale.US, "doc_%03d", i), doc.getId());
+        }
+
+        assertEquals(NUM_DOCS, db.getCount());
+        validateDocs(NUM_DOCS);
+    }
+
+    @Test
+    public void testSaveAsyncFailOnConflict() throws Exception {
+        createDocs(1);
+
+        MutableDocument doc1 = db.getDocument("doc_000").toMutable();
+
+        MutableDocument doc1a = db.getDocument("doc_000").toMutable();
+        doc1a.setValue("key", 22);
+        save(doc1a);
+
+        doc1.setValue("key", 10);
+        Future<Document> conflicted = db.saveAsync(doc1, ConcurrencyControl.FAIL_ON_CONFLICT);
+        MutableDocument doc2 = new MutableDocument("doc_001");
+        doc2.setValue("key", 1);
+        Future<Document> saved = db.saveAsync(doc2, ConcurrencyControl.FAIL_ON_CONFLICT);
+
+        try {
+            conflicted.get(10, TimeUnit.SECONDS);
+            fail("Expected a conflict");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CouchbaseLiteException);
+            assertEquals(CBLError.Code.CONFLICT, ((CouchbaseLiteException) e.getCause()).getCode());
+        }
+        assertEquals("doc_001", saved.get(10, TimeUnit.SECONDS).getId());
+
+        verifyGetDocument("doc_000", 22);
+        verifyGetDocument("doc_001", 1);
+    }
+
+    @Test
+    public void testSaveAsyncDocInDifferentDB() throws Exception {
+        Database otherDB = openDatabase("otherDB");
+        try {
+            MutableDocument doc1 = new MutableDocument("doc_000");
+            otherDB.save(doc1);
+            doc1.setValue("key", 10);
+            Future<Document> failed = db.saveAsync(doc1);
+
+            MutableDocument doc2 = new MutableDocument("doc_001");
+            doc2.setValue("key", 1);
+            Future<Document> saved = db.saveAsync(doc2);
+
+            try {
+                failed.get(10, TimeUnit.SECONDS);
+                fail("Expected a failure");
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof CouchbaseLiteException);
+                assertEquals(CBLError.Code.INVALID_PARAMETER, ((CouchbaseLiteException) e.getCause()).getCode());
+            }
+            assertEquals("doc_001", saved.get(10, TimeUnit.SECONDS).getId());
+        }
+        finally {
+            deleteDatabase(otherDB);
+            deleteDatabase("otherDB");
+        }
+
+        assertNull(db.getDocument("doc_000"));
+        verifyGetDocument("doc_001", 1);
+    }
+
+    @Test
+    public void testSaveAsyncLastWriteWinsInQueueOrder() throws Exception {
+        // Several copies of the same document, all in one group: the last one queued wins.
+        List<Future<Document>> saves = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            MutableDocument doc = new MutableDocument("doc_000");
+            doc.setValue("key", i);
+            saves.add(db.saveAsync(doc));
+        }
+
+        for (Future<Document> save : saves) { assertEquals("doc_000", save.get(10, TimeUnit.SECONDS).getId()); }
+
+        verifyGetDocument("doc_000", 19);
+    }
+
+    @Test
+    public void testSaveAsyncThenClose() throws Exception {
+        MutableDocument doc = new MutableDocument("doc_000");
+        doc.setValue("key", 0);
+        Future<Document> save = db.saveAsync(doc);
+
+        // Queued saves are committed when the database closes
+        reopenDB();
+
+        assertEquals("doc_000", save.get(10, TimeUnit.SECONDS).getId());
+        verifyGetDocument("doc_000", 0);
+    }
+
+    @Test
+    public void testSaveAsyncCloseWhileCommitting() throws Exception {
+        final int NUM_DOCS = 200;
+
+        closeDB();
+        DatabaseConfiguration config = new DatabaseConfiguration();
+        config.setDirectory(getDbDir().getAbsolutePath());
+        config.setGroupCommitMaxSize(2);
+        db = new Database(TEST_DB, config);
+
+        // Small groups: the writer is very likely to have taken a group when the database closes.
+        List<Future<Document>> saves = new ArrayList<>();
+        for (int i = 0; i < NUM_DOCS; i++) {
+            MutableDocument doc = new MutableDocument(String.format(Locale.US, "doc_%03d", i));
+            doc.setValue("key", i);
+            saves.add(db.saveAsync(doc));
+        }
+
+        reopenDB();
+
+        for (Future<Document> save : saves) { assertNotNull(save.get(10, TimeUnit.SECONDS)); }
+        assertEquals(NUM_DOCS, db.getCount());
+        validateDocs(NUM_DOCS);
+    }
+
     @Test
     public void testSaveDocToClosedDB() throws CouchbaseLiteException {
         db.close();
@@ -620,6 +1186,22 @@ public class DatabaseTest extends BaseTest {
         assertEquals(0, db.getCount());
     }
 
+    @Test
+    public void testDeleteAll() throws CouchbaseLiteException {
+        final int NUM_DOCS = 10;
+
+        createDocs(NUM_DOCS);
+
+        List<MutableDocument> docs = new ArrayList<>();
+        for (int i = 0; i < NUM_DOCS; i++) {
+            docs.add(db.getDocument(String.format(Locale.US, "doc_%03d", i)).toMutable());
+        }
+
+        List<Document> conflicts = db.deleteAll(docs, ConcurrencyControl.LAST_WRITE_WINS);
+        assertTrue(conflicts.isEmpty());
+        assertEquals(0, db.getCount());
+    }
+
     @Test
     public void testDeleteDocOnClosedDB() throws CouchbaseLiteException {
         // Store doc:
@@ -1333,6 +1915,67 @@ public class DatabaseTest extends BaseTest {
         assertEquals(4, db.getIndexes().size());
     }
 
+    @Test
+    public void testCreateIndexAsync() throws CouchbaseLiteException, InterruptedException {
+        createDocs(100);
+
+        final List<IndexBuildChange> changes = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        db.createIndexAsync(
+            "index1",
+            IndexBuilder.valueIndex(ValueIndexItem.property("key")),
+            change -> {
+                changes.add(change);
+                if (change.getStatus() != IndexBuildChange.Status.BUILDING) { latch.countDown(); }
+            });
+
+        // A write waits for the build
+        MutableDocument doc = new MutableDocument("doc_during_build");
+        doc.setInt("key", 100);
+        db.save(doc);
+
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertEquals(2, changes.size());
+        assertEquals(IndexBuildChange.Status.BUILDING, changes.get(0).getStatus());
+        assertEquals(IndexBuildChange.Status.COMPLETED, changes.get(1).getStatus());
+        assertEquals("index1", changes.get(1).getIndexName());
+        assertNull(changes.get(1).getError());
+
+        assertEquals(Arrays.asList("index1"), db.getIndexes());
+        assertEquals(101, db.getCount());
+    }
+
+    @Test
+    public void testSaveTimesOutDuringIndexBuild() throws CouchbaseLiteException, InterruptedException {
+        createDocs(1000);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        db.setIndexBuildWait(0);
+        db.createIndexAsync(
+            "index1",
+            IndexBuilder.valueIndex(ValueIndexItem.property("key")),
+            change -> { if (change.getStatus() != IndexBuildChange.Status.BUILDING) { latch.countDown(); } });
+
+        // A write waits for the build only as long as it is allowed to: then it fails with BUSY
+        MutableDocument doc = new MutableDocument("doc_during_build");
+        doc.setInt("key", 1000);
+        try {
+            db.save(doc);
+            fail("Save should have timed out waiting for the index build");
+        }
+        catch (CouchbaseLiteException e) {
+            assertEquals(CBLError.Domain.CBLITE, e.getDomain());
+            assertEquals(CBLError.Code.BUSY, e.getCode());
+        }
+
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertNull(db.getDocument("doc_during_build"));
+
+        // Once the build is complete, the write succeeds
+        db.save(doc);
+        assertEquals(1001, db.getCount());
+    }
+
     @Test
     public void testIndexBuilderEmptyArgs() {
         assertThrows(IllegalArgumentException.class, () -> IndexBuilder.fullTextIndex((FullTextIndexItem[]) null));
@@ -2665,4 +2665,121 @@ public class DocumentTest extends BaseTest {
         assertEquals(docRevID, doc.getRevisionID());
         assertNotEquals(docRevID, mdoc.getRevisionID());
     }
+
+    @Test
+    public void testSaveAndReadObjects() throws CouchbaseLiteException {
+        Person person = new Person();
+        person.name = "Scott";
+        person.age = 42;
+        person.born = DateUtils.fromJson("1978-02-01T10:00:00.000Z");
+        person.tags = Arrays.asList("a", "b");
+        person.address = new Address();
+        person.address.city = "Oakland";
+        person.secret = "ignored";
+        db.saveObject("person1", person);
+
+        // The object is stored as ordinary properties
+        Document doc = db.getDocument("person1");
+        assertNotNull(doc);
+        assertEquals("Scott", doc.getString("name"));
+        assertEquals(42, doc.getInt("age"));
+        assertEquals(person.born, doc.getDate("born"));
+        assertEquals(2, doc.getArray("tags").count());
+        assertEquals("Oakland", doc.getDictionary("address").getString("city"));
+        assertFalse(doc.contains("secret"));
+        assertFalse(doc.contains("nickname"));
+
+        Person copy = db.getObject("person1", Person.class);
+        assertNotNull(copy);
+        assertEquals("Scott", copy.name);
+        assertEquals(42, copy.age);
+        assertEquals(person.born, copy.born);
+        assertEquals(Arrays.asList("a", "b"), copy.tags);
+        assertEquals("Oakland", copy.address.city);
+        assertNull(copy.secret);
+        assertNull(copy.nickname);
+        assertNull(db.getObject("nobody", Person.class));
+
+        // A mutable document is read from its current properties
+        MutableDocument mDoc = doc.toMutable();
+        mDoc.setInt("age", 43);
+        assertEquals(43, mDoc.toObject(Person.class).age);
+        assertEquals("Oakland", mDoc.toObject(Person.class).address.city);
+
+        // Saving an object replaces the existing properties
+        person.age = 44;
+        person.address = null;
+        db.saveObject("person1", person);
+        copy = db.getObject("person1", Person.class);
+        assertEquals(44, copy.age);
+        assertNull(copy.address);
+
+        Query query = QueryBuilder
+            .select(SelectResult.property("name"), SelectResult.property("age"), SelectResult.all())
+            .from(DataSource.database(db));
+        try (ResultSet rs = query.execute()) {
+            Result result = rs.next();
+            assertNotNull(result);
+            Person row = result.toObject(Person.class);
+            assertEquals("Scott", row.name);
+            assertEquals(44, row.age);
+            assertNull(row.tags);
+
+            row = result.getObject(db.getName(), Person.class);
+            assertNotNull(row);
+            assertEquals(Arrays.asList("a", "b"), row.tags);
+            assertNull(result.getObject("name", Person.class));
+            assertNull(rs.next());
+        }
+    }
+
+    @Test
+    public void testReadObjectWithMismatchedType() throws CouchbaseLiteException {
+        MutableDocument mDoc = new MutableDocument("person2");
+        mDoc.setString("name", "Scott");
+        mDoc.setString("age", "forty-two");
+        db.save(mDoc);
+
+        // A null property leaves the field unset
+        MutableDocument nullAge = new MutableDocument("person3");
+        nullAge.setString("name", "Pat");
+        nullAge.setValue("age", null);
+        db.save(nullAge);
+        Person person = db.getObject("person3", Person.class);
+        assertNotNull(person);
+        assertEquals("Pat", person.name);
+        assertEquals(0, person.age);
+
+        // A property of the wrong type is an error that names the field and the stored type
+        try {
+            db.getObject("person2", Person.class);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("age"));
+            assertTrue(e.getMessage().contains("String"));
+        }
+
+        try {
+            mDoc.toObject(Person.class);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("age"));
+        }
+    }
+
+    static class Address {
+        String city;
+    }
+
+    static class Person {
+        String name;
+        int age;
+        Date born;
+        List<String> tags;
+        Address address;
+        String nickname;
+        transient String secret;
+    }
 }
@@ -18,12 +18,17 @@
 package com.couchbase.lite;
 
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 
@@ -179,6 +184,186 @@ public class LiveQueryTest extends BaseTest {
         }
     }
 
+    // With deltas enabled, changes report only the rows that changed
+    @Test
+    public void testLiveQueryDeltas() throws CouchbaseLiteException, InterruptedException {
+        createDocNumbered(1);
+        createDocNumbered(2);
+
+        final Query query = QueryBuilder
+            .select(SelectResult.expression(Meta.id), SelectResult.property(KEY))
+            .from(DataSource.database(db))
+            .where(Expression.property(KEY).greaterThanOrEqualTo(Expression.intValue(0)))
+            .orderBy(Ordering.property(KEY).ascending());
+        query.setLiveQueryConfiguration(
+            new LiveQueryConfiguration().setUpdateInterval(10).setDeltasEnabled(true).setDeltaKey("id"));
+
+        final BlockingQueue<QueryChange> changes = new LinkedBlockingQueue<>();
+        ListenerToken token = query.addChangeListener(executor, changes::add);
+        try {
+            // Initially, every row is inserted
+            QueryChange change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(2, change.getInsertedResults().size());
+            assertEquals(0, change.getRemovedResults().size());
+            assertEquals(0, change.getUpdatedResults().size());
+            // The full results are still available
+            assertEquals(2, change.getResults().allResults().size());
+
+            MutableDocument doc = db.getDocument("doc-1").toMutable();
+            doc.setValue(KEY, 10);
+            save(doc);
+
+            change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(0, change.getInsertedResults().size());
+            assertEquals(0, change.getRemovedResults().size());
+            assertEquals(1, change.getUpdatedResults().size());
+            assertEquals("doc-1", change.getUpdatedResults().get(0).getString("id"));
+            assertEquals(10, change.getUpdatedResults().get(0).getInt(KEY));
+
+            db.delete(db.getDocument("doc-2"));
+
+            change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(0, change.getInsertedResults().size());
+            assertEquals(1, change.getRemovedResults().size());
+            assertEquals("doc-2", change.getRemovedResults().get(0).getString("id"));
+            assertEquals(0, change.getUpdatedResults().size());
+        }
+        finally {
+            query.removeChangeListener(token);
+        }
+    }
+
+    // Without deltas enabled, changes report only the new results
+    @Test
+    public void testLiveQueryNoDeltas() throws CouchbaseLiteException, InterruptedException {
+        final Query query = QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property(KEY).greaterThanOrEqualTo(Expression.intValue(0)));
+        assertEquals(LiveQueryConfiguration.DEFAULT_UPDATE_INTERVAL_MS,
+            query.getLiveQueryConfiguration().getUpdateInterval());
+
+        final BlockingQueue<QueryChange> changes = new LinkedBlockingQueue<>();
+        ListenerToken token = query.addChangeListener(executor, changes::add);
+        try {
+            QueryChange change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertNull(change.getInsertedResults());
+            assertNull(change.getRemovedResults());
+            assertNull(change.getUpdatedResults());
+        }
+        finally {
+            query.removeChangeListener(token);
+        }
+    }
+
+    // Changes to documents that cannot match the query should not refresh it
+    @Test
+    public void testLiveQuerySkipsIrrelevantChanges() throws CouchbaseLiteException, InterruptedException {
+        final Query query = QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("type").equalTo(Expression.string("user")));
+
+        final BlockingQueue<QueryChange> changes = new LinkedBlockingQueue<>();
+        ListenerToken token = query.addChangeListener(executor, changes::add);
+        try {
+            assertNotNull(changes.poll(10, TimeUnit.SECONDS));
+
+            MutableDocument doc = new MutableDocument("order-1");
+            doc.setValue("type", "order");
+            save(doc);
+
+            for (int i = 0; (i < 100) && (query.getLiveQueryStats().getChanges() < 1); i++) { Thread.sleep(100); }
+            assertEquals(1, query.getLiveQueryStats().getSkippedChanges());
+            assertNull(changes.poll(LiveQuery.LIVE_QUERY_UPDATE_INTERVAL_MS * 3, TimeUnit.MILLISECONDS));
+
+            doc = new MutableDocument("user-1");
+            doc.setValue("type", "user");
+            save(doc);
+
+            QueryChange change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(1, change.getResults().allResults().size());
+
+            // A document that no longer matches must still refresh the query
+            doc = db.getDocument("user-1").toMutable();
+            doc.setValue("type", "order");
+            save(doc);
+
+            change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(0, change.getResults().allResults().size());
+
+            assertEquals(3, query.getLiveQueryStats().getRefreshes());
+        }
+        finally {
+            query.removeChangeListener(token);
+        }
+    }
+
+    // Identical queries should share a single live query
+    @Test
+    public void testIdenticalLiveQueriesShareRefreshes() throws CouchbaseLiteException, InterruptedException {
+        final Query query1 = QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property(KEY).greaterThanOrEqualTo(Expression.intValue(0)));
+        final Query query2 = QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property(KEY).greaterThanOrEqualTo(Expression.intValue(0)));
+
+        final BlockingQueue<QueryChange> changes1 = new LinkedBlockingQueue<>();
+        final BlockingQueue<QueryChange> changes2 = new LinkedBlockingQueue<>();
+        ListenerToken token1 = query1.addChangeListener(executor, changes1::add);
+        ListenerToken token2 = query2.addChangeListener(executor, changes2::add);
+        try {
+            assertNotNull(changes1.poll(10, TimeUnit.SECONDS));
+            assertNotNull(changes2.poll(10, TimeUnit.SECONDS));
+
+            // Adding the second listener may have caused a second refresh
+            Thread.sleep(2 * LiveQuery.LIVE_QUERY_UPDATE_INTERVAL_MS);
+            changes1.clear();
+            changes2.clear();
+
+            createDocNumbered(10);
+
+            QueryChange change1 = changes1.poll(10, TimeUnit.SECONDS);
+            QueryChange change2 = changes2.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change1);
+            assertNotNull(change2);
+            assertEquals(query1, change1.getQuery());
+            assertEquals(query2, change2.getQuery());
+
+            // Each listener has its own copy of the results:
+            // consuming and closing one of them does not affect the other.
+            final ResultSet results1 = change1.getResults();
+            final int rows = results1.allResults().size();
+            assertTrue(rows > 0);
+            results1.close();
+            assertNull(results1.next());
+
+            final ResultSet results2 = change2.getResults();
+            assertNotSame(results1, results2);
+            assertEquals(rows, results2.getRowCount());
+            final List<Result> all2 = results2.allResults();
+            assertEquals(rows, all2.size());
+            for (Result result : all2) { assertNotNull(result.getString(0)); }
+
+            assertEquals(
+                query1.getLiveQueryStats().getRefreshes(),
+                query2.getLiveQueryStats().getRefreshes());
+        }
+        finally {
+            query1.removeChangeListener(token1);
+            query2.removeChangeListener(token2);
+        }
+    }
+
     // create test docs
     private void createDocNumbered(int i) throws CouchbaseLiteException {
         String docID = "doc-" + i;
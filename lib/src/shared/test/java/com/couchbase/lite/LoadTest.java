@@ -17,10 +17,14 @@
 //
 package com.couchbase.lite;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
@@ -50,6 +54,38 @@ public class LoadTest extends BaseTest {
         logPerformanceStats("testCreate()", (System.currentTimeMillis() - start));
     }
 
+    @Test
+    public void testCreateWithSaveAll() throws Exception {
+        long start = System.currentTimeMillis();
+
+        final String tag = "CreateWithSaveAll";
+        List<MutableDocument> docs = new ArrayList<>();
+        for (int i = 0; i < ITERATIONS; i++) {
+            docs.add(createDocumentWithTag(String.format(Locale.ENGLISH, "doc-%010d", i), tag));
+        }
+        assertTrue(db.saveAll(docs, ConcurrencyControl.LAST_WRITE_WINS).isEmpty());
+        verifyByTagName(tag, ITERATIONS);
+        assertEquals(ITERATIONS, db.getCount());
+
+        logPerformanceStats("testCreateWithSaveAll()", (System.currentTimeMillis() - start));
+    }
+
+    @Test
+    public void testCreateWithSaveAsync() throws Exception {
+        long start = System.currentTimeMillis();
+
+        final String tag = "CreateWithSaveAsync";
+        List<Future<Document>> saves = new ArrayList<>();
+        for (int i = 0; i < ITERATIONS; i++) {
+            saves.add(db.saveAsync(createDocumentWithTag(String.format(Locale.ENGLISH, "doc-%010d", i), tag)));
+        }
+        for (Future<Document> save : saves) { assertNotNull(save.get(60, TimeUnit.SECONDS)); }
+        verifyByTagName(tag, ITERATIONS);
+        assertEquals(ITERATIONS, db.getCount());
+
+        logPerformanceStats("testCreateWithSaveAsync()", (System.currentTimeMillis() - start));
+    }
+
     @Test
     public void testAddRevisions() {
         final int revs = 1000;
@@ -34,6 +34,7 @@ import java.util.TimeZone;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Ignore;
 import org.junit.Test;
@@ -397,6 +398,29 @@ public class QueryTest extends BaseTest {
         assertEquals(1, numRows);
     }
 
+    @Test
+    public void testWhereStringNeedingEscapes() throws Exception {
+        final String str = "quote\" backslash\\ newline\n tab\t control\u0001 unicode\u00e9\u4e2d";
+        final MutableDocument doc1 = new MutableDocument();
+        doc1.setValue("string", str);
+        save(doc1);
+
+        final MutableDocument doc2 = new MutableDocument();
+        doc2.setValue("string", "plain");
+        save(doc2);
+
+        Query query = QueryBuilder
+            .select(SR_DOCID, SelectResult.expression(Expression.string(str)).as("lit\"eral"))
+            .from(DataSource.database(db))
+            .where(Expression.property("string").equalTo(Expression.string(str)));
+
+        int numRows = verifyQuery(query, (n, result) -> {
+            assertEquals(doc1.getId(), result.getString(0));
+            assertEquals(str, result.getString("lit\"eral"));
+        });
+        assertEquals(1, numRows);
+    }
+
     @Test
     public void testWhereBetween() throws Exception {
         Object[][] cases = {
@@ -2083,6 +2107,358 @@ public class QueryTest extends BaseTest {
         assertEquals(0, rs.allResults().size());
     }
 
+    @Test
+    public void testResultSetIteratorIsLazy() throws Exception {
+        loadNumbers(5);
+
+        Query query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .orderBy(Ordering.property("number1"));
+
+        try (ResultSet rs = query.execute()) {
+            // Rows are read as they are requested: the iterator shares the cursor with next()
+            Iterator<Result> itr = rs.iterator();
+            assertTrue(itr.hasNext());
+            assertEquals("doc1", itr.next().getString(0));
+            assertEquals("doc2", rs.next().getString(0));
+            assertEquals("doc3", itr.next().getString(0));
+            assertEquals(2, rs.allResults().size());
+            assertFalse(itr.hasNext());
+        }
+
+        // Closing early releases the enumerator
+        ResultSet rs = query.execute();
+        Iterator<Result> itr = rs.iterator();
+        assertEquals("doc1", itr.next().getString(0));
+        rs.close();
+        assertFalse(itr.hasNext());
+        assertNull(rs.next());
+        rs.close();
+    }
+
+    @Test
+    public void testReadResultAfterClose() throws Exception {
+        loadNumbers(5);
+
+        Query query = QueryBuilder.select(SelectResult.expression(Meta.id), SelectResult.property("number1"))
+            .from(DataSource.database(db))
+            .orderBy(Ordering.property("number1"));
+
+        ResultSet rs = query.execute();
+        Result result = rs.next();
+        assertNotNull(result);
+        assertEquals("doc1", result.getString(0));
+        rs.close();
+
+        // The values belong to the result set: once it is closed, they are gone.
+        assertThrows(IllegalStateException.class, () -> result.getString(0));
+        assertThrows(IllegalStateException.class, () -> result.getInt("number1"));
+        assertThrows(IllegalStateException.class, result::toMap);
+
+        // Metadata is still available
+        assertEquals(2, result.count());
+    }
+
+    @Test
+    public void testResultsAcrossRowBatches() throws Exception {
+        // Rows are fetched from LiteCore in batches: read enough rows to cross several batch boundaries
+        final int n = 150;
+        loadNumbers(n);
+
+        Query query = QueryBuilder.select(
+            SelectResult.expression(Meta.id),
+            SelectResult.property("number1"),
+            SelectResult.property("nonexistent"))
+            .from(DataSource.database(db))
+            .orderBy(Ordering.property("number1"));
+
+        List<Result> results = new ArrayList<>();
+        try (ResultSet rs = query.execute()) {
+            for (Result r : rs) { results.add(r); }
+
+            // Results from earlier batches remain valid after later batches have been read
+            assertEquals(n, results.size());
+            for (int i = 0; i < n; i++) {
+                Result r = results.get(i);
+                assertEquals("doc" + (i + 1), r.getString(0));
+                assertEquals(i + 1, r.getInt(1));
+                assertNull(r.getValue(2));
+                assertFalse(r.toMap().containsKey("nonexistent"));
+            }
+        }
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        assertNull(db.getQueryCacheStats());
+
+        closeDB();
+        DatabaseConfiguration config = new DatabaseConfiguration();
+        config.setDirectory(getDbDir().getAbsolutePath());
+        config.setQueryCacheSize(2);
+        db = new Database(TEST_DB, config);
+
+        loadNumbers(10);
+
+        // Identical queries share a compiled query
+        assertEquals(4, QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThan(Expression.intValue(5)))
+            .execute().allResults().size());
+        Query query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThan(Expression.intValue(5)));
+        assertFalse(query.explain().contains("numIdx"));
+        CacheStats stats = db.getQueryCacheStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getSize());
+        assertEquals(2, stats.getCapacity());
+
+        // Creating an index invalidates the cached query, so that it is recompiled to use the index
+        db.createIndex("numIdx", IndexBuilder.valueIndex(ValueIndexItem.property("number1")));
+        assertTrue(query.explain().contains("numIdx"));
+        assertEquals(4, query.execute().allResults().size());
+        stats = db.getQueryCacheStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(2, stats.getMisses());
+
+        // So does deleting it
+        db.deleteIndex("numIdx");
+        assertFalse(query.explain().contains("numIdx"));
+        assertEquals(4, query.execute().allResults().size());
+
+        // The least recently used query is evicted
+        for (int i = 0; i < 3; i++) {
+            QueryBuilder.select(SelectResult.expression(Meta.id))
+                .from(DataSource.database(db))
+                .where(Expression.property("number1").equalTo(Expression.intValue(i)))
+                .execute();
+        }
+        assertEquals(2, db.getQueryCacheStats().getSize());
+    }
+
+    @Test
+    public void testQueryProfiling() throws Exception {
+        assertTrue(db.getQueryProfiles().isEmpty());
+
+        closeDB();
+        DatabaseConfiguration config = new DatabaseConfiguration();
+        config.setDirectory(getDbDir().getAbsolutePath());
+        config.setQueryProfilingEnabled(true);
+        db = new Database(TEST_DB, config);
+
+        loadNumbers(100);
+
+        Query query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThan(Expression.intValue(50)));
+        assertEquals(49, query.execute().allResults().size());
+        assertEquals(49, query.execute().allResults().size());
+
+        List<QueryProfile> profiles = db.getQueryProfiles();
+        assertEquals(1, profiles.size());
+        QueryProfile profile = profiles.get(0);
+        assertEquals(2, profile.getExecutions());
+        assertEquals(98, profile.getRows());
+        assertEquals(1, profile.getCompileTimes().getCount());
+        assertEquals(2, profile.getRunTimes().getCount());
+        assertEquals(2, profile.getFirstRowTimes().getCount());
+        assertEquals(2, profile.getEnumerationTimes().getCount());
+        assertNotNull(profile.getPlan());
+        assertTrue(profile.hasFullTableScan());
+
+        // With an index, the plan no longer scans the table
+        db.resetQueryProfiles();
+        assertTrue(db.getQueryProfiles().isEmpty());
+        db.createIndex("numIdx", IndexBuilder.valueIndex(ValueIndexItem.property("number1")));
+        query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThan(Expression.intValue(50)));
+        assertEquals(49, query.execute().allResults().size());
+        profile = db.getQueryProfiles().get(0);
+        assertTrue(profile.getPlan().contains("numIdx"));
+        assertFalse(profile.hasFullTableScan());
+    }
+
+    @Test
+    public void testResultSetSeek() throws Exception {
+        loadNumbers(100);
+
+        ResultSet rs = QueryBuilder.select(SelectResult.property("number1"))
+            .from(DataSource.database(db))
+            .orderBy(Ordering.property("number1"))
+            .execute();
+        try {
+            assertEquals(100, rs.getRowCount());
+
+            assertEquals(1, rs.next().getInt(0));
+
+            // Across batches, in both directions
+            assertEquals(90, rs.get(89).getInt(0));
+            assertEquals(91, rs.next().getInt(0));
+            assertEquals(11, rs.get(10).getInt(0));
+
+            // Past the end, and back again
+            rs.seek(100);
+            assertNull(rs.next());
+            rs.seek(0);
+            assertEquals(100, rs.allResults().size());
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testKeysetPagination() throws Exception {
+        loadNumbers(100);
+
+        final From from = QueryBuilder.select(SelectResult.property("number1"), SelectResult.expression(Meta.id))
+            .from(DataSource.database(db));
+        final Expression where = Expression.property("number1").greaterThan(Expression.intValue(5));
+        final List<Ordering.SortOrder> orderings
+            = Arrays.asList(Ordering.property("number1"), Ordering.expression(Meta.id));
+
+        final List<Integer> numbers = new ArrayList<>();
+        List<Object> lastKey = null;
+        int pages = 0;
+        while (true) {
+            final List<Result> page
+                = QueryBuilder.keysetPage(from, where, orderings, lastKey, 10).execute().allResults();
+            if (page.isEmpty()) { break; }
+            pages++;
+            for (Result result : page) { numbers.add(result.getInt(0)); }
+
+            final Result last = page.get(page.size() - 1);
+            lastKey = Arrays.asList(last.getValue(0), last.getValue(1));
+        }
+
+        assertEquals(10, pages);
+        assertEquals(95, numbers.size());
+        for (int i = 0; i < numbers.size(); i++) { assertEquals(i + 6, (int) numbers.get(i)); }
+    }
+
+    @Test
+    public void testCountAndExists() throws Exception {
+        loadNumbers(100);
+
+        Query query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThanOrEqualTo(Expression.parameter("max")))
+            .orderBy(Ordering.property("number1"));
+        query.setParameters(new Parameters().setInt("max", 42));
+        assertEquals(42, query.count());
+        assertTrue(query.exists());
+
+        query.setParameters(new Parameters().setInt("max", 0));
+        assertEquals(0, query.count());
+        assertFalse(query.exists());
+
+        // Queries that cannot be rewritten are counted by running them
+        query = QueryBuilder.select(SelectResult.expression(Function.count(Expression.intValue(1))))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").greaterThan(Expression.intValue(1000)));
+        assertEquals(1, query.count());
+        assertTrue(query.exists());
+
+        query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .limit(Expression.intValue(10));
+        assertEquals(10, query.count());
+    }
+
+    @Test
+    public void testExecuteBatch() throws Exception {
+        loadNumbers(10);
+
+        Query query = QueryBuilder.select(SelectResult.property("number1"))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThanOrEqualTo(Expression.parameter("max")))
+            .orderBy(Ordering.property("number1"));
+
+        List<Parameters> parameterSets = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) { parameterSets.add(new Parameters().setInt("max", i)); }
+
+        List<ResultSet> resultSets = query.executeBatch(parameterSets);
+        assertEquals(5, resultSets.size());
+        for (int i = 0; i < resultSets.size(); i++) {
+            ResultSet rs = resultSets.get(i);
+            List<Result> results = rs.allResults();
+            assertEquals(i + 1, results.size());
+            assertEquals(i + 1, results.get(i).getInt(0));
+            rs.close();
+        }
+
+        final AtomicInteger calls = new AtomicInteger();
+        query.executeBatch(parameterSets, (index, rs) -> {
+            assertEquals(calls.getAndIncrement(), index);
+            assertEquals(index + 1, rs.allResults().size());
+        });
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    public void testReusedParameters() throws Exception {
+        loadNumbers(10);
+
+        Query query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThanOrEqualTo(Expression.parameter("max")));
+
+        // The parameters' encoding is cached: it must be discarded when they change
+        Parameters params = new Parameters().setInt("max", 3);
+        List<Parameters> parameterSets = Arrays.asList(params, params);
+        query.executeBatch(parameterSets, (index, rs) -> assertEquals(3, rs.allResults().size()));
+
+        params.setInt("max", 7);
+        query.executeBatch(parameterSets, (index, rs) -> assertEquals(7, rs.allResults().size()));
+
+        query.setParameters(params);
+        assertEquals(7, query.execute().allResults().size());
+        assertEquals(7, query.execute().allResults().size());
+
+        // The query has its own copy of the parameters
+        params.setInt("max", 2);
+        assertEquals(7, query.execute().allResults().size());
+    }
+
+    @Test
+    public void testExecuteWithTimeoutAndAsync() throws Exception {
+        loadNumbers(10);
+
+        Query query = QueryBuilder.select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(Expression.property("number1").lessThanOrEqualTo(Expression.intValue(5)));
+
+        assertEquals(5, query.execute(60000).allResults().size());
+
+        final AtomicReference<QueryChange> changeRef = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        QueryExecution execution = query.executeAsync(null, change -> {
+            changeRef.set(change);
+            latch.countDown();
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse(execution.isCancelled());
+
+        QueryChange change = changeRef.get();
+        assertNull(change.getError());
+        assertEquals(query, change.getQuery());
+        ResultSet rs = change.getResults();
+        Result first = rs.next();
+        assertNotNull(first);
+
+        // Cancelling an execution whose results have been delivered stops reading rows from LiteCore
+        // at the next batch, but does not close the results: the rows already read are still valid.
+        execution.cancel();
+        assertTrue(execution.isCancelled());
+        assertNotNull(first.getString(0));
+        assertTrue(rs.allResults().size() <= 4);
+        assertNotNull(first.getString(0));
+        rs.close();
+    }
+
     @Test
     public void testGetAllResults() throws Exception {
         loadNumbers(5);